@@ -0,0 +1,80 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.basics.BatchingExecutor;
+
+/**
+ * Batches of 1000 tasks submitted one by one from the benchmark thread, by the work per task (50 ns to 50 us, calibrated at setup):
+ * Executors.newFixedThreadPool vs BatchingExecutor with batches of 256, as many threads as cores each.
+ * The score is the time per task, submission to completion; the work alone is taskNanos divided by the threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchingExecutorBenchmark {
+
+	private static final int BATCH = 1000;
+
+	@Param({ "50", "500", "5000", "50000" })
+	int taskNanos;
+
+	int work;
+	// the results of the calibration runs, kept so that the JIT can't drop them
+	long calibrationSink;
+	ExecutorService threadPool;
+	BatchingExecutor batching;
+
+	@Setup
+	public void setup() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		threadPool = Executors.newFixedThreadPool(threads);
+		batching = new BatchingExecutor(threads, 256);
+		// the iterations of BatchingExecutor.spin() per nanosecond on this machine, warmed up first
+		for (int i = 0; i < 20; i++) {
+			calibrationSink += BatchingExecutor.spin(1_000_000);
+		}
+		long start = System.nanoTime();
+		calibrationSink += BatchingExecutor.spin(50_000_000);
+		double perNano = 50_000_000.0 / (System.nanoTime() - start);
+		work = (int) Math.max(1, Math.round(taskNanos * perNano));
+	}
+
+	@TearDown
+	public void tearDown() {
+		threadPool.shutdown();
+		batching.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long threadPoolExecutor() throws InterruptedException {
+		return BatchingExecutor.runTinyTasks(threadPool, BATCH, work);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long batchingExecutor() throws InterruptedException {
+		return BatchingExecutor.runTinyTasks(batching, BATCH, work);
+	}
+}
@@ -0,0 +1,73 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.collections.BloomFilteredSet;
+import ca.skylinedata.javatips.concurrency.collections.CountingBloomFilter;
+
+/**
+ * contains() on a ConcurrentSkipListSet of 100,000 strings, bare vs fronted by a 1% CountingBloomFilter, by miss rate, from 4 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class BloomFilterBenchmark {
+
+	private static final int SIZE = 100_000;
+	private static final int QUERIES = 1 << 16;
+
+	@Param({ "0.5", "0.9", "0.99" })
+	double missRate;
+
+	ConcurrentSkipListSet<String> skipListSet;
+	BloomFilteredSet<String> filtered;
+	String[] queries;
+
+	@Setup
+	public void setup() {
+		skipListSet = new ConcurrentSkipListSet<>();
+		filtered = new BloomFilteredSet<>(new ConcurrentSkipListSet<>(), new CountingBloomFilter(SIZE, 0.01));
+		for (int i = 0; i < SIZE; i++) {
+			skipListSet.add("item-" + i);
+			filtered.add("item-" + i);
+		}
+		queries = new String[QUERIES];
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < QUERIES; i++) {
+			queries[i] = "item-" + (random.nextDouble() < missRate ? SIZE + random.nextInt(SIZE) : random.nextInt(SIZE));
+		}
+	}
+
+	private String nextQuery() {
+		return queries[ThreadLocalRandom.current().nextInt(QUERIES)];
+	}
+
+	@Benchmark
+	public boolean skipListSet() {
+		return skipListSet.contains(nextQuery());
+	}
+
+	@Benchmark
+	public boolean bloomFilteredSet() {
+		return filtered.contains(nextQuery());
+	}
+}
@@ -0,0 +1,128 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.skylinedata.javatips.concurrency.collections.ConfigStore;
+
+/**
+ * Write cost and reader throughput of the HAMT-backed ConfigStore vs CopyOnWriteArrayList and CopyOnWriteArraySet, by size.
+ * A write replaces the value of an existing entry, so the size stays the same. The copy-on-write arrays hold "key:value" strings.
+ * The push benchmarks write 100 entries, one put() at a time or in a single update().
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CopyOnWriteBenchmark {
+
+	private static final int PUSH = 100;
+
+	@Param({ "100", "1000", "10000", "50000" })
+	int size;
+
+	ConfigStore<String, String> store;
+	CopyOnWriteArrayList<String> list;
+	CopyOnWriteArraySet<String> set;
+	String[] keys;
+	String[] entries;
+	int next;
+
+	@Setup
+	public void setup() {
+		store = new ConfigStore<>();
+		list = new CopyOnWriteArrayList<>();
+		set = new CopyOnWriteArraySet<>();
+		keys = new String[size];
+		entries = new String[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = "key" + i;
+			entries[i] = keys[i] + ":value";
+			store.put(keys[i], "value");
+			list.add(entries[i]);
+			set.add(entries[i]);
+		}
+	}
+
+	private int nextIndex() {
+		int i = next;
+		next = i + 1 == size ? 0 : i + 1;
+		return i;
+	}
+
+	@Benchmark
+	public String storeWrite() {
+		int i = nextIndex();
+		return store.put(keys[i], "value");
+	}
+
+	@Benchmark
+	public String listWrite() {
+		int i = nextIndex();
+		// the index is known here, a real update would have to search for the entry first
+		return list.set(i, entries[i]);
+	}
+
+	@Benchmark
+	public boolean setWrite() {
+		int i = nextIndex();
+		return set.remove(entries[i]) & set.add(entries[i]);
+	}
+
+	@Benchmark
+	public void storePushOneByOne() {
+		for (int n = 0; n < PUSH; n++) {
+			store.put(keys[nextIndex()], "pushed");
+		}
+	}
+
+	@Benchmark
+	public ConfigStore.Snapshot<String, String> storePushBatched() {
+		return store.update(b -> {
+			for (int n = 0; n < PUSH; n++) {
+				b.put(keys[nextIndex()], "pushed");
+			}
+		});
+	}
+
+	@Benchmark
+	public String storeLookup() {
+		return store.get(keys[nextIndex()]);
+	}
+
+	@Benchmark
+	public boolean setLookup() {
+		return set.contains(entries[nextIndex()]);
+	}
+
+	@Benchmark
+	public void storeScan(Blackhole bh) {
+		store.snapshot().forEach((k, v) -> bh.consume(v));
+	}
+
+	@Benchmark
+	public void listScan(Blackhole bh) {
+		list.forEach(bh::consume);
+	}
+
+	@Benchmark
+	public void setScan(Blackhole bh) {
+		set.forEach(bh::consume);
+	}
+}
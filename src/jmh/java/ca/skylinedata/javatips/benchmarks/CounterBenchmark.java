@@ -0,0 +1,187 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.basics.AdaptiveCounter;
+
+/**
+ * The Casing counter strategies under JMH: each group runs 3 incrementing threads against 1 reading thread,
+ * so we get the increment throughput and the read cost while the counter is being written to.
+ * The thread split can be changed from the command line, e.g. -tg 7,1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterBenchmark {
+
+	private static final VarHandle VALUE;
+
+	static {
+		try {
+			VALUE = MethodHandles.lookup().findVarHandle(Counters.class, "varHandleValue", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@State(Scope.Group)
+	public static class Counters {
+		long synchronizedValue;
+		final Object monitor = new Object();
+		long lockedValue;
+		final ReentrantLock lock = new ReentrantLock();
+		final AtomicInteger atomicInteger = new AtomicInteger();
+		final AtomicLong atomicLong = new AtomicLong();
+		final LongAdder longAdder = new LongAdder();
+		final LongAccumulator longAccumulator = new LongAccumulator(Long::sum, 0);
+		volatile long varHandleValue;
+		final AdaptiveCounter adaptiveCounter = new AdaptiveCounter();
+	}
+
+	@Benchmark
+	@Group("synchronized")
+	@GroupThreads(3)
+	public void synchronizedIncrement(Counters c) {
+		synchronized (c.monitor) {
+			c.synchronizedValue++;
+		}
+	}
+
+	@Benchmark
+	@Group("synchronized")
+	@GroupThreads(1)
+	public long synchronizedRead(Counters c) {
+		synchronized (c.monitor) {
+			return c.synchronizedValue;
+		}
+	}
+
+	@Benchmark
+	@Group("reentrantLock")
+	@GroupThreads(3)
+	public void reentrantLockIncrement(Counters c) {
+		c.lock.lock();
+		try {
+			c.lockedValue++;
+		} finally {
+			c.lock.unlock();
+		}
+	}
+
+	@Benchmark
+	@Group("reentrantLock")
+	@GroupThreads(1)
+	public long reentrantLockRead(Counters c) {
+		c.lock.lock();
+		try {
+			return c.lockedValue;
+		} finally {
+			c.lock.unlock();
+		}
+	}
+
+	@Benchmark
+	@Group("atomicInteger")
+	@GroupThreads(3)
+	public int atomicIntegerIncrement(Counters c) {
+		return c.atomicInteger.incrementAndGet();
+	}
+
+	@Benchmark
+	@Group("atomicInteger")
+	@GroupThreads(1)
+	public int atomicIntegerRead(Counters c) {
+		return c.atomicInteger.get();
+	}
+
+	@Benchmark
+	@Group("atomicLong")
+	@GroupThreads(3)
+	public long atomicLongIncrement(Counters c) {
+		return c.atomicLong.incrementAndGet();
+	}
+
+	@Benchmark
+	@Group("atomicLong")
+	@GroupThreads(1)
+	public long atomicLongRead(Counters c) {
+		return c.atomicLong.get();
+	}
+
+	@Benchmark
+	@Group("longAdder")
+	@GroupThreads(3)
+	public void longAdderIncrement(Counters c) {
+		c.longAdder.increment();
+	}
+
+	@Benchmark
+	@Group("longAdder")
+	@GroupThreads(1)
+	public long longAdderRead(Counters c) {
+		return c.longAdder.sum();
+	}
+
+	@Benchmark
+	@Group("longAccumulator")
+	@GroupThreads(3)
+	public void longAccumulatorIncrement(Counters c) {
+		c.longAccumulator.accumulate(1);
+	}
+
+	@Benchmark
+	@Group("longAccumulator")
+	@GroupThreads(1)
+	public long longAccumulatorRead(Counters c) {
+		return c.longAccumulator.get();
+	}
+
+	@Benchmark
+	@Group("varHandle")
+	@GroupThreads(3)
+	public long varHandleIncrement(Counters c) {
+		return (long) VALUE.getAndAdd(c, 1L);
+	}
+
+	@Benchmark
+	@Group("varHandle")
+	@GroupThreads(1)
+	public long varHandleRead(Counters c) {
+		return (long) VALUE.getVolatile(c);
+	}
+
+	@Benchmark
+	@Group("adaptive")
+	@GroupThreads(3)
+	public void adaptiveIncrement(Counters c) {
+		c.adaptiveCounter.increment();
+	}
+
+	@Benchmark
+	@Group("adaptive")
+	@GroupThreads(1)
+	public long adaptiveRead(Counters c) {
+		return c.adaptiveCounter.sum();
+	}
+}
@@ -0,0 +1,63 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.collections.TimingWheelDelayQueue;
+import ca.skylinedata.javatips.concurrency.collections.TimingWheelDelayQueue.RetryTimer;
+
+/**
+ * DelayQueue vs TimingWheelDelayQueue with 10,000 and 10,000,000 pending timers due in an hour, from 4 threads:
+ * each operation offers a timer that is already due and polls an expired one, i.e. the heap sift up and down of DelayQueue
+ * against the intake push and wheel placement of TimingWheelDelayQueue, with the pending timers in the way.
+ * The 10M timers need a bigger heap than the default, hence the -Xmx of the fork.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Threads(4)
+@State(Scope.Benchmark)
+public class DelayQueueBenchmark {
+
+	@Param({ "DelayQueue", "TimingWheelDelayQueue" })
+	String queueType;
+
+	@Param({ "10000", "10000000" })
+	int pending;
+
+	BlockingQueue<RetryTimer> queue;
+
+	@Setup
+	public void setup() {
+		queue = "DelayQueue".equals(queueType) ? new DelayQueue<>() : new TimingWheelDelayQueue<>();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < pending; i++) {
+			queue.offer(new RetryTimer(random.nextLong(3_600_000, 7_200_000), TimeUnit.MILLISECONDS, i));
+		}
+		// places the pending timers on the wheel
+		queue.poll();
+	}
+
+	@Benchmark
+	public RetryTimer offerThenPoll() {
+		queue.offer(new RetryTimer(-1, TimeUnit.MILLISECONDS, 0));
+		return queue.poll();
+	}
+}
@@ -0,0 +1,84 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Two threads, each incrementing its own counter - there is nothing to share, yet when both counters sit on the same cache line
+ * every write invalidates the other core's copy of the line (false sharing). The padded variant puts them on different lines.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FalseSharingBenchmark {
+
+	@State(Scope.Group)
+	public static class Unpadded {
+		volatile long left;
+		volatile long right;
+	}
+
+	// the JVM is free to reorder the fields of a class, but superclass fields are laid out first,
+	// so the padding goes into the class hierarchy: padding, left, padding, right, padding
+	public static class LeftPadding {
+		long p01, p02, p03, p04, p05, p06, p07, p08;
+	}
+
+	public static class LeftValue extends LeftPadding {
+		volatile long left;
+	}
+
+	public static class MiddlePadding extends LeftValue {
+		long p11, p12, p13, p14, p15, p16, p17, p18;
+	}
+
+	public static class RightValue extends MiddlePadding {
+		volatile long right;
+	}
+
+	@State(Scope.Group)
+	public static class Padded extends RightValue {
+		long p21, p22, p23, p24, p25, p26, p27, p28;
+	}
+
+	@Benchmark
+	@Group("unpadded")
+	@GroupThreads(1)
+	public void unpaddedLeft(Unpadded s) {
+		s.left++;
+	}
+
+	@Benchmark
+	@Group("unpadded")
+	@GroupThreads(1)
+	public void unpaddedRight(Unpadded s) {
+		s.right++;
+	}
+
+	@Benchmark
+	@Group("padded")
+	@GroupThreads(1)
+	public void paddedLeft(Padded s) {
+		s.left++;
+	}
+
+	@Benchmark
+	@Group("padded")
+	@GroupThreads(1)
+	public void paddedRight(Padded s) {
+		s.right++;
+	}
+}
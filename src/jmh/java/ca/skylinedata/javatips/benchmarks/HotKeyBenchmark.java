@@ -0,0 +1,91 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.collections.HotKeyCounterMap;
+
+/**
+ * Counting updates over 10,000 keys from 8 threads: ConcurrentHashMap.compute() vs a ConcurrentHashMap of LongAdders vs HotKeyCounterMap,
+ * with the keys drawn uniformly (exponent 0) or from a Zipf distribution where a few keys get most of the updates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class HotKeyBenchmark {
+
+	private static final int KEYS = 10_000;
+	private static final int SEQUENCE = 1 << 16;
+
+	@State(Scope.Benchmark)
+	public static class Maps {
+
+		@Param({ "0", "1.1" })
+		double exponent;
+
+		String[] symbols;
+		final ConcurrentHashMap<String, Long> compute = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<String, LongAdder> adders = new ConcurrentHashMap<>();
+		final HotKeyCounterMap<String> hotKeys = new HotKeyCounterMap<>();
+
+		@Setup
+		public void setup() {
+			symbols = new String[KEYS];
+			for (int i = 0; i < KEYS; i++) {
+				symbols[i] = "SYM" + i;
+			}
+		}
+	}
+
+	/**
+	 * Each thread walks its own precomputed key sequence, so drawing the keys isn't part of the measurement.
+	 */
+	@State(Scope.Thread)
+	public static class Keys {
+		int[] sequence;
+		int next;
+
+		@Setup
+		public void setup(Maps maps) {
+			sequence = HotKeyCounterMap.zipfSequence(KEYS, maps.exponent, SEQUENCE, Thread.currentThread().getId());
+		}
+
+		String next(Maps maps) {
+			int i = next;
+			next = (i + 1) & (SEQUENCE - 1);
+			return maps.symbols[sequence[i]];
+		}
+	}
+
+	@Benchmark
+	public Long hashMapCompute(Maps maps, Keys keys) {
+		return maps.compute.compute(keys.next(maps), (k, v) -> v == null ? 1 : v + 1);
+	}
+
+	@Benchmark
+	public void hashMapOfLongAdders(Maps maps, Keys keys) {
+		maps.adders.computeIfAbsent(keys.next(maps), k -> new LongAdder()).increment();
+	}
+
+	@Benchmark
+	public void hotKeyCounterMap(Maps maps, Keys keys) {
+		maps.hotKeys.increment(keys.next(maps));
+	}
+}
@@ -0,0 +1,71 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.basics.InstrumentedExecutors;
+
+/**
+ * The cost of the instrumentation per task: batches of 1000 empty tasks through Executors.newFixedThreadPool
+ * vs InstrumentedExecutors.newFixedThreadPool, 4 threads each. The score is the time per task, submission to completion.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstrumentedExecutorBenchmark {
+
+	private static final int BATCH = 1000;
+
+	ExecutorService plain;
+	ExecutorService instrumented;
+
+	@Setup
+	public void setup() {
+		plain = Executors.newFixedThreadPool(4);
+		instrumented = InstrumentedExecutors.newFixedThreadPool("benchmark", 4);
+	}
+
+	@TearDown
+	public void tearDown() {
+		plain.shutdown();
+		instrumented.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void threadPoolExecutor() throws InterruptedException {
+		runBatch(plain);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void instrumentedThreadPoolExecutor() throws InterruptedException {
+		runBatch(instrumented);
+	}
+
+	private static void runBatch(ExecutorService executor) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			executor.execute(done::countDown);
+		}
+		done.await();
+	}
+}
@@ -0,0 +1,72 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.skylinedata.javatips.concurrency.locks.SpinThenParkLock;
+
+/**
+ * ReentrantLock (unfair and fair) vs SpinThenParkLock, with a short critical section (a counter increment)
+ * and a long one (about a microsecond or two of work, depending on the cpu).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LockBenchmark {
+
+	@Param({ "reentrantUnfair", "reentrantFair", "spinThenPark" })
+	String lockType;
+
+	// Blackhole.consumeCPU tokens spent inside the critical section
+	@Param({ "0", "1000" })
+	long work;
+
+	Lock lock;
+	long counter;
+
+	@Setup
+	public void setup() {
+		switch (lockType) {
+		case "reentrantUnfair":
+			lock = new ReentrantLock(false);
+			break;
+		case "reentrantFair":
+			lock = new ReentrantLock(true);
+			break;
+		default:
+			lock = new SpinThenParkLock();
+		}
+	}
+
+	@Benchmark
+	public long lockUnlock() {
+		lock.lock();
+		try {
+			if (work > 0) {
+				Blackhole.consumeCPU(work);
+			}
+			return ++counter;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.collections.ConcurrentLongLongMap;
+
+/**
+ * The ConcurrentMapExample workload under JMH: in each group one thread increments and one decrements,
+ * with ConcurrentHashMap and ConcurrentSkipListMap compute() vs ConcurrentLongLongMap addAndGet().
+ * With keys = 1 both threads hit "k1" as in the demo, with more keys each update picks one at random.
+ * Run with -prof gc to see the allocation per update.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongMapBenchmark {
+
+	@State(Scope.Group)
+	public static class Maps {
+
+		@Param({ "1", "1024" })
+		int keys;
+
+		String[] stringKeys;
+		final ConcurrentHashMap<String, Integer> hashMap = new ConcurrentHashMap<>();
+		final ConcurrentSkipListMap<String, Integer> skipListMap = new ConcurrentSkipListMap<>();
+		final ConcurrentLongLongMap longMap = new ConcurrentLongLongMap();
+
+		@Setup
+		public void setup() {
+			stringKeys = new String[keys];
+			for (int i = 0; i < keys; i++) {
+				stringKeys[i] = "k" + (i + 1);
+				hashMap.put(stringKeys[i], 0);
+				skipListMap.put(stringKeys[i], 0);
+				longMap.put(i + 1, 0);
+			}
+		}
+
+		int next() {
+			return keys == 1 ? 0 : ThreadLocalRandom.current().nextInt(keys);
+		}
+	}
+
+	@Benchmark
+	@Group("concurrentHashMap")
+	@GroupThreads(1)
+	public Integer hashMapIncrement(Maps m) {
+		return m.hashMap.compute(m.stringKeys[m.next()], (k, v) -> ++v);
+	}
+
+	@Benchmark
+	@Group("concurrentHashMap")
+	@GroupThreads(1)
+	public Integer hashMapDecrement(Maps m) {
+		return m.hashMap.compute(m.stringKeys[m.next()], (k, v) -> --v);
+	}
+
+	@Benchmark
+	@Group("concurrentSkipListMap")
+	@GroupThreads(1)
+	public Integer skipListMapIncrement(Maps m) {
+		return m.skipListMap.compute(m.stringKeys[m.next()], (k, v) -> ++v);
+	}
+
+	@Benchmark
+	@Group("concurrentSkipListMap")
+	@GroupThreads(1)
+	public Integer skipListMapDecrement(Maps m) {
+		return m.skipListMap.compute(m.stringKeys[m.next()], (k, v) -> --v);
+	}
+
+	@Benchmark
+	@Group("concurrentLongLongMap")
+	@GroupThreads(1)
+	public long longMapIncrement(Maps m) {
+		return m.longMap.addAndGet(m.next() + 1, 1);
+	}
+
+	@Benchmark
+	@Group("concurrentLongLongMap")
+	@GroupThreads(1)
+	public long longMapDecrement(Maps m) {
+		return m.longMap.addAndGet(m.next() + 1, -1);
+	}
+}
@@ -0,0 +1,79 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.skylinedata.javatips.concurrency.collections.LongBTreeMap;
+
+/**
+ * Lookups and range scans over 1,000,000 time-ordered keys: ConcurrentSkipListMap vs LongBTreeMap.
+ * A scan visits the window entries from a random start, the score is in scans per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderedMapBenchmark {
+
+	private static final int SIZE = 1_000_000;
+
+	@Param({ "100", "10000" })
+	int window;
+
+	long[] keys;
+	ConcurrentSkipListMap<Long, String> skipList;
+	LongBTreeMap<String> tree;
+
+	@Setup
+	public void setup() {
+		keys = new long[SIZE];
+		String[] values = new String[SIZE];
+		skipList = new ConcurrentSkipListMap<>();
+		long t = 0;
+		for (int i = 0; i < SIZE; i++) {
+			t += 1 + ThreadLocalRandom.current().nextInt(10);
+			keys[i] = t;
+			values[i] = "event";
+			skipList.put(t, values[i]);
+		}
+		tree = LongBTreeMap.bulkLoad(keys, values);
+	}
+
+	@Benchmark
+	public String skipListLookup() {
+		return skipList.get(keys[ThreadLocalRandom.current().nextInt(SIZE)]);
+	}
+
+	@Benchmark
+	public String treeLookup() {
+		return tree.get(keys[ThreadLocalRandom.current().nextInt(SIZE)]);
+	}
+
+	@Benchmark
+	public void skipListScan(Blackhole bh) {
+		int from = ThreadLocalRandom.current().nextInt(SIZE - window);
+		skipList.subMap(keys[from], keys[from + window]).forEach((k, v) -> bh.consume(v));
+	}
+
+	@Benchmark
+	public void treeScan(Blackhole bh) {
+		int from = ThreadLocalRandom.current().nextInt(SIZE - window);
+		tree.forEach(keys[from], keys[from + window], (k, v) -> bh.consume(v));
+	}
+}
@@ -0,0 +1,68 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.basics.PaddedAtomicLongArray;
+import ca.skylinedata.javatips.concurrency.basics.PerThreadMetrics;
+
+/**
+ * Per-thread slots of an AtomicLongArray (adjacent, 8 slots per cache line) vs PaddedAtomicLongArray (a cache line per slot).
+ * Run with -t 1, -t 2, -t 4 ... to see the padded variant scale with the threads while the adjacent one collapses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class PaddedArrayBenchmark {
+
+	static final int MAX_THREADS = 64;
+
+	@State(Scope.Benchmark)
+	public static class Arrays {
+		final AtomicLongArray adjacent = new AtomicLongArray(MAX_THREADS);
+		final PaddedAtomicLongArray padded = new PaddedAtomicLongArray(MAX_THREADS);
+		final PerThreadMetrics metrics = new PerThreadMetrics(MAX_THREADS);
+		final AtomicInteger nextSlot = new AtomicInteger();
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadSlot {
+		int slot;
+
+		@Setup
+		public void setup(Arrays arrays) {
+			slot = arrays.nextSlot.getAndIncrement() % MAX_THREADS;
+		}
+	}
+
+	@Benchmark
+	public long adjacent(Arrays arrays, ThreadSlot t) {
+		return arrays.adjacent.incrementAndGet(t.slot);
+	}
+
+	@Benchmark
+	public long padded(Arrays arrays, ThreadSlot t) {
+		return arrays.padded.incrementAndGet(t.slot);
+	}
+
+	@Benchmark
+	public void perThreadMetrics(Arrays arrays) {
+		arrays.metrics.record(42);
+	}
+}
@@ -0,0 +1,74 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.locks.TokenBucket;
+
+/**
+ * tryAcquire throughput of the lock-free TokenBucket vs a Semaphore topped up every millisecond by a scheduled task, at 64 threads.
+ * With a high rate the limiter overhead dominates, with a low one most attempts are denied.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+
+	@Param({ "1000000", "100000000" })
+	long permitsPerSecond;
+
+	static final int BURST = 10_000;
+
+	TokenBucket tokenBucket;
+	Semaphore semaphore;
+	ScheduledExecutorService refiller;
+
+	@Setup
+	public void setup() {
+		tokenBucket = new TokenBucket(permitsPerSecond, BURST);
+		semaphore = new Semaphore(BURST);
+		refiller = Executors.newSingleThreadScheduledExecutor();
+		long perMilli = Math.max(1, permitsPerSecond / 1000);
+		refiller.scheduleAtFixedRate(() -> {
+			int missing = (int) Math.min(perMilli, BURST - semaphore.availablePermits());
+			if (missing > 0) {
+				semaphore.release(missing);
+			}
+		}, 1, 1, TimeUnit.MILLISECONDS);
+	}
+
+	@TearDown
+	public void tearDown() {
+		refiller.shutdownNow();
+	}
+
+	@Benchmark
+	public boolean tokenBucket() {
+		return tokenBucket.tryAcquire();
+	}
+
+	@Benchmark
+	public boolean semaphoreWithScheduledRefill() {
+		return semaphore.tryAcquire();
+	}
+}
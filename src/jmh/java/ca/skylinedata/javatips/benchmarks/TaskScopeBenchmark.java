@@ -0,0 +1,100 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.basics.TaskScope;
+
+/**
+ * The latency of a fan-out/fan-in until the caller knows the outcome: invokeAll() and a loop over Future.get() vs a TaskScope.
+ * The subtasks sleep from 20 to 100 ms (spread evenly), with a pool thread each; with failAfter > 0 one of them fails after that many ms.
+ * On a failure invokeAll() still waits for the slowest subtask, the scope returns at the failure (plus the time its siblings take to exit);
+ * without a failure both wait for the slowest one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TaskScopeBenchmark {
+
+	@Param({ "8", "64" })
+	int subtasks;
+
+	@Param({ "0", "5" })
+	int failAfter;
+
+	ExecutorService executor;
+	List<Callable<Integer>> callables;
+
+	@Setup
+	public void setup() {
+		executor = Executors.newFixedThreadPool(subtasks);
+		callables = new ArrayList<>();
+		for (int i = 0; i < subtasks; i++) {
+			int millis = 20 + 80 * i / (subtasks - 1);
+			boolean failing = failAfter > 0 && i == subtasks / 2;
+			callables.add(() -> {
+				if (failing) {
+					Thread.sleep(failAfter);
+					throw new IllegalStateException("failing on purpose");
+				}
+				Thread.sleep(millis);
+				return millis;
+			});
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public int invokeAll() throws InterruptedException {
+		int sum = 0;
+		try {
+			for (Future<Integer> f : executor.invokeAll(callables)) {
+				sum += f.get();
+			}
+		} catch (ExecutionException e) {
+			return -1;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int taskScope() throws InterruptedException, TimeoutException {
+		int sum = 0;
+		try (TaskScope<Integer> scope = new TaskScope<>(executor)) {
+			callables.forEach(scope::fork);
+			while (scope.remaining() > 0) {
+				sum += scope.take();
+			}
+		} catch (ExecutionException e) {
+			return -1;
+		}
+		return sum;
+	}
+}
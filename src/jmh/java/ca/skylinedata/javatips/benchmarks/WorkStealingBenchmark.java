@@ -0,0 +1,65 @@
+package ca.skylinedata.javatips.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.skylinedata.javatips.concurrency.basics.WorkStealingExecutor;
+
+/**
+ * A binary tree of 65,535 recursive tasks (each one submitting its two children), by the work done at the leaves:
+ * ThreadPoolExecutor with its shared queue vs WorkStealingExecutor, both with as many threads as cores (at least 4).
+ * The score is the time to run the whole tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WorkStealingBenchmark {
+
+	private static final int DEPTH = 15;
+
+	@Param({ "10", "200", "5000" })
+	int leafWork;
+
+	ExecutorService threadPool;
+	WorkStealingExecutor workStealing;
+
+	@Setup
+	public void setup() {
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		threadPool = Executors.newFixedThreadPool(threads);
+		workStealing = new WorkStealingExecutor(threads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		threadPool.shutdown();
+		workStealing.shutdown();
+	}
+
+	@Benchmark
+	public long threadPoolExecutor() throws InterruptedException {
+		return WorkStealingExecutor.runTree(threadPool, DEPTH, leafWork);
+	}
+
+	@Benchmark
+	public long workStealingExecutor() throws InterruptedException {
+		return WorkStealingExecutor.runTree(workStealing, DEPTH, leafWork);
+	}
+}
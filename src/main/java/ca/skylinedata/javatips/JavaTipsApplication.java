@@ -8,11 +8,19 @@ public class JavaTipsApplication {
 
 		System.out.println("async.CompletableFutureExample");
 		System.out.println("async.CompletingFutureExample");
+		System.out.println("async.HedgedExecution");
+		System.out.println("async.TimingWheel");
 		
 		System.out.println("concurrency.basics.Callables");
 		System.out.println("concurrency.basics.Runnables");
 		System.out.println("concurrency.basics.ExecutorsServiceDemo");
 		System.out.println("concurrency.basics.Casing");
+		System.out.println("concurrency.basics.FalseSharingDemo");
+		System.out.println("concurrency.basics.WorkStealingExecutor");
+		System.out.println("concurrency.basics.InstrumentedExecutors");
+		System.out.println("concurrency.basics.SelfSizingExecutor");
+		System.out.println("concurrency.basics.TaskScope");
+		System.out.println("concurrency.basics.BatchingExecutor");
 		
 		System.out.println("concurrency.locks.CacheWithReadWriteLock");
 		System.out.println("concurrency.locks.CyclicBarrierExceptionHandling");
@@ -20,11 +28,25 @@ public class JavaTipsApplication {
 		System.out.println("concurrency.locks.CyclicBarrierTasks");
 		System.out.println("concurrency.locks.ProducerConsumerWithLocks");
 		System.out.println("concurrency.locks.ReentrantLockDemo");
+		System.out.println("concurrency.locks.SpinThenParkLock");
+		System.out.println("concurrency.locks.AdaptiveLimiter");
+		System.out.println("concurrency.locks.TokenBucket");
+		System.out.println("concurrency.locks.WeightedFairSemaphore");
+		System.out.println("concurrency.locks.TieredPhaser");
+		System.out.println("concurrency.locks.DeadlineBarrier");
+		System.out.println("concurrency.locks.EodReportEngine");
 
 		System.out.println("concurrency.collections.ConcurrentMapExamples");
 		System.out.println("concurrency.collections.CopyOnWriteExample");
 		System.out.println("concurrency.collections.QueueDequeExample");
 		System.out.println("concurrency.collections.ConsumerProducerWithBlockingQueue");
+		System.out.println("concurrency.collections.ConfigStore");
+		System.out.println("concurrency.collections.ConcurrentLongLongMap");
+		System.out.println("concurrency.collections.HotKeyCounterMap");
+		System.out.println("concurrency.collections.LongBTreeMap");
+		System.out.println("concurrency.collections.BloomFilteredSet");
+		System.out.println("concurrency.collections.BloomFilteredMap");
+		System.out.println("concurrency.collections.TimingWheelDelayQueue");
 	}
 
 	
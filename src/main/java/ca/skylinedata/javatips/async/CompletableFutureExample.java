@@ -3,16 +3,20 @@ package ca.skylinedata.javatips.async;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import ca.skylinedata.javatips.concurrency.basics.InstrumentedExecutors;
+import ca.skylinedata.javatips.concurrency.basics.InstrumentedThreadPoolExecutor;
+
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class CompletableFutureExample {
 
+	// an order that is not confirmed within this time is considered failed
+	private static final int ORDER_TIMEOUT_SECONDS = 120;
+
 	public static void main(String[] args) {
 		
 		// 1. wait for an order to come = let's say it takes 3 seconds on avg
@@ -44,7 +48,8 @@ public class CompletableFutureExample {
 		// the (reasonably) more workers we get to participate in order processing steps - the faster it is due to work sharing!
 		// but if you get only one worker - the flow will take 9 sec * # of orders
 		// and if you get two workers - you will get some performance benefits of the async execution (about 40-50%)
-		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		// an instrumented pool, to see how long the order steps waited for a worker
+		InstrumentedThreadPoolExecutor executor = InstrumentedExecutors.newFixedThreadPool("orders", threads);
 		
 		List<CompletableFuture<Void>> futures = new ArrayList<>();
 
@@ -60,26 +65,24 @@ public class CompletableFutureExample {
         // note - we can still get some other work done in parallel - the main thread is not blocked
         someUsefulActivity();
         
-        // we are going to use CountDown since we need an object with a counter. It doesn't need to be thread-safe since only the main thread uses it.
-        CountDown countDown = new CountDown(orders);
-        while (countDown.getCount() > 0) {
-        	countDown.resetCount();
-    		futures.stream().forEach(f -> {
-    			if (f.isDone()) {
-    				countDown.countDown();
-    			}
-    		});
-    		if (countDown.getCount() > 0) {
-    			log.info("            ... check: {} orders are still executing/sending confirmation. Will recheck in 2 sec.", countDown.getCount());
-	            try {
-					TimeUnit.SECONDS.sleep(2);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-    		}
-        }      
+        // instead of re-checking every future in a sleep loop, each order reports its own completion with a callback
+        // and gets a deadline on the shared timing wheel, so a stuck order cannot hang the main thread forever
+        AtomicInteger ordersInFlight = new AtomicInteger(orders);
+        CompletableFuture<?>[] timedFutures = futures.stream()
+        		.map(f -> TimingWheel.shared().orTimeout(f, ORDER_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        				.whenComplete((v, e) -> {
+        					if (e != null) {
+        						log.warn("            ... order processing failed or timed out: {}", e.toString());
+        					}
+        					log.info("            ... check: {} orders are still executing/sending confirmation", ordersInFlight.decrementAndGet());
+        				}))
+        		.toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(timedFutures)
+        		.exceptionally(e -> null) // failed orders have been logged by their callback already
+        		.join();
         
         
+        log.info("Order steps: {}", executor.summary());
         //now that we know all futures are done - we can shutdown the executor
         executor.shutdown();
         try {
@@ -168,23 +171,5 @@ public class CompletableFutureExample {
 		}
 	}
 	
-	public static class CountDown {
-		private int orders;
-		private int count;
-		public CountDown(int orders) {
-			this.orders = orders;
-			this.count = orders;
-		}
-		public void countDown() {
-			count--;
-		}
-		public void resetCount() {
-			this.count = orders;
-		}
-		public int getCount() {
-			return count;
-		}
-	}
-	
 
 }
@@ -6,6 +6,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -30,7 +31,7 @@ public class CompletingFutureExample {
 		ExecutorService executorService = Executors.newSingleThreadExecutor();
 
 		// creating an incomplete future, will run with ForkJoinPool.commonPool
-        CompletableFuture<String> completableFuture = CompletableFuture.supplyAsync(() -> {
+        Supplier<String> slowStep = () -> {
         	try {
             	log.info("Running a slowly-executing step");
 				TimeUnit.SECONDS.sleep(10);
@@ -39,7 +40,8 @@ public class CompletingFutureExample {
 			}
         	// if the other thread doesn't complete my future I will return this:
         	return "Slowly-executing step that will make the other thread impatient";
-        }); 
+        };
+        CompletableFuture<String> completableFuture = CompletableFuture.supplyAsync(slowStep); 
 
         String impatientCompletion = "Waited over 1 second. Enough!";
     	log.info(" ... set up some expected result: '{}'", impatientCompletion);
@@ -51,14 +53,12 @@ public class CompletingFutureExample {
         });
 
 
+        // no need to check the future for completion in a sleep loop: the callback runs as soon as the future gets completed, whoever completes it
+        completableFuture.thenAccept(r -> log.info(" ... callback: the future got completed with [{}]", r));
+
         String result;
-        int i = 1;
 		try {
-	        while (!completableFuture.isDone()) { // checking the future for completion
-	        	log.info(" ... main thread checking the future for completion, attempt {}", i++);
-	            TimeUnit.SECONDS.sleep(1);
-	        }
-			result = completableFuture.get();
+			result = completableFuture.get(); // blocks until the future is completed, without polling
 	        log.info("got Slowly-executing step's completableFuture result: [{}]", result);
 	        if (impatientCompletion.contentEquals(result)) {
 		    	log.info("expected result confirmed:                            '{}'", result);
@@ -75,6 +75,13 @@ public class CompletingFutureExample {
 
         executorService.shutdown();
 
+        // the impatient thread above does nothing but sleep and complete the future - a timer can do the same without tying up a thread per future
+        log.info("Same thing with the shared timing wheel: completing the slowly-executing step's future after 1 sec");
+        String timedOutResult = TimingWheel.shared()
+        		.completeOnTimeout(CompletableFuture.supplyAsync(slowStep), impatientCompletion, 1, TimeUnit.SECONDS)
+        		.join();
+        log.info("got Slowly-executing step's completableFuture result: [{}]", timedOutResult);
+
 	}
 	
 }
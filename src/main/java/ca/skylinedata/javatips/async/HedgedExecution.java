@@ -0,0 +1,264 @@
+package ca.skylinedata.javatips.async;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hedged (speculative) execution of a slow step: if the first attempt hasn't finished by the p95 latency,
+ * a duplicate attempt is started, whichever finishes first wins and the loser gets interrupted.
+ */
+@Slf4j
+public class HedgedExecution {
+
+	// we don't trust the p95 until we've seen this many samples, the initial hedge delay is used until then
+	private static final int WARMUP_SAMPLES = 20;
+
+	private final ExecutorService executor;
+	private final TimingWheel timer = TimingWheel.shared();
+	private final long initialHedgeDelayNanos;
+	private final int budgetPercent;
+	private final LatencyWindow latencies = new LatencyWindow(1024);
+
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder hedges = new LongAdder();
+	private final LongAdder hedgeWins = new LongAdder();
+
+	/**
+	 * @param executor runs the attempts, must be able to run 2 attempts per call concurrently for hedging to help
+	 * @param hedgeDelay hedge delay used until enough latencies are observed to compute the p95
+	 * @param budgetPercent cap on the extra load: hedged attempts will not exceed this percentage of the calls
+	 */
+	public HedgedExecution(ExecutorService executor, long hedgeDelay, TimeUnit unit, int budgetPercent) {
+		if (budgetPercent < 0 || budgetPercent > 100) {
+			throw new IllegalArgumentException("budgetPercent must be within 0..100: " + budgetPercent);
+		}
+		this.executor = executor;
+		this.initialHedgeDelayNanos = unit.toNanos(hedgeDelay);
+		this.budgetPercent = budgetPercent;
+	}
+
+	public static void main(String[] args) {
+		// a pipeline step that is usually fast (20 ms), but 1 out of 10 calls hits a slow path (1 sec), e.g. a GC pause or a cold cache on the other side
+		Random random = new Random();
+		Supplier<String> slowStep = () -> {
+			long ms = random.nextInt(10) == 0 ? 1000 : 20;
+			try {
+				TimeUnit.MILLISECONDS.sleep(ms);
+			} catch (InterruptedException e) {
+				// we lost the race and got cancelled, nobody is waiting for our result
+				Thread.currentThread().interrupt();
+				return "interrupted";
+			}
+			return "done in " + ms + " ms";
+		};
+
+		int calls = 200;
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			long[] plain = new long[calls];
+			for (int i = 0; i < calls; i++) {
+				long start = System.nanoTime();
+				CompletableFuture.supplyAsync(slowStep, executor).join();
+				plain[i] = System.nanoTime() - start;
+			}
+			log.info("Without hedging: p50 {} ms, p95 {} ms, p99 {} ms", percentileMs(plain, 50), percentileMs(plain, 95), percentileMs(plain, 99));
+
+			HedgedExecution hedged = new HedgedExecution(executor, 50, TimeUnit.MILLISECONDS, 10);
+			long[] withHedging = new long[calls];
+			for (int i = 0; i < calls; i++) {
+				long start = System.nanoTime();
+				hedged.supply(slowStep).join();
+				withHedging[i] = System.nanoTime() - start;
+			}
+			log.info("With hedging:    p50 {} ms, p95 {} ms, p99 {} ms", percentileMs(withHedging, 50), percentileMs(withHedging, 95), percentileMs(withHedging, 99));
+			log.info("Hedge delay converged to {} ms, {} hedges for {} calls ({} won), extra load {}%",
+					TimeUnit.NANOSECONDS.toMillis(hedged.currentHedgeDelayNanos()), hedged.getHedges(), hedged.getRequests(),
+					hedged.getHedgeWins(), hedged.getHedges() * 100 / hedged.getRequests());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs the supplier, hedging it with a second attempt if the first one is slower than the current hedge delay.
+	 */
+	public <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+		requests.increment();
+		HedgedCall<T> call = new HedgedCall<>(supplier);
+		if (!call.launch(0)) {
+			// rejected by the executor: the call has failed already, no hedge timer to arm
+			return call.result;
+		}
+		TimingWheel.Timeout hedgeTimer = timer.schedule(() -> {
+			if (!call.result.isDone() && tryAcquireHedge()) {
+				call.launch(1);
+			}
+		}, currentHedgeDelayNanos(), TimeUnit.NANOSECONDS); // arming and cancelling the hedge timer is O(1) on the timing wheel
+		call.result.whenComplete((v, e) -> {
+			hedgeTimer.cancel();
+			call.cancelAll();
+		});
+		return call.result;
+	}
+
+	public long currentHedgeDelayNanos() {
+		if (latencies.count() < WARMUP_SAMPLES) {
+			return initialHedgeDelayNanos;
+		}
+		return latencies.percentile(95);
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getHedges() {
+		return hedges.sum();
+	}
+
+	public long getHedgeWins() {
+		return hedgeWins.sum();
+	}
+
+	private boolean tryAcquireHedge() {
+		// the budget is soft - concurrent timers may overshoot it by a hedge or two, which is fine for load shedding purposes
+		if ((hedges.sum() + 1) * 100 > requests.sum() * budgetPercent) {
+			return false;
+		}
+		hedges.increment();
+		return true;
+	}
+
+	private class HedgedCall<T> {
+
+		final Supplier<T> supplier;
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final AtomicReferenceArray<Future<?>> attempts = new AtomicReferenceArray<>(2);
+		final AtomicInteger running = new AtomicInteger();
+		// the attempt that completed the result, set before completing it: the dependent stages run on its thread, which must not be interrupted
+		final AtomicInteger winner = new AtomicInteger(-1);
+		// the latency of the call, not of the attempt: a hedge that wins after the hedge delay took the delay plus its own time
+		final long start = System.nanoTime();
+
+		HedgedCall(Supplier<T> supplier) {
+			this.supplier = supplier;
+		}
+
+		/**
+		 * @return false if the executor rejected the attempt, the call is failed if no other attempt is running
+		 */
+		boolean launch(int attempt) {
+			running.incrementAndGet();
+			Future<?> f;
+			try {
+				f = executor.submit(() -> {
+					try {
+						T value = supplier.get();
+						if (!result.isDone() && winner.compareAndSet(-1, attempt)) {
+							// counted before completing, the caller may look at the counters as soon as it has the result
+							latencies.record(System.nanoTime() - start);
+							if (attempt > 0) {
+								hedgeWins.increment();
+							}
+							result.complete(value);
+						}
+					} catch (Throwable t) {
+						failed(t);
+						return;
+					}
+					running.decrementAndGet();
+				});
+			} catch (RejectedExecutionException e) {
+				failed(e);
+				return false;
+			}
+			attempts.set(attempt, f);
+			if (result.isDone() && winner.get() != attempt) {
+				// the call got completed while we were submitting this attempt
+				f.cancel(true);
+			}
+			return true;
+		}
+
+		private void failed(Throwable t) {
+			// a failed attempt only fails the call if there's no other attempt still racing
+			if (running.decrementAndGet() == 0) {
+				result.completeExceptionally(t);
+			}
+		}
+
+		void cancelAll() {
+			int won = winner.get();
+			for (int i = 0; i < attempts.length(); i++) {
+				Future<?> f = attempts.get(i);
+				if (f != null && i != won) {
+					f.cancel(true); // interrupts the loser
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sliding window of the most recent latencies, the percentile is recomputed lazily every few samples.
+	 */
+	static class LatencyWindow {
+
+		private static final int RECOMPUTE_EVERY = 16;
+
+		private final AtomicLongArray samples;
+		private final AtomicInteger recorded = new AtomicInteger();
+		private volatile long cachedP95;
+		private volatile int cachedAt = -1;
+
+		LatencyWindow(int size) {
+			this.samples = new AtomicLongArray(size);
+		}
+
+		void record(long nanos) {
+			int i = recorded.getAndIncrement();
+			samples.set(Math.floorMod(i, samples.length()), nanos);
+		}
+
+		int count() {
+			return recorded.get();
+		}
+
+		long percentile(int p) {
+			int n = recorded.get();
+			if (p == 95 && n - cachedAt < RECOMPUTE_EVERY) {
+				return cachedP95;
+			}
+			int size = Math.min(n, samples.length());
+			long[] copy = new long[size];
+			for (int i = 0; i < size; i++) {
+				copy[i] = samples.get(i);
+			}
+			Arrays.sort(copy);
+			long value = size == 0 ? 0 : copy[Math.min(size - 1, size * p / 100)];
+			if (p == 95) {
+				cachedP95 = value;
+				cachedAt = n;
+			}
+			return value;
+		}
+	}
+
+	static long percentileMs(long[] nanos, int p) {
+		long[] copy = nanos.clone();
+		Arrays.sort(copy);
+		return TimeUnit.NANOSECONDS.toMillis(copy[Math.min(copy.length - 1, copy.length * p / 100)]);
+	}
+}
@@ -0,0 +1,321 @@
+package ca.skylinedata.javatips.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hashed timing wheel: a single timer thread ticks over an array of buckets, each timeout is hashed into the bucket of its deadline tick.
+ * Arming a timeout is a lock-free enqueue and cancelling it is a CAS, the timer thread unlinks it from its bucket - both are O(1),
+ * regardless of how many timeouts are outstanding. The price is precision: timeouts fire on the tick boundary after their deadline.
+ *
+ * Timeout tasks run on the timer thread, so they must be short - completing a future is fine,
+ * but non-async stages chained on that future will run on the timer thread too.
+ */
+@Slf4j
+public class TimingWheel implements AutoCloseable {
+
+	private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startTime;
+	private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+	private final AtomicLong outstanding = new AtomicLong();
+	private final Thread worker;
+	private volatile boolean running = true;
+	private long tick; // accessed by the worker thread only
+
+	public TimingWheel(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+		if (tickDuration <= 0 || wheelSize <= 0) {
+			throw new IllegalArgumentException("tickDuration and wheelSize must be positive");
+		}
+		this.tickNanos = unit.toNanos(tickDuration);
+		// round the wheel size up to a power of two, so that hashing a tick into a bucket is a mask instead of a modulo
+		int size = Integer.highestOneBit(wheelSize - 1) << 1;
+		this.wheel = new Bucket[Math.max(size, 1)];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = wheel.length - 1;
+		this.startTime = System.nanoTime();
+		this.worker = new Thread(this::run, name);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Timer shared by the async demos: 5 ms ticks, 1024 buckets, so a full wheel revolution is about 5 seconds.
+	 */
+	public static TimingWheel shared() {
+		return SharedHolder.INSTANCE;
+	}
+
+	private static class SharedHolder {
+		static final TimingWheel INSTANCE = new TimingWheel("shared-timing-wheel", 5, TimeUnit.MILLISECONDS, 1024);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int timeouts = 1_000_000;
+		try (TimingWheel timer = new TimingWheel("demo-timing-wheel", 10, TimeUnit.MILLISECONDS, 512)) {
+			AtomicInteger fired = new AtomicInteger();
+
+			// arm a million timeouts over the next 2 seconds, then cancel every other one (e.g. the response came back in time)
+			long start = System.nanoTime();
+			List<Timeout> armed = new ArrayList<>(timeouts);
+			for (int i = 0; i < timeouts; i++) {
+				armed.add(timer.schedule(fired::incrementAndGet, 1000 + i % 1000, TimeUnit.MILLISECONDS));
+			}
+			long armedAt = System.nanoTime();
+			for (int i = 0; i < timeouts; i += 2) {
+				armed.get(i).cancel();
+			}
+			long cancelledAt = System.nanoTime();
+			log.info("Armed {} timeouts in {} ms ({} ns each), cancelled half of them in {} ms",
+					timeouts, TimeUnit.NANOSECONDS.toMillis(armedAt - start), (armedAt - start) / timeouts,
+					TimeUnit.NANOSECONDS.toMillis(cancelledAt - armedAt));
+
+			// futures get their timeouts from the wheel and report completion with a callback, nobody polls them
+			CompletableFuture<String> slow = new CompletableFuture<>();
+			CompletableFuture<String> impatient = new CompletableFuture<>();
+			timer.orTimeout(slow, 500, TimeUnit.MILLISECONDS)
+					.whenComplete((v, e) -> log.info("Slow future completed with: {}", e == null ? v : e.getClass().getSimpleName()));
+			timer.completeOnTimeout(impatient, "Waited over 1 second. Enough!", 1, TimeUnit.SECONDS)
+					.thenAccept(v -> log.info("Impatient future completed with: {}", v));
+
+			impatient.join();
+			TimeUnit.SECONDS.sleep(2);
+			log.info("{} of {} timeouts fired, {} still outstanding", fired.get(), timeouts, timer.outstanding());
+		}
+	}
+
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		return scheduleAt(task, System.nanoTime() + unit.toNanos(delay));
+	}
+
+	/**
+	 * @param deadlineNanoTime deadline in {@link System#nanoTime()} terms
+	 */
+	public Timeout scheduleAt(Runnable task, long deadlineNanoTime) {
+		if (!running) {
+			throw new IllegalStateException("Timing wheel is closed");
+		}
+		Timeout timeout = new Timeout(task, deadlineNanoTime - startTime);
+		outstanding.incrementAndGet();
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Completes the future with a {@link TimeoutException} if it's not done within the timeout, like {@link CompletableFuture#orTimeout}.
+	 */
+	public <T> CompletableFuture<T> orTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+		return orTimeoutAt(future, System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	public <T> CompletableFuture<T> orTimeoutAt(CompletableFuture<T> future, long deadlineNanoTime) {
+		if (!future.isDone()) {
+			Timeout t = scheduleAt(() -> future.completeExceptionally(new TimeoutException()), deadlineNanoTime);
+			future.whenComplete((v, e) -> t.cancel());
+		}
+		return future;
+	}
+
+	/**
+	 * Completes the future with the value if it's not done within the timeout, like {@link CompletableFuture#completeOnTimeout}.
+	 */
+	public <T> CompletableFuture<T> completeOnTimeout(CompletableFuture<T> future, T value, long timeout, TimeUnit unit) {
+		return completeOnTimeoutAt(future, value, System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	public <T> CompletableFuture<T> completeOnTimeoutAt(CompletableFuture<T> future, T value, long deadlineNanoTime) {
+		if (!future.isDone()) {
+			Timeout t = scheduleAt(() -> future.complete(value), deadlineNanoTime);
+			future.whenComplete((v, e) -> t.cancel());
+		}
+		return future;
+	}
+
+	/**
+	 * Number of armed timeouts that have neither fired nor been cancelled.
+	 */
+	public long outstanding() {
+		return outstanding.get();
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(worker);
+	}
+
+	private void run() {
+		while (running) {
+			if (!waitForNextTick()) {
+				break;
+			}
+			unlinkCancelled();
+			transferPending();
+			wheel[(int) (tick & mask)].expireTimeouts();
+			tick++;
+		}
+		log.debug("{} stopped, {} timeouts dropped", worker.getName(), outstanding.get());
+	}
+
+	private boolean waitForNextTick() {
+		long deadline = tickNanos * (tick + 1);
+		for (;;) {
+			long now = System.nanoTime() - startTime;
+			if (now >= deadline) {
+				return true;
+			}
+			LockSupport.parkNanos(this, deadline - now);
+			if (!running) {
+				return false;
+			}
+		}
+	}
+
+	private void unlinkCancelled() {
+		Timeout t;
+		while ((t = cancelledTimeouts.poll()) != null) {
+			if (t.bucket != null) {
+				t.bucket.remove(t);
+			}
+		}
+	}
+
+	private void transferPending() {
+		// bounded, so that a storm of new timeouts doesn't delay this tick's expirations
+		for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+			Timeout t = pendingTimeouts.poll();
+			if (t == null) {
+				return;
+			}
+			if (t.state.get() != Timeout.ARMED) {
+				continue; // cancelled before it made it into the wheel
+			}
+			long deadlineTick = Math.max(t.deadline / tickNanos, tick); // already overdue ones go into the current bucket
+			t.remainingRounds = (deadlineTick - tick) / wheel.length;
+			wheel[(int) (deadlineTick & mask)].add(t);
+		}
+	}
+
+	public final class Timeout {
+
+		static final int ARMED = 0;
+		static final int CANCELLED = 1;
+		static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline; // relative to the wheel's start time
+		private final AtomicInteger state = new AtomicInteger(ARMED);
+		// the fields below are owned by the timer thread
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout prev;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return false if the timeout has already fired or been cancelled
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(ARMED, CANCELLED)) {
+				return false;
+			}
+			outstanding.decrementAndGet();
+			cancelledTimeouts.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(ARMED, EXPIRED)) {
+				return;
+			}
+			outstanding.decrementAndGet();
+			try {
+				task.run();
+			} catch (Throwable e) {
+				log.warn("Timeout task threw an exception", e);
+			}
+		}
+	}
+
+	/**
+	 * Doubly-linked list of timeouts, so that a cancelled timeout can be unlinked in O(1). Accessed by the timer thread only.
+	 */
+	private static final class Bucket {
+
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout t) {
+			t.bucket = this;
+			if (head == null) {
+				head = tail = t;
+			} else {
+				tail.next = t;
+				t.prev = tail;
+				tail = t;
+			}
+		}
+
+		void expireTimeouts() {
+			Timeout t = head;
+			while (t != null) {
+				Timeout next = t.next;
+				if (t.state.get() != Timeout.ARMED) {
+					remove(t);
+				} else if (t.remainingRounds <= 0) {
+					remove(t);
+					t.expire();
+				} else {
+					t.remainingRounds--;
+				}
+				t = next;
+			}
+		}
+
+		void remove(Timeout t) {
+			if (t.bucket != this) {
+				return;
+			}
+			if (t.prev != null) {
+				t.prev.next = t.next;
+			} else {
+				head = t.next;
+			}
+			if (t.next != null) {
+				t.next.prev = t.prev;
+			} else {
+				tail = t.prev;
+			}
+			t.prev = t.next = null;
+			t.bucket = null;
+		}
+	}
+}
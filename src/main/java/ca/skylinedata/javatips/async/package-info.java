@@ -2,6 +2,8 @@
  * This package contains alternative to concurrency approaches, namely async programming examples, covering:
  * - CompletableFuture
  * - ExecutorService
+ * - Hedged (speculative) execution
+ * - Timing wheel for future timeouts
  */
 
 package ca.skylinedata.javatips.async;
\ No newline at end of file
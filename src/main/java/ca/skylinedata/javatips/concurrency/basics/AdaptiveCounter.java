@@ -0,0 +1,128 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A counter that starts as a single AtomicLong and inflates to striped cells (the LongAdder way, each cell on its own cache line) once the CAS failure rate shows contention.
+ * When the cells show that only one writer is left, the next read folds them back into the single value, so reads are cheap again.
+ *
+ * Like LongAdder.sum(), sum() is not an atomic snapshot: it is exact in the absence of concurrent updates.
+ */
+public class AdaptiveCounter {
+
+	// base CAS failures within the window that make us inflate to cells
+	static final int INFLATE_FAILURES = 32;
+	static final long FAILURE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	// how often reads check whether the cells are still needed
+	static final long DEFLATE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	// a cell that got folded back into base: writers that still hold the old cells see it and go back to base
+	private static final long SEALED = Long.MIN_VALUE;
+	private static final int STRIPES = PaddedAtomicLongArray.stripesFor(Runtime.getRuntime().availableProcessors());
+
+	private final AtomicLong base = new AtomicLong();
+	private final AtomicReference<PaddedAtomicLongArray> cells = new AtomicReference<>();
+
+	private final AtomicInteger baseFailures = new AtomicInteger();
+	private volatile long failureWindowStart = System.nanoTime();
+
+	private final AtomicBoolean deflateCheckInProgress = new AtomicBoolean();
+	private volatile long lastDeflateCheck;
+	private long[] lastCellValues = new long[STRIPES]; // guarded by deflateCheckInProgress
+
+	public void increment() {
+		add(1);
+	}
+
+	public void decrement() {
+		add(-1);
+	}
+
+	public void add(long x) {
+		for (;;) {
+			PaddedAtomicLongArray c = cells.get();
+			if (c == null) {
+				long v = base.get();
+				if (base.compareAndSet(v, v + x)) {
+					return;
+				}
+				onBaseCasFailure();
+			} else {
+				int i = PaddedAtomicLongArray.stripeOfCurrentThread(STRIPES);
+				long v;
+				while ((v = c.get(i)) != SEALED) {
+					if (c.compareAndSet(i, v, v + x)) {
+						return;
+					}
+				}
+				// the cells got deflated under our feet, go back to base
+			}
+		}
+	}
+
+	public long sum() {
+		PaddedAtomicLongArray c = cells.get();
+		if (c == null) {
+			return base.get();
+		}
+		long sum = base.get();
+		for (int i = 0; i < STRIPES; i++) {
+			long v = c.get(i);
+			if (v != SEALED) {
+				sum += v;
+			}
+		}
+		maybeDeflate(c);
+		return c == cells.get() ? sum : sum();
+	}
+
+	public boolean isInflated() {
+		return cells.get() != null;
+	}
+
+	private void onBaseCasFailure() {
+		long now = System.nanoTime();
+		if (now - failureWindowStart > FAILURE_WINDOW_NANOS) {
+			// contention from a while ago doesn't count
+			failureWindowStart = now;
+			baseFailures.set(1);
+		} else if (baseFailures.incrementAndGet() >= INFLATE_FAILURES && cells.compareAndSet(null, new PaddedAtomicLongArray(STRIPES))) {
+			baseFailures.set(0);
+			lastDeflateCheck = now;
+		}
+	}
+
+	private void maybeDeflate(PaddedAtomicLongArray c) {
+		long now = System.nanoTime();
+		if (now - lastDeflateCheck < DEFLATE_CHECK_NANOS || !deflateCheckInProgress.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			if (now - lastDeflateCheck < DEFLATE_CHECK_NANOS) {
+				return;
+			}
+			// if no more than one cell changed since the previous check, there's no contention left that the cells would absorb
+			int changedCells = 0;
+			for (int i = 0; i < STRIPES; i++) {
+				long v = c.get(i);
+				if (v != lastCellValues[i]) {
+					changedCells++;
+				}
+				lastCellValues[i] = v;
+			}
+			lastDeflateCheck = now;
+			if (changedCells <= 1 && cells.compareAndSet(c, null)) {
+				for (int i = 0; i < STRIPES; i++) {
+					base.addAndGet(c.getAndSet(i, SEALED));
+				}
+				lastCellValues = new long[STRIPES];
+			}
+		} finally {
+			deflateCheckInProgress.set(false);
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An executor for tiny tasks: a ThreadPoolExecutor hands every task over through its one LinkedBlockingQueue, taking its lock
+ * on both sides and waking a worker for it, so a task of a hundred nanoseconds spends more time in the handoff than running.
+ * Here every worker has its own multi-producer single-consumer intake: a linked queue where a producer appends with a single
+ * getAndSet on the tail, and the worker, its only consumer, follows the links from the head without any CAS.
+ *
+ * The tasks are coalesced into per-worker batches: a submitting thread sends batchSize tasks in a row to the same worker
+ * before moving on to the next one, and the worker runs up to batchSize tasks per wakeup. A producer only unparks a worker that is parked,
+ * so a busy worker takes a whole batch without anyone paying for a wake-up.
+ *
+ * The price: tasks run in the order they were submitted per worker only, and there is no stealing (see WorkStealingExecutor),
+ * a long task holds up the rest of its worker's queue. shutdownNow() doesn't return the queued tasks, the workers drop them as they stop.
+ */
+@Slf4j
+public class BatchingExecutor extends AbstractExecutorService {
+
+	private static final int SPINS_BEFORE_PARKING = 64;
+	// a worker parks at most this long, in case it missed a wake-up
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	// worker states: running, making sure its intake is empty before it terminates, terminated
+	private static final int RUNNING = 0;
+	private static final int EXITING = 1;
+	private static final int TERMINATED = 2;
+
+	private static final VarHandle TAIL;
+	private static final VarHandle PARKED;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			TAIL = lookup.findVarHandle(BatchingExecutor.Worker.class, "tail", Node.class);
+			PARKED = lookup.findVarHandle(BatchingExecutor.Worker.class, "parked", boolean.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Worker[] workers;
+	private final int batchSize;
+	// per submitting thread: the worker it is filling a batch for, and how many tasks it sent it so far
+	private final ThreadLocal<int[]> cursor;
+	private final CountDownLatch terminated;
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder tasks = new LongAdder();
+	private final LongAdder wakeups = new LongAdder();
+	private volatile boolean shutdown;
+	private volatile boolean stopped;
+
+	public BatchingExecutor(int threads, int batchSize) {
+		this(threads, batchSize, "batching");
+	}
+
+	public BatchingExecutor(int threads, int batchSize, String name) {
+		if (threads < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("threads and batchSize must be at least 1");
+		}
+		this.batchSize = batchSize;
+		workers = new Worker[threads];
+		terminated = new CountDownLatch(threads);
+		cursor = ThreadLocal.withInitial(() -> new int[] { ThreadLocalRandom.current().nextInt(threads), 0 });
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker(name + "-" + i);
+		}
+		for (Worker worker : workers) {
+			worker.start();
+		}
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (task == null) {
+			throw new NullPointerException();
+		}
+		if (shutdown) {
+			throw new RejectedExecutionException("executor is shut down");
+		}
+		int[] c = cursor.get();
+		if (++c[1] > batchSize) {
+			c[0] = c[0] + 1 == workers.length ? 0 : c[0] + 1;
+			c[1] = 1;
+		}
+		Worker worker = workers[c[0]];
+		Node node = worker.offer(task);
+		if (worker.state != RUNNING && !worker.willRun(node)) {
+			throw new RejectedExecutionException("executor is shut down");
+		}
+		// after the getAndSet on the tail, so either the worker sees the task before parking or we see it parked
+		if (worker.parked && PARKED.compareAndSet(worker, true, false)) {
+			wakeups.increment();
+			LockSupport.unpark(worker);
+		}
+	}
+
+	/**
+	 * The number of times the workers found tasks in their intake and ran them, up to batchSize at a time.
+	 */
+	public long getBatchCount() {
+		return batches.sum();
+	}
+
+	public long getCompletedTaskCount() {
+		return tasks.sum();
+	}
+
+	/**
+	 * The number of times a producer had to unpark a worker.
+	 */
+	public long getWakeupCount() {
+		return wakeups.sum();
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		stopped = true;
+		// the intakes belong to their workers, the ones still running drop their tasks as they stop
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return terminated.getCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return terminated.await(timeout, unit);
+	}
+
+	private static final class Node {
+		Runnable task;
+		volatile Node next;
+
+		Node(Runnable task) {
+			this.task = task;
+		}
+	}
+
+	private final class Worker extends Thread {
+
+		// the intake: producers swap the tail, then link the previous tail to their node; the head, a consumed node, is the worker's own
+		volatile Node tail;
+		Node head;
+		volatile boolean parked;
+		volatile int state = RUNNING;
+
+		Worker(String name) {
+			super(name);
+			setDaemon(true);
+			head = tail = new Node(null);
+		}
+
+		Node offer(Runnable task) {
+			Node node = new Node(task);
+			Node previous = (Node) TAIL.getAndSet(this, node);
+			// until this link is set the worker sees an empty queue with a tail ahead of its head, and waits for it
+			previous.next = node;
+			return node;
+		}
+
+		boolean isEmpty() {
+			return head == tail;
+		}
+
+		/**
+		 * Terminates only if the intake is still empty once the state says EXITING: a producer that offers after that look sees
+		 * the state and waits for the outcome, one that offered before it is seen here and keeps the worker running.
+		 */
+		private boolean retire() {
+			state = EXITING;
+			if (isEmpty()) {
+				state = TERMINATED;
+				return true;
+			}
+			state = RUNNING;
+			return false;
+		}
+
+		/**
+		 * For a producer that offered the node while the executor shut down: whether the worker runs it, or terminated without seeing it
+		 * (the node is then dropped, nobody reads this intake any more).
+		 */
+		boolean willRun(Node node) {
+			int s;
+			while ((s = state) == EXITING) {
+				Thread.yield();
+			}
+			if (s == RUNNING || node.task == null) {
+				// back to running after seeing a non-empty intake: it won't terminate before running our task
+				return true;
+			}
+			node.task = null;
+			return false;
+		}
+
+		@Override
+		public void run() {
+			try {
+				int idleSpins = 0;
+				while (!stopped) {
+					int ran = runBatch();
+					if (ran > 0) {
+						idleSpins = 0;
+						batches.increment();
+						tasks.add(ran);
+					} else if (shutdown && isEmpty() && retire()) {
+						return;
+					} else if (++idleSpins < SPINS_BEFORE_PARKING || !isEmpty()) {
+						// a producer between its getAndSet and its link is only a few instructions away
+						Thread.onSpinWait();
+					} else {
+						park();
+						idleSpins = 0;
+					}
+				}
+			} finally {
+				state = TERMINATED;
+				terminated.countDown();
+			}
+		}
+
+		private int runBatch() {
+			int ran = 0;
+			Node next;
+			while (ran < batchSize && !stopped && (next = head.next) != null) {
+				Runnable task = next.task;
+				// the new head is the stub now, let go of its task; the old head is garbage, no need to unlink it (a volatile write per task)
+				next.task = null;
+				head = next;
+				ran++;
+				try {
+					task.run();
+				} catch (RuntimeException | Error e) {
+					log.error("Task failed on " + getName(), e);
+				}
+			}
+			return ran;
+		}
+
+		private void park() {
+			parked = true;
+			// a task offered between our last look and parked = true would wait for the timeout, so look once more
+			if (isEmpty() && !shutdown) {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+			parked = false;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int taskCount = 2_000_000;
+		log.info("{} tiny tasks (a few dozen nanoseconds of work each) submitted one by one from the main thread, {} worker threads",
+				String.format("%,d", taskCount), threads);
+		ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+		BatchingExecutor batching = new BatchingExecutor(threads, 256);
+		try {
+			// the first rounds warm up the JIT
+			for (int round = 0; round < 3; round++) {
+				long batchesBefore = batching.getBatchCount();
+				long wakeupsBefore = batching.getWakeupCount();
+				long threadPoolNanos = runTinyTasks(threadPool, taskCount, 32);
+				long batchingNanos = runTinyTasks(batching, taskCount, 32);
+				if (round == 2) {
+					log.info("    ThreadPoolExecutor: {} ms, {} ns per task", TimeUnit.NANOSECONDS.toMillis(threadPoolNanos), threadPoolNanos / taskCount);
+					log.info("    BatchingExecutor:   {} ms, {} ns per task, {} tasks per batch, {} wake-ups",
+							TimeUnit.NANOSECONDS.toMillis(batchingNanos), batchingNanos / taskCount,
+							taskCount / Math.max(1, batching.getBatchCount() - batchesBefore), batching.getWakeupCount() - wakeupsBefore);
+				}
+			}
+		} finally {
+			threadPool.shutdown();
+			batching.shutdown();
+		}
+		log.info("Task sizes from 50 ns to 50 us are in the BatchingExecutorBenchmark of the benchmarks profile");
+	}
+
+	/**
+	 * Submits the tasks one by one and waits for all of them to run.
+	 * @param work the iterations of arithmetic per task, about a nanosecond each
+	 * @return the elapsed nanoseconds
+	 */
+	public static long runTinyTasks(ExecutorService executor, int taskCount, int work) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(taskCount);
+		long start = System.nanoTime();
+		for (int i = 0; i < taskCount; i++) {
+			executor.execute(() -> {
+				if (spin(work) == 42) {
+					log.info("unlikely");
+				}
+				done.countDown();
+			});
+		}
+		done.await();
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * A dependent chain of multiply-adds the JIT can't fold away.
+	 */
+	public static long spin(int iterations) {
+		long x = iterations;
+		for (int i = 0; i < iterations; i++) {
+			x = x * 6364136223846793005L + 1442695040888963407L;
+		}
+		return x;
+	}
+}
@@ -6,6 +6,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 
 import lombok.extern.slf4j.Slf4j;
@@ -22,6 +24,8 @@ public class Casing {
 		//     (threads will wait for each other as opposed to keep retrying to C.A.S.)
 		BrokenCounter.brokenDemo();
 		AtomicCounter.goodDemo();
+		// we don't have to choose upfront: AdaptiveCounter starts as a single AtomicLong and moves to striped cells only while it's contended
+		CounterComparison.compareDemo();
 	}
 
 	public static class BrokenCounter {
@@ -110,6 +114,75 @@ public class Casing {
 			}
 		}
 	}
-	
+
+	public static class CounterComparison {
+
+		public static void compareDemo() {
+			log.info("Demo: AtomicLong vs LongAdder vs synchronized vs AdaptiveCounter");
+
+			final int cycles = 4_000_000; // total increments, split across the threads
+			for (int threads = 1; threads <= 64; threads *= 2) {
+				AtomicLong atomicLong = new AtomicLong();
+				LongAdder longAdder = new LongAdder();
+				long[] synchronizedCounter = new long[1];
+				AdaptiveCounter adaptiveCounter = new AdaptiveCounter();
+
+				long atomicNs = run(threads, cycles, atomicLong::incrementAndGet);
+				long adderNs = run(threads, cycles, longAdder::increment);
+				long synchronizedNs = run(threads, cycles, () -> {
+					synchronized (synchronizedCounter) {
+						synchronizedCounter[0]++;
+					}
+				});
+				long adaptiveNs = run(threads, cycles, adaptiveCounter::increment);
+				log.info("{} threads, ns per increment: AtomicLong {}, LongAdder {}, synchronized {}, AdaptiveCounter {} (inflated: {})",
+						threads, atomicNs / cycles, adderNs / cycles, synchronizedNs / cycles, adaptiveNs / cycles, adaptiveCounter.isInflated());
+				if (atomicLong.get() != cycles || longAdder.sum() != cycles || synchronizedCounter[0] != cycles || adaptiveCounter.sum() != cycles) {
+					log.error("Lost updates! Every counter should be at {}", cycles);
+				}
+
+				if (adaptiveCounter.isInflated()) {
+					// once the writers are gone the next read folds the cells back into a single value
+					sleep(AdaptiveCounter.DEFLATE_CHECK_NANOS);
+					adaptiveCounter.sum();
+					sleep(AdaptiveCounter.DEFLATE_CHECK_NANOS);
+					log.info("    no more contention, AdaptiveCounter sum {}, inflated: {}", adaptiveCounter.sum(), adaptiveCounter.isInflated());
+				}
+			}
+		}
+
+		static long run(int threads, int cycles, Runnable increment) {
+			ExecutorService executorService = Executors.newFixedThreadPool(threads);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			long start = System.nanoTime();
+			try {
+				for (int j = 0; j < threads; j++) {
+					futures.add(executorService.submit(() -> {
+						for (int i = cycles / threads; i > 0; i--) {
+							increment.run();
+						}
+					}));
+				}
+				futures.forEach(f -> {
+					try {
+						f.get();
+					} catch (InterruptedException | ExecutionException e) {
+						log.error("", e);
+					}
+				});
+				return System.nanoTime() - start;
+			} finally {
+				executorService.shutdown();
+			}
+		}
+
+		static void sleep(long nanos) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(nanos);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
 }
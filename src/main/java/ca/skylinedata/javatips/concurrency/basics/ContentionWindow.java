@@ -0,0 +1,57 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Tells contention from bad luck by counting CAS failures over a short window of time: threshold failures within the window mean
+ * the value is contended now, the same number of failures spread over hours don't. A failure after the window has passed starts a new one.
+ *
+ * Racy on purpose: two threads may both start a new window and a failure may get lost, which only delays the verdict by a failure or two.
+ */
+public final class ContentionWindow {
+
+	private static final AtomicIntegerFieldUpdater<ContentionWindow> FAILURES = AtomicIntegerFieldUpdater.newUpdater(ContentionWindow.class, "failures");
+
+	private final int threshold;
+	private final long windowNanos;
+	private volatile long windowStart = System.nanoTime();
+	private volatile int failures;
+
+	public ContentionWindow(int threshold, long window, TimeUnit unit) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("threshold must be at least 1");
+		}
+		this.threshold = threshold;
+		this.windowNanos = unit.toNanos(window);
+	}
+
+	/**
+	 * Counts a CAS failure.
+	 * @return true once there were threshold failures within the window
+	 */
+	public boolean onFailure() {
+		return onFailure(System.nanoTime());
+	}
+
+	/**
+	 * Counts a CAS failure at the given System.nanoTime().
+	 */
+	public boolean onFailure(long now) {
+		if (now - windowStart > windowNanos) {
+			// contention from a while ago doesn't count
+			windowStart = now;
+			failures = 1;
+			return threshold == 1;
+		}
+		return FAILURES.incrementAndGet(this) >= threshold;
+	}
+
+	/**
+	 * Starts over, e.g. once the contention has been dealt with.
+	 */
+	public void reset() {
+		windowStart = System.nanoTime();
+		failures = 0;
+	}
+}
@@ -0,0 +1,34 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+/**
+ * The JMX view of an InstrumentedThreadPoolExecutor, under ca.skylinedata.javatips:type=Executor,name=... (e.g. in JConsole or VisualVM).
+ * Times are in microseconds, over the lifetime of the executor.
+ */
+public interface ExecutorMetricsMXBean {
+
+	String getName();
+
+	int getPoolSize();
+
+	int getActiveCount();
+
+	int getQueueSize();
+
+	long getCompletedTaskCount();
+
+	long getRejectedCount();
+
+	long getFailedCount();
+
+	long getQueueWaitMeanMicros();
+
+	long getQueueWaitP99Micros();
+
+	long getQueueWaitMaxMicros();
+
+	long getRunTimeMeanMicros();
+
+	long getRunTimeP99Micros();
+
+	long getRunTimeMaxMicros();
+}
@@ -0,0 +1,83 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+public class FalseSharingDemo {
+
+	public static void main(String[] args) {
+		// Every thread increments its own counter, so there is no data shared between the threads - the counters should scale with the threads.
+		// But the CPU caches memory in 64-byte lines: 8 adjacent longs of an AtomicLongArray share a line,
+		// and every increment invalidates that line in the caches of all the other cores (false sharing).
+		// PaddedAtomicLongArray puts every slot on its own line.
+		final int cycles = 10_000_000; // increments per thread
+		int cpus = Runtime.getRuntime().availableProcessors();
+		log.info("Demo: per-thread counters, adjacent vs padded, {} cpus", cpus);
+
+		for (int threads = 1; threads <= Math.max(8, cpus); threads *= 2) {
+			AtomicLongArray adjacent = new AtomicLongArray(threads);
+			PaddedAtomicLongArray padded = new PaddedAtomicLongArray(threads);
+
+			long adjacentNs = run(threads, slot -> {
+				for (int i = cycles; i > 0; i--) {
+					adjacent.incrementAndGet(slot);
+				}
+			});
+			long paddedNs = run(threads, slot -> {
+				for (int i = cycles; i > 0; i--) {
+					padded.incrementAndGet(slot);
+				}
+			});
+			// with perfect scaling the throughput grows with the number of threads (up to the number of cpus)
+			log.info("{} threads, million increments per second: adjacent {}, padded {}",
+					threads, (long) threads * cycles * 1000 / adjacentNs, (long) threads * cycles * 1000 / paddedNs);
+		}
+
+		// the same layout, used to collect per-worker statistics
+		int workers = 4;
+		PerThreadMetrics metrics = new PerThreadMetrics(workers);
+		run(workers, slot -> {
+			for (int i = 0; i < 100_000; i++) {
+				metrics.record(ThreadLocalRandom.current().nextInt(1000)); // e.g. task latency in micros
+			}
+		});
+		for (int slot = 0; slot < metrics.slots(); slot++) {
+			log.info("Worker slot {}: {} tasks, avg {} us, max {} us",
+					slot, metrics.count(slot), metrics.total(slot) / Math.max(1, metrics.count(slot)), metrics.max(slot));
+		}
+		log.info("All workers: {} tasks, avg {} us, max {} us", metrics.count(), metrics.total() / metrics.count(), metrics.max());
+	}
+
+	// runs the work on each of the threads, passing it the thread's slot number, and returns the elapsed time
+	static long run(int threads, IntConsumer work) {
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		long start = System.nanoTime();
+		try {
+			for (int j = 0; j < threads; j++) {
+				final int slot = j;
+				futures.add(executorService.submit(() -> work.accept(slot)));
+			}
+			futures.forEach(f -> {
+				try {
+					f.get();
+				} catch (InterruptedException | ExecutionException e) {
+					log.error("", e);
+				}
+			});
+			return System.nanoTime() - start;
+		} finally {
+			executorService.shutdown();
+		}
+	}
+}
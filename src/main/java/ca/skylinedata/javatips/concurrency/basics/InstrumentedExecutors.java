@@ -0,0 +1,178 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Drop-in replacements for the Executors factory methods, returning InstrumentedThreadPoolExecutors:
+ * Executors.newFixedThreadPool(8) becomes InstrumentedExecutors.newFixedThreadPool("orders", 8), and the pool shows up
+ * in JMX as ca.skylinedata.javatips:type=Executor,name=orders and in the periodic log report, until it terminates.
+ * Pools created with the same name get a -2, -3... suffix.
+ *
+ * The log reporter is a single daemon thread, shared by all the pools: startLogReporter(10, TimeUnit.SECONDS) logs a summary
+ * of every live pool with the number of tasks completed since the previous report.
+ */
+@Slf4j
+public class InstrumentedExecutors {
+
+	private static final String JMX_DOMAIN = "ca.skylinedata.javatips";
+	private static final Map<String, InstrumentedThreadPoolExecutor> EXECUTORS = new ConcurrentHashMap<>();
+	private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+	private InstrumentedExecutors() {
+	}
+
+	public static InstrumentedThreadPoolExecutor newFixedThreadPool(int threads) {
+		return newFixedThreadPool("pool-" + POOL_NUMBER.incrementAndGet(), threads);
+	}
+
+	public static InstrumentedThreadPoolExecutor newFixedThreadPool(String name, int threads) {
+		return register(new InstrumentedThreadPoolExecutor(name, threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				threadFactory(name), new ThreadPoolExecutor.AbortPolicy()));
+	}
+
+	/**
+	 * A fixed pool with a bounded queue, which rejects tasks once the queue is full, so that the rejection count means something.
+	 */
+	public static InstrumentedThreadPoolExecutor newBoundedThreadPool(String name, int threads, int queueCapacity) {
+		return register(new InstrumentedThreadPoolExecutor(name, threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), threadFactory(name), new ThreadPoolExecutor.AbortPolicy()));
+	}
+
+	public static InstrumentedThreadPoolExecutor newSingleThreadExecutor() {
+		return newFixedThreadPool(1);
+	}
+
+	public static InstrumentedThreadPoolExecutor newSingleThreadExecutor(String name) {
+		return newFixedThreadPool(name, 1);
+	}
+
+	public static InstrumentedThreadPoolExecutor newCachedThreadPool(String name) {
+		return register(new InstrumentedThreadPoolExecutor(name, 0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+				threadFactory(name), new ThreadPoolExecutor.AbortPolicy()));
+	}
+
+	/**
+	 * The live pools, i.e. not terminated yet.
+	 */
+	public static Collection<InstrumentedThreadPoolExecutor> executors() {
+		return EXECUTORS.values();
+	}
+
+	/**
+	 * Logs a summary of every live pool at a fixed rate, until the returned future is cancelled.
+	 */
+	public static ScheduledFuture<?> startLogReporter(long period, TimeUnit unit) {
+		Map<String, Long> lastCompleted = new ConcurrentHashMap<>();
+		return ReporterHolder.REPORTER.scheduleAtFixedRate(() -> {
+			for (InstrumentedThreadPoolExecutor executor : EXECUTORS.values()) {
+				long completed = executor.getCompletedTaskCount();
+				Long previous = lastCompleted.put(executor.getName(), completed);
+				log.info("+{} tasks since the last report, {}", completed - (previous == null ? 0 : previous), executor.summary());
+			}
+			lastCompleted.keySet().retainAll(EXECUTORS.keySet());
+		}, period, period, unit);
+	}
+
+	private static class ReporterHolder {
+		static final ScheduledExecutorService REPORTER = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "executor-metrics-reporter");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	private static InstrumentedThreadPoolExecutor register(InstrumentedThreadPoolExecutor executor) {
+		String base = executor.getName();
+		String name = base;
+		for (int n = 2; EXECUTORS.putIfAbsent(name, executor) != null; n++) {
+			name = base + "-" + n;
+		}
+		executor.registeredName = name;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(executor, objectName(name));
+		} catch (JMException e) {
+			log.warn("Executor {} not registered with JMX: {}", name, e.toString());
+		}
+		return executor;
+	}
+
+	static void unregister(InstrumentedThreadPoolExecutor executor) {
+		String name = executor.registeredName;
+		if (name == null || !EXECUTORS.remove(name, executor)) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName(name);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			log.warn("Executor {} not unregistered from JMX: {}", name, e.toString());
+		}
+	}
+
+	private static ObjectName objectName(String name) throws JMException {
+		return new ObjectName(JMX_DOMAIN + ":type=Executor,name=" + ObjectName.quote(name));
+	}
+
+	private static ThreadFactory threadFactory(String name) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return r -> new Thread(r, name + "-" + threadNumber.incrementAndGet());
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		startLogReporter(1, TimeUnit.SECONDS);
+		// a pool that keeps up and one that doesn't: the queue wait tells them apart, the run times don't
+		InstrumentedThreadPoolExecutor fast = newFixedThreadPool("keeping-up", 4);
+		InstrumentedThreadPoolExecutor slow = newBoundedThreadPool("falling-behind", 1, 500);
+		log.info("Submitting 2 ms tasks at 800 per second to each pool for 3 seconds, see them in JConsole under {}:type=Executor", JMX_DOMAIN);
+		long start = System.nanoTime();
+		for (int i = 0; i < 2400; i++) {
+			Runnable task = () -> sleepMillis(2);
+			fast.execute(task);
+			try {
+				slow.execute(task);
+			} catch (RejectedExecutionException e) {
+				// counted by the pool
+			}
+			long next = start + TimeUnit.MICROSECONDS.toNanos(1250L * (i + 1));
+			LockSupport.parkNanos(next - System.nanoTime());
+		}
+		fast.shutdown();
+		slow.shutdown();
+		fast.awaitTermination(10, TimeUnit.SECONDS);
+		slow.awaitTermination(10, TimeUnit.SECONDS);
+		log.info("Final:\n{}\n{}", fast.summary(), slow.summary());
+		log.info("The cost of the instrumentation per task is in the InstrumentedExecutorBenchmark of the benchmarks profile");
+	}
+
+	private static void sleepMillis(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ThreadPoolExecutor that times every task: how long it waited in the queue and how long it ran, in two LatencyHistograms,
+ * and counts the rejected and failed tasks. execute() wraps the task with its enqueue time (submit() goes through execute(),
+ * so futures are timed too); the cost per task is the wrapper, two nanoTime() calls and two lock-free histogram records.
+ *
+ * Created by InstrumentedExecutors, which registers it with JMX and the log reporter until it terminates.
+ * shutdownNow(), remove() and purge() deal with the tasks as they were submitted, but getQueue() holds the wrappers.
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor implements ExecutorMetricsMXBean {
+
+	private final String name;
+	private final LatencyHistogram queueWaits = new LatencyHistogram();
+	private final LatencyHistogram runTimes = new LatencyHistogram();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	// the name in JMX and the registry, unique among the live pools
+	volatile String registeredName;
+
+	InstrumentedThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+			BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+		super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+		this.name = name;
+		super.setRejectedExecutionHandler(new CountingHandler(handler));
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		super.execute(new TimedTask(command, System.nanoTime()));
+	}
+
+	@Override
+	public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+		super.setRejectedExecutionHandler(new CountingHandler(handler));
+	}
+
+	@Override
+	public RejectedExecutionHandler getRejectedExecutionHandler() {
+		return ((CountingHandler) super.getRejectedExecutionHandler()).delegate;
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> pending = new ArrayList<>();
+		for (Runnable r : super.shutdownNow()) {
+			pending.add(r instanceof TimedTask ? ((TimedTask) r).task : r);
+		}
+		return pending;
+	}
+
+	@Override
+	public boolean remove(Runnable task) {
+		for (Object r : getQueue().toArray()) {
+			if (r instanceof TimedTask && ((TimedTask) r).task.equals(task)) {
+				return super.remove((Runnable) r);
+			}
+		}
+		return super.remove(task);
+	}
+
+	/**
+	 * Removes the cancelled futures from the queue: ThreadPoolExecutor.purge() looks for Futures, the queue holds their wrappers.
+	 */
+	@Override
+	public void purge() {
+		for (Object r : getQueue().toArray()) {
+			if (r instanceof TimedTask) {
+				Runnable task = ((TimedTask) r).task;
+				if (task instanceof Future && ((Future<?>) task).isCancelled()) {
+					super.remove((Runnable) r);
+				}
+			}
+		}
+		super.purge();
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		// t is only set for tasks given to execute(), a FutureTask keeps its exception for get()
+		if (t != null) {
+			failed.increment();
+		}
+	}
+
+	@Override
+	protected void terminated() {
+		InstrumentedExecutors.unregister(this);
+	}
+
+	@Override
+	public String getName() {
+		return registeredName == null ? name : registeredName;
+	}
+
+	@Override
+	public int getQueueSize() {
+		return getQueue().size();
+	}
+
+	@Override
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	@Override
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	public LatencyHistogram getQueueWaits() {
+		return queueWaits;
+	}
+
+	public LatencyHistogram getRunTimes() {
+		return runTimes;
+	}
+
+	@Override
+	public long getQueueWaitMeanMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(queueWaits.mean());
+	}
+
+	@Override
+	public long getQueueWaitP99Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(queueWaits.percentile(99));
+	}
+
+	@Override
+	public long getQueueWaitMaxMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(queueWaits.max());
+	}
+
+	@Override
+	public long getRunTimeMeanMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(runTimes.mean());
+	}
+
+	@Override
+	public long getRunTimeP99Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(runTimes.percentile(99));
+	}
+
+	@Override
+	public long getRunTimeMaxMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(runTimes.max());
+	}
+
+	/**
+	 * The counts, then the queue wait and run time summaries on a line each.
+	 */
+	public String summary() {
+		return String.format("%s: threads=%d active=%d queued=%d completed=%d rejected=%d failed=%d%n    queue wait: %s%n    run time:   %s",
+				getName(), getPoolSize(), getActiveCount(), getQueueSize(), getCompletedTaskCount(), getRejectedCount(), getFailedCount(),
+				queueWaits.summaryMicros(), runTimes.summaryMicros());
+	}
+
+	private final class TimedTask implements Runnable {
+		private final Runnable task;
+		private final long enqueued;
+
+		TimedTask(Runnable task, long enqueued) {
+			this.task = task;
+			this.enqueued = enqueued;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			queueWaits.record(start - enqueued);
+			try {
+				task.run();
+			} finally {
+				runTimes.record(System.nanoTime() - start);
+			}
+		}
+	}
+
+	private final class CountingHandler implements RejectedExecutionHandler {
+		private final RejectedExecutionHandler delegate;
+
+		CountingHandler(RejectedExecutionHandler delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			rejected.increment();
+			delegate.rejectedExecution(r instanceof TimedTask ? ((TimedTask) r).task : r, executor);
+		}
+	}
+}
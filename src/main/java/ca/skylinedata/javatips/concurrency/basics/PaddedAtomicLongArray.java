@@ -0,0 +1,92 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An AtomicLongArray where every slot sits on its own cache line, so that threads updating neighbouring slots don't invalidate each other's line.
+ * The slots are spread 128 bytes apart in a bigger backing array: 64 bytes of a cache line, plus the adjacent line that the CPU may prefetch together with it.
+ * The leading padding keeps slot 0 away from the array header and whatever object got allocated before the array.
+ */
+public class PaddedAtomicLongArray {
+
+	// 16 longs = 128 bytes between two slots
+	static final int SPACING = 16;
+
+	private final AtomicLongArray array;
+	private final int length;
+
+	public PaddedAtomicLongArray(int length) {
+		this.length = length;
+		this.array = new AtomicLongArray((length + 1) * SPACING);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public long get(int i) {
+		return array.get(index(i));
+	}
+
+	public void set(int i, long value) {
+		array.set(index(i), value);
+	}
+
+	public long getAndSet(int i, long value) {
+		return array.getAndSet(index(i), value);
+	}
+
+	public boolean compareAndSet(int i, long expect, long update) {
+		return array.compareAndSet(index(i), expect, update);
+	}
+
+	public long addAndGet(int i, long delta) {
+		return array.addAndGet(index(i), delta);
+	}
+
+	public long getAndAdd(int i, long delta) {
+		return array.getAndAdd(index(i), delta);
+	}
+
+	public long incrementAndGet(int i) {
+		return array.incrementAndGet(index(i));
+	}
+
+	/**
+	 * Raises the slot to the value if it's lower, e.g. to track a maximum.
+	 */
+	public long accumulateMax(int i, long value) {
+		return array.accumulateAndGet(index(i), value, Math::max);
+	}
+
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < length; i++) {
+			sum += get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * The number of slots for striping a hot value over the cpus: twice the cores rounded up to a power of two (at least 4),
+	 * so that thread ids hash to different slots most of the time.
+	 */
+	public static int stripesFor(int cpus) {
+		return Math.max(4, Integer.highestOneBit(cpus * 2 - 1) << 1);
+	}
+
+	/**
+	 * The slot of the current thread among a power of two of stripes: a Fibonacci hash of the thread id, so that a thread keeps hitting the same slot.
+	 */
+	public static int stripeOfCurrentThread(int stripes) {
+		long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return (int) ((h >>> 32) & (stripes - 1));
+	}
+
+	private int index(int i) {
+		if (i < 0 || i >= length) {
+			throw new IndexOutOfBoundsException("index " + i + " out of bounds for length " + length);
+		}
+		return (i + 1) * SPACING;
+	}
+}
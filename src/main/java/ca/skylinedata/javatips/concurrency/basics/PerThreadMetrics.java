@@ -0,0 +1,69 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-worker statistics: every thread gets its own slot in each of the padded arrays, so workers recording at the same time
+ * don't share a cache line. Slots are handed out round-robin; past the number of slots the threads start sharing them,
+ * which costs some contention but stays correct since every update is atomic.
+ * Reads walk all the slots, so they are meant for reporting, not for the hot path.
+ */
+public class PerThreadMetrics {
+
+	private final PaddedAtomicLongArray counts;
+	private final PaddedAtomicLongArray totals;
+	private final PaddedAtomicLongArray maximums;
+	private final AtomicInteger nextSlot = new AtomicInteger();
+	private final ThreadLocal<Integer> slot;
+
+	public PerThreadMetrics(int slots) {
+		this.counts = new PaddedAtomicLongArray(slots);
+		this.totals = new PaddedAtomicLongArray(slots);
+		this.maximums = new PaddedAtomicLongArray(slots);
+		this.slot = ThreadLocal.withInitial(() -> Math.floorMod(nextSlot.getAndIncrement(), slots));
+	}
+
+	/**
+	 * Records one event with its value, e.g. the latency of a task.
+	 */
+	public void record(long value) {
+		int i = slot.get();
+		counts.incrementAndGet(i);
+		totals.addAndGet(i, value);
+		if (value > maximums.get(i)) {
+			maximums.accumulateMax(i, value);
+		}
+	}
+
+	public int slots() {
+		return counts.length();
+	}
+
+	public long count() {
+		return counts.sum();
+	}
+
+	public long total() {
+		return totals.sum();
+	}
+
+	public long max() {
+		long max = 0;
+		for (int i = 0; i < maximums.length(); i++) {
+			max = Math.max(max, maximums.get(i));
+		}
+		return max;
+	}
+
+	public long count(int slot) {
+		return counts.get(slot);
+	}
+
+	public long total(int slot) {
+		return totals.get(slot);
+	}
+
+	public long max(int slot) {
+		return maximums.get(slot);
+	}
+}
@@ -0,0 +1,244 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A thread pool that sizes itself from what its tasks do: it samples the wall time and the CPU time (ThreadMXBean) of its tasks,
+ * and moves its core pool size toward cores * (1 + wait / compute) - about the cores for CPU-bound tasks,
+ * many more threads for tasks that mostly sleep or block - within its min and max, instead of a fixed size picked by guessing.
+ *
+ * A thread that waits for a core (more runnable threads than cores) looks like a blocked one to wall minus CPU time,
+ * so the pool would never shrink back once oversubscribed: n CPU-bound threads on c cores measure a ratio of n / c - 1, and a target of n.
+ * So the pool also measures the process CPU utilization u, and scales the wall time down by c / (c + (n - c) * u), an estimate
+ * of the share of a core each thread gets: n / c threads per core when the cores are saturated, none of the sharing when they are idle
+ * (a fixed threshold on u doesn't work, on a shared host a saturated process may never reach 90%).
+ * It doesn't grow beyond the tasks it has either (active plus queued), idle threads don't help.
+ *
+ * Reading the thread CPU time costs about half a microsecond here, so every task is sampled while tasks take over 100 us,
+ * one in 16 below that. The pool resizes at most every 200 ms, half way to its target each time, to damp the swings.
+ * The queue is unbounded, so the maximum pool size follows the core size.
+ */
+@Slf4j
+public class SelfSizingExecutor extends ThreadPoolExecutor {
+
+	private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+	private static final long SAMPLE_ALL_ABOVE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	private static final int SAMPLE_ONE_IN = 16;
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final int cores;
+	private final int minThreads;
+	private final int maxThreads;
+	private final boolean cpuTimeSupported;
+	private final ThreadLocal<long[]> taskStart = ThreadLocal.withInitial(() -> new long[2]);
+	private final LongAdder sampledWall = new LongAdder();
+	private final LongAdder sampledCpu = new LongAdder();
+	private final LongAdder samples = new LongAdder();
+	private final LongAdder resizes = new LongAdder();
+	private final AtomicBoolean resizing = new AtomicBoolean();
+	private volatile boolean sampleAll = true;
+	private volatile long windowStart = System.nanoTime();
+	private volatile long windowProcessCpu = processCpuTime();
+	private volatile double blockingRatio;
+	private volatile double utilization;
+
+	public SelfSizingExecutor(String name, int initialThreads, int minThreads, int maxThreads) {
+		super(initialPoolSize(initialThreads, minThreads, maxThreads), initialPoolSize(initialThreads, minThreads, maxThreads), 60,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory(name));
+		this.cores = Runtime.getRuntime().availableProcessors();
+		this.minThreads = minThreads;
+		this.maxThreads = maxThreads;
+		this.cpuTimeSupported = THREADS.isCurrentThreadCpuTimeSupported();
+		if (cpuTimeSupported && !THREADS.isThreadCpuTimeEnabled()) {
+			THREADS.setThreadCpuTimeEnabled(true);
+		}
+		if (!cpuTimeSupported) {
+			log.warn("Thread CPU time is not supported by this JVM, {} stays at {} threads", name, getCorePoolSize());
+		}
+	}
+
+	/**
+	 * The last measured wait / compute ratio of the tasks.
+	 */
+	public double getBlockingRatio() {
+		return blockingRatio;
+	}
+
+	/**
+	 * The process CPU utilization over the last window, 1.0 when all the cores are busy.
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+
+	public long getResizeCount() {
+		return resizes.sum();
+	}
+
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		long[] start = taskStart.get();
+		if (cpuTimeSupported && (sampleAll || ThreadLocalRandom.current().nextInt(SAMPLE_ONE_IN) == 0)) {
+			start[0] = System.nanoTime();
+			start[1] = THREADS.getCurrentThreadCpuTime();
+		} else {
+			start[0] = 0;
+		}
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		long[] start = taskStart.get();
+		if (start[0] == 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		sampledCpu.add(THREADS.getCurrentThreadCpuTime() - start[1]);
+		sampledWall.add(now - start[0]);
+		samples.increment();
+		if (now - windowStart >= WINDOW_NANOS && resizing.compareAndSet(false, true)) {
+			try {
+				resize(now);
+			} finally {
+				resizing.set(false);
+			}
+		}
+	}
+
+	private void resize(long now) {
+		long n = samples.sumThenReset();
+		long wall = sampledWall.sumThenReset();
+		long cpu = sampledCpu.sumThenReset();
+		long processCpu = processCpuTime();
+		utilization = processCpu < 0 ? 0 : (double) (processCpu - windowProcessCpu) / ((now - windowStart) * cores);
+		windowProcessCpu = processCpu;
+		windowStart = now;
+		if (n == 0) {
+			return;
+		}
+		sampleAll = wall / n > SAMPLE_ALL_ABOVE_NANOS;
+		int current = getCorePoolSize();
+		int threads = Math.max(current, getPoolSize());
+		if (threads > cores) {
+			// part of the wall time was spent waiting for a core, not blocked
+			wall = (long) (wall * cores / (cores + (threads - cores) * Math.min(1, utilization)));
+		}
+		// at least a microsecond of CPU per task, so that tasks that only sleep don't divide by zero
+		blockingRatio = Math.max(0, wall - cpu) / (double) Math.max(cpu, TimeUnit.MICROSECONDS.toNanos(n));
+
+		int target = (int) Math.min(maxThreads, Math.round(cores * (1 + blockingRatio)));
+		// no growing beyond the tasks at hand, but no shrinking in a lull either
+		target = Math.min(target, Math.max(current, getActiveCount() + getQueue().size()));
+		target = clamp(target, minThreads, maxThreads);
+		int next = target > current ? current + Math.max(1, (target - current) / 2)
+				: target < current ? current - Math.max(1, (current - target) / 2) : current;
+		if (next > current) {
+			setMaximumPoolSize(next);
+			setCorePoolSize(next);
+			resizes.increment();
+		} else if (next < current) {
+			// lowering the core size alone doesn't stop the extra threads while there are queued tasks, lowering the maximum does
+			setCorePoolSize(next);
+			setMaximumPoolSize(next);
+			resizes.increment();
+		}
+	}
+
+	private static long processCpuTime() {
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		return os instanceof com.sun.management.OperatingSystemMXBean ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1;
+	}
+
+	/**
+	 * Checks the bounds before the super constructor sees them, and clamps the initial size between them.
+	 */
+	private static int initialPoolSize(int initialThreads, int minThreads, int maxThreads) {
+		if (minThreads < 1 || maxThreads < minThreads) {
+			throw new IllegalArgumentException("Expecting 1 <= minThreads <= maxThreads");
+		}
+		return clamp(initialThreads, minThreads, maxThreads);
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	private static java.util.concurrent.ThreadFactory threadFactory(String name) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return r -> new Thread(r, name + "-" + threadNumber.incrementAndGet());
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int cores = Runtime.getRuntime().availableProcessors();
+		log.info("{} cores", cores);
+
+		// the Casing loops: CPU-bound, a pool of 16 guessed threads should come down to the cores
+		SelfSizingExecutor cpuBound = new SelfSizingExecutor("cpu-bound", 16, 1, 64);
+		LongAdder counter = new LongAdder();
+		try {
+			for (int round = 1; round <= 8; round++) {
+				long start = System.nanoTime();
+				List<Future<?>> futures = new ArrayList<>();
+				for (int t = 0; t < 64; t++) {
+					futures.add(cpuBound.submit(() -> {
+						for (int i = 0; i < 1_000_000; i++) {
+							counter.increment();
+						}
+					}));
+				}
+				for (Future<?> f : futures) {
+					f.get();
+				}
+				log.info("Casing loops, round {}: {} threads, blocking ratio {}, CPU utilization {}%, {} ms", round, cpuBound.getCorePoolSize(),
+						String.format("%.2f", cpuBound.getBlockingRatio()), Math.round(cpuBound.getUtilization() * 100),
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+		} finally {
+			cpuBound.shutdown();
+		}
+
+		// the CompletableFutureExample order pipeline, in milliseconds instead of seconds: sleep-bound, a single thread should grow
+		SelfSizingExecutor sleepBound = new SelfSizingExecutor("orders", 1, 1, 64);
+		try {
+			for (int round = 1; round <= 8; round++) {
+				long start = System.nanoTime();
+				List<CompletableFuture<Void>> orders = new ArrayList<>();
+				for (int i = 0; i < 20; i++) {
+					orders.add(CompletableFuture.runAsync(() -> sleepMillis(30), sleepBound)
+							.thenRunAsync(() -> sleepMillis(10), sleepBound)
+							.thenRunAsync(() -> sleepMillis(30), sleepBound)
+							.thenRunAsync(() -> sleepMillis(20), sleepBound));
+				}
+				CompletableFuture.allOf(orders.toArray(new CompletableFuture<?>[0])).join();
+				log.info("Order pipeline, round {}: {} threads, blocking ratio {}, 20 orders in {} ms (1800 ms on one thread, 90 ms at best)", round,
+						sleepBound.getCorePoolSize(), String.format("%.0f", sleepBound.getBlockingRatio()),
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+		} finally {
+			sleepBound.shutdown();
+		}
+	}
+
+	private static void sleepMillis(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
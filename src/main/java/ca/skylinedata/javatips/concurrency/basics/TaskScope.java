@@ -0,0 +1,342 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ca.skylinedata.javatips.async.TimingWheel;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A structured fan-out/fan-in of Callables on an ExecutorService: fork() the subtasks, take() their results in completion order
+ * (not in submission order, as looping over the futures of invokeAll() does), and the scope cancels the rest on the first failure
+ * or at the deadline, instead of letting them run to the end while nobody waits for them any more.
+ *
+ * <pre>
+ * try (TaskScope&lt;Quote&gt; scope = new TaskScope&lt;&gt;(executor, 200, TimeUnit.MILLISECONDS)) {
+ *     suppliers.forEach(s -&gt; scope.fork(() -&gt; s.quote(order)));
+ *     while (scope.remaining() &gt; 0) {
+ *         Quote quote = scope.take(); // throws the first failure, or TimeoutException at the deadline
+ *     }
+ * }
+ * </pre>
+ *
+ * close() cancels the subtasks still running (interrupting them) and waits until all of them have exited, so no sibling outlives the scope;
+ * a subtask that ignores interrupts holds up close() until it returns. The subtasks queued in the executor don't start once the scope
+ * is shut down. fork(), take() and close() belong to the thread that created the scope.
+ */
+@Slf4j
+public class TaskScope<T> implements AutoCloseable {
+
+	private final ExecutorService executor;
+	private final long deadline;
+	private final boolean timed;
+	// shuts the scope down at the deadline, whether the owner is in take() or busy with something else
+	private final TimingWheel.Timeout deadlineTimer;
+	private volatile boolean timedOut;
+	private final Thread owner = Thread.currentThread();
+	private final BlockingQueue<Subtask> completed = new LinkedBlockingQueue<>();
+	private final Set<Subtask> unfinished = ConcurrentHashMap.newKeySet();
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	// guards shutdown and running, so that no subtask starts after the scope is shut down
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition allExited = lock.newCondition();
+	private boolean shutdown;
+	private int running;
+	// forked, not taken yet: owner thread only
+	private int remaining;
+
+	public TaskScope(ExecutorService executor) {
+		this.executor = executor;
+		this.deadline = 0;
+		this.timed = false;
+		this.deadlineTimer = null;
+	}
+
+	/**
+	 * A scope that shuts down after the timeout, on the shared TimingWheel: the subtasks still running are cancelled
+	 * and take() throws a TimeoutException from then on.
+	 */
+	public TaskScope(ExecutorService executor, long timeout, TimeUnit unit) {
+		this.executor = executor;
+		this.deadline = System.nanoTime() + unit.toNanos(timeout);
+		this.timed = true;
+		this.deadlineTimer = TimingWheel.shared().scheduleAt(this::timeOut, deadline);
+	}
+
+	/**
+	 * Submits the subtask to the executor. The Future is there to look at, the results come from take().
+	 */
+	public Future<T> fork(Callable<? extends T> task) {
+		checkOwner();
+		lock.lock();
+		try {
+			if (shutdown) {
+				throw new IllegalStateException("The scope is shut down");
+			}
+		} finally {
+			lock.unlock();
+		}
+		Subtask subtask = new Subtask(task);
+		unfinished.add(subtask);
+		try {
+			executor.execute(subtask);
+		} catch (RejectedExecutionException e) {
+			unfinished.remove(subtask);
+			throw e;
+		}
+		remaining++;
+		return subtask;
+	}
+
+	/**
+	 * The subtasks forked and not taken yet.
+	 */
+	public int remaining() {
+		return remaining;
+	}
+
+	/**
+	 * The result of the next subtask to complete. Throws the ExecutionException of the first subtask to fail, having cancelled the others,
+	 * or a TimeoutException once the deadline has passed, having cancelled the others too.
+	 */
+	public T take() throws InterruptedException, ExecutionException, TimeoutException {
+		checkOwner();
+		while (remaining > 0) {
+			Subtask subtask = timed ? completed.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) : completed.take();
+			if (subtask == null) {
+				timeOut();
+				throw new TimeoutException("Deadline passed with " + remaining + " subtasks unfinished");
+			}
+			remaining--;
+			if (subtask.isCancelled()) {
+				// cancelled by the scope after a failure or at the deadline, or by the caller through its Future
+				Throwable cause = failure.get();
+				if (cause != null) {
+					throw new ExecutionException(cause);
+				}
+				if (timedOut) {
+					throw new TimeoutException("Deadline passed with " + (remaining + 1) + " subtasks unfinished");
+				}
+				continue;
+			}
+			try {
+				return subtask.get();
+			} catch (ExecutionException e) {
+				shutdown();
+				throw e;
+			}
+		}
+		throw new NoSuchElementException("No subtask left to take");
+	}
+
+	/**
+	 * All the results, in completion order; fails as take() does.
+	 */
+	public List<T> join() throws InterruptedException, ExecutionException, TimeoutException {
+		List<T> results = new ArrayList<>(remaining);
+		while (remaining > 0) {
+			try {
+				results.add(take());
+			} catch (NoSuchElementException e) {
+				// the rest were cancelled through their futures
+				break;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Cancels the unfinished subtasks, without waiting for them: the queued ones won't start, the running ones are interrupted.
+	 * Can be called from any thread, the subtasks call it on a failure.
+	 */
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+		} finally {
+			lock.unlock();
+		}
+		for (Subtask subtask : unfinished) {
+			subtask.cancel(true);
+		}
+	}
+
+	private void timeOut() {
+		timedOut = true;
+		shutdown();
+	}
+
+	public boolean isShutdown() {
+		lock.lock();
+		try {
+			return shutdown;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Shuts the scope down and waits until every subtask that started has exited.
+	 */
+	@Override
+	public void close() {
+		checkOwner();
+		if (deadlineTimer != null) {
+			deadlineTimer.cancel();
+		}
+		shutdown();
+		lock.lock();
+		try {
+			while (running > 0) {
+				allExited.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkOwner() {
+		if (Thread.currentThread() != owner) {
+			throw new IllegalStateException("The scope belongs to " + owner.getName());
+		}
+	}
+
+	private final class Subtask extends FutureTask<T> {
+
+		Subtask(Callable<? extends T> task) {
+			super(task::call);
+		}
+
+		@Override
+		public void run() {
+			boolean started;
+			lock.lock();
+			try {
+				started = !shutdown;
+				if (started) {
+					running++;
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (!started) {
+				// possibly forked while the scope was shutting down, cancelled here so that take() doesn't wait for it
+				cancel(false);
+				return;
+			}
+			try {
+				super.run();
+			} finally {
+				lock.lock();
+				try {
+					if (--running == 0) {
+						allExited.signalAll();
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		@Override
+		protected void done() {
+			unfinished.remove(this);
+			completed.add(this);
+			if (!isCancelled()) {
+				try {
+					get();
+				} catch (ExecutionException e) {
+					failure.compareAndSet(null, e.getCause());
+					shutdown();
+				} catch (InterruptedException e) {
+					// can't happen, the task is done
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		InstrumentedThreadPoolExecutor executor = InstrumentedExecutors.newFixedThreadPool("quotes", 8);
+		try {
+			// 8 suppliers quote an order in 50 to 400 ms, the third one fails after 30 ms
+			log.info("invokeAll: waits for all the quotes before the loop over the futures finds the failure");
+			long start = System.nanoTime();
+			try {
+				for (Future<String> f : executor.invokeAll(suppliers())) {
+					log.info("quote {}", f.get());
+				}
+			} catch (ExecutionException e) {
+				log.info("invokeAll failed after {} ms: {}", millisSince(start), e.getCause().getMessage());
+			}
+
+			log.info("TaskScope: the failure cancels the other suppliers as soon as it happens");
+			start = System.nanoTime();
+			try (TaskScope<String> scope = new TaskScope<>(executor)) {
+				suppliers().forEach(scope::fork);
+				while (scope.remaining() > 0) {
+					log.info("quote {}", scope.take());
+				}
+			} catch (ExecutionException e) {
+				// the scope is closed by now: the other suppliers were interrupted and have exited
+				log.info("TaskScope failed after {} ms: {}, {} suppliers still running", millisSince(start), e.getCause().getMessage(),
+						executor.getActiveCount());
+			} catch (TimeoutException e) {
+				log.error("", e);
+			}
+
+			log.info("TaskScope with a 120 ms deadline, without the failing supplier: the quotes in completion order, the late ones cancelled");
+			start = System.nanoTime();
+			List<Callable<String>> reliable = suppliers();
+			reliable.remove(2);
+			try (TaskScope<String> scope = new TaskScope<>(executor, 120, TimeUnit.MILLISECONDS)) {
+				reliable.forEach(scope::fork);
+				while (scope.remaining() > 0) {
+					log.info("quote {} after {} ms", scope.take(), millisSince(start));
+				}
+			} catch (ExecutionException | TimeoutException e) {
+				log.info("{} after {} ms", e.getMessage(), millisSince(start));
+			}
+			log.info("The latency saved on failures for 8 to 64 subtasks is in the TaskScopeBenchmark of the benchmarks profile");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static List<Callable<String>> suppliers() {
+		List<Callable<String>> suppliers = new ArrayList<>();
+		int[] millis = { 400, 200, 30, 50, 350, 100, 250, 150 };
+		for (int i = 0; i < millis.length; i++) {
+			int supplier = i + 1;
+			int delay = millis[i];
+			suppliers.add(() -> {
+				Thread.sleep(delay);
+				if (supplier == 3) {
+					throw new IllegalStateException("supplier 3 is down");
+				}
+				return "supplier " + supplier + ": $" + (100 + delay / 10);
+			});
+		}
+		return suppliers;
+	}
+
+	private static long millisSince(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+}
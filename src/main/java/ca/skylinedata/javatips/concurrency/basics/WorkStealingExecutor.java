@@ -0,0 +1,313 @@
+package ca.skylinedata.javatips.concurrency.basics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import ca.skylinedata.javatips.concurrency.collections.WorkStealingDeque;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A small work-stealing executor: every worker has its own WorkStealingDeque, a task submitted from a worker goes to the bottom of its deque,
+ * and the worker runs its own tasks newest first. A worker with nothing left steals the oldest task of a victim picked at random,
+ * then tries the others in turn. Tasks submitted from outside go to a shared intake queue that the workers poll when their deque is empty.
+ *
+ * With a ThreadPoolExecutor every task goes through the one queue that all the workers take from, which is fine for coarse tasks,
+ * but recursive fine-grained tasks (each one submitting a couple more) turn that queue into the bottleneck.
+ * Here a worker mostly works alone on its own deque, and the shared cache lines are only touched when stealing.
+ *
+ * Idle workers spin a little, then park. Submitting a task unparks one parked worker, if any.
+ */
+@Slf4j
+public class WorkStealingExecutor extends AbstractExecutorService {
+
+	private static final int SPINS_BEFORE_PARKING = 64;
+	// a worker parks at most this long, in case it missed a wake-up
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Worker[] workers;
+	private final ConcurrentLinkedQueue<Runnable> intake = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger parked = new AtomicInteger();
+	private final CountDownLatch terminated;
+	private final LongAdder steals = new LongAdder();
+	private volatile boolean shutdown;
+	private volatile boolean stopped;
+
+	public WorkStealingExecutor(int parallelism) {
+		this(parallelism, "work-stealing");
+	}
+
+	public WorkStealingExecutor(int parallelism, String name) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		workers = new Worker[parallelism];
+		terminated = new CountDownLatch(parallelism);
+		for (int i = 0; i < parallelism; i++) {
+			workers[i] = new Worker(name + "-" + i);
+		}
+		for (Worker worker : workers) {
+			worker.start();
+		}
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (task == null) {
+			throw new NullPointerException();
+		}
+		if (shutdown) {
+			throw new RejectedExecutionException("executor is shut down");
+		}
+		Thread current = Thread.currentThread();
+		if (current instanceof Worker && ((Worker) current).executor() == this) {
+			((Worker) current).deque.push(task);
+		} else {
+			intake.offer(task);
+			// shut down while we were offering: the workers may all have seen an empty intake and gone, take the task back unless one got it
+			if (shutdown && intake.remove(task)) {
+				throw new RejectedExecutionException("executor is shut down");
+			}
+		}
+		if (parked.get() > 0) {
+			wakeOne();
+		}
+	}
+
+	/**
+	 * The number of tasks taken from another worker's deque so far.
+	 */
+	public long getStealCount() {
+		return steals.sum();
+	}
+
+	public int getParallelism() {
+		return workers.length;
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		stopped = true;
+		List<Runnable> pending = new ArrayList<>();
+		Runnable task;
+		while ((task = intake.poll()) != null) {
+			pending.add(task);
+		}
+		// the deques belong to their workers, the ones still running drop their tasks as they stop
+		return pending;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return terminated.getCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return terminated.await(timeout, unit);
+	}
+
+	private void wakeOne() {
+		for (Worker worker : workers) {
+			if (worker.sleeping && worker.unparkRequested.compareAndSet(false, true)) {
+				LockSupport.unpark(worker);
+				return;
+			}
+		}
+	}
+
+	private final class Worker extends Thread {
+
+		final WorkStealingDeque<Runnable> deque = new WorkStealingDeque<>();
+		final AtomicBoolean unparkRequested = new AtomicBoolean();
+		volatile boolean sleeping;
+
+		Worker(String name) {
+			super(name);
+			setDaemon(true);
+		}
+
+		WorkStealingExecutor executor() {
+			return WorkStealingExecutor.this;
+		}
+
+		@Override
+		public void run() {
+			try {
+				int idleSpins = 0;
+				while (!stopped) {
+					Runnable task = findTask();
+					if (task != null) {
+						idleSpins = 0;
+						runTask(task);
+					} else if (shutdown && intake.isEmpty() && allDequesEmpty()) {
+						return;
+					} else if (++idleSpins < SPINS_BEFORE_PARKING) {
+						Thread.onSpinWait();
+					} else {
+						park();
+						idleSpins = 0;
+					}
+				}
+			} finally {
+				terminated.countDown();
+			}
+		}
+
+		private Runnable findTask() {
+			Runnable task = deque.pop();
+			if (task == null) {
+				task = intake.poll();
+			}
+			if (task == null && workers.length > 1) {
+				// a random victim first, so that idle workers don't all gang up on the same one, then the others in turn
+				int start = ThreadLocalRandom.current().nextInt(workers.length);
+				for (int n = 0; n < workers.length && task == null; n++) {
+					Worker victim = workers[(start + n) % workers.length];
+					if (victim != this) {
+						task = victim.deque.steal();
+					}
+				}
+				if (task != null) {
+					steals.increment();
+				}
+			}
+			return task;
+		}
+
+		private void park() {
+			sleeping = true;
+			parked.incrementAndGet();
+			try {
+				// a task submitted between our last look and sleeping = true would wait for the timeout, so look once more
+				if (intake.isEmpty() && allDequesEmpty() && !shutdown) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+			} finally {
+				parked.decrementAndGet();
+				sleeping = false;
+				unparkRequested.set(false);
+			}
+		}
+
+		private void runTask(Runnable task) {
+			try {
+				task.run();
+			} catch (RuntimeException | Error e) {
+				log.error("Task failed on " + getName(), e);
+			}
+		}
+	}
+
+	private boolean allDequesEmpty() {
+		for (Worker worker : workers) {
+			if (!worker.deque.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int threads = Math.max(4, cpus);
+		int depth = 20;
+		int leafWork = 200;
+		log.info("Recursive fine-grained tasks: a binary tree of depth {} ({} tasks), every task submitting its two children, {} threads",
+				depth, String.format("%,d", (2L << depth) - 1), threads);
+		ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+		WorkStealingExecutor workStealing = new WorkStealingExecutor(threads);
+		ForkJoinPool forkJoin = new ForkJoinPool(threads);
+		try {
+			// the first rounds warm up the JIT
+			for (int round = 0; round < 3; round++) {
+				boolean report = round == 2;
+				long stealsBefore = workStealing.getStealCount();
+				long threadPoolNanos = runTree(threadPool, depth, leafWork);
+				long workStealingNanos = runTree(workStealing, depth, leafWork);
+				long forkJoinNanos = runTree(forkJoin, depth, leafWork);
+				if (report) {
+					log.info("    ThreadPoolExecutor (shared queue): {} ms", TimeUnit.NANOSECONDS.toMillis(threadPoolNanos));
+					log.info("    WorkStealingExecutor:              {} ms, {} steals", TimeUnit.NANOSECONDS.toMillis(workStealingNanos),
+							workStealing.getStealCount() - stealsBefore);
+					log.info("    ForkJoinPool, for reference:       {} ms", TimeUnit.NANOSECONDS.toMillis(forkJoinNanos));
+				}
+			}
+		} finally {
+			threadPool.shutdown();
+			workStealing.shutdown();
+			forkJoin.shutdown();
+		}
+		log.info("Throughput by task size is in the WorkStealingBenchmark of the benchmarks profile");
+	}
+
+	/**
+	 * Runs the tree of tasks on the executor and waits for its leaves.
+	 * @return the elapsed nanoseconds
+	 */
+	public static long runTree(ExecutorService executor, int depth, int leafWork) throws InterruptedException {
+		CountDownLatch leaves = new CountDownLatch(1 << depth);
+		long start = System.nanoTime();
+		executor.execute(new TreeTask(executor, depth, leafWork, leaves));
+		leaves.await();
+		return System.nanoTime() - start;
+	}
+
+	static final class TreeTask implements Runnable {
+		private final ExecutorService executor;
+		private final int depth;
+		private final int leafWork;
+		private final CountDownLatch leaves;
+
+		TreeTask(ExecutorService executor, int depth, int leafWork, CountDownLatch leaves) {
+			this.executor = executor;
+			this.depth = depth;
+			this.leafWork = leafWork;
+			this.leaves = leaves;
+		}
+
+		@Override
+		public void run() {
+			if (depth == 0) {
+				// a few hundred nanoseconds of work
+				long x = leafWork;
+				for (int i = 0; i < leafWork; i++) {
+					x = x * 6364136223846793005L + 1442695040888963407L;
+				}
+				if (x == 42) {
+					log.info("unlikely");
+				}
+				leaves.countDown();
+				return;
+			}
+			executor.execute(new TreeTask(executor, depth - 1, leafWork, leaves));
+			executor.execute(new TreeTask(executor, depth - 1, leafWork, leaves));
+		}
+	}
+}
@@ -8,6 +8,14 @@
  * - ReentrantLock
  * - lock-free thread-safe atomic classes, aka CASing (Compare and Swap) classes
  * - LongAdder
+ * - contention-adaptive counter (AtomicLong that inflates to striped cells)
+ * - false sharing, cache-line padded atomic arrays and per-thread metrics
+ * - lock-free latency histogram
+ * - work-stealing executor with per-worker Chase-Lev deques
+ * - instrumented thread pools: queue wait and run time histograms, JMX and a log reporter
+ * - self-sizing thread pool from the measured blocking ratio of its tasks
+ * - structured task scope: results in completion order, cancel-on-failure and deadline
+ * - batching executor for tiny tasks with per-worker lock-free MPSC intakes
  */
 
 package ca.skylinedata.javatips.concurrency.basics;
\ No newline at end of file
@@ -0,0 +1,111 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free Bloom filter over an AtomicLongArray of bits: mightContain() is false for an element never added,
+ * and true for one added with the false positive rate it was sized for. Setting a bit is a CAS on its word, only when the bit is still clear,
+ * so the words of a filter that is mostly read stay shared in the caches of the readers.
+ *
+ * The k bit positions of an element come from its hashCode(), spread to 64 bits and split in two hashes h1 + i * h2 (Kirsch-Mitzenmacher),
+ * so equal elements, as in any Set, always map to the same bits. Bits are never cleared: for deletes, see CountingBloomFilter.
+ */
+public class BloomFilter {
+
+	private final AtomicLongArray words;
+	private final long bits;
+	private final int hashes;
+
+	/**
+	 * @param expectedInsertions the number of elements the false positive rate holds for
+	 * @param falsePositiveRate e.g. 0.01 for 1%
+	 */
+	public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+		long optimalBits = optimalBits(expectedInsertions, falsePositiveRate);
+		this.words = new AtomicLongArray(Math.toIntExact((optimalBits + 63) / 64));
+		this.bits = 64L * words.length();
+		this.hashes = optimalHashes(expectedInsertions, bits);
+	}
+
+	public void add(Object element) {
+		long hash = hash64(element);
+		for (int i = 0; i < hashes; i++) {
+			long bit = index(hash, i, bits);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long w;
+			while (((w = words.get(word)) & mask) == 0) {
+				if (words.compareAndSet(word, w, w | mask)) {
+					break;
+				}
+			}
+		}
+	}
+
+	public boolean mightContain(Object element) {
+		long hash = hash64(element);
+		for (int i = 0; i < hashes; i++) {
+			long bit = index(hash, i, bits);
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The false positive rate for the bits set so far: (set bits / bits)^k.
+	 */
+	public double approximateFalsePositiveRate() {
+		long set = 0;
+		for (int i = 0; i < words.length(); i++) {
+			set += Long.bitCount(words.get(i));
+		}
+		return Math.pow((double) set / bits, hashes);
+	}
+
+	public long bitSize() {
+		return bits;
+	}
+
+	public int hashFunctions() {
+		return hashes;
+	}
+
+	/**
+	 * m = -n ln(p) / ln(2)^2
+	 */
+	static long optimalBits(long expectedInsertions, double falsePositiveRate) {
+		if (expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("Expecting a positive number of insertions and a false positive rate between 0 and 1");
+		}
+		return Math.max(64, (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+	}
+
+	/**
+	 * k = m / n ln(2)
+	 */
+	static int optimalHashes(long expectedInsertions, long bits) {
+		return Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+	}
+
+	static long hash64(Object element) {
+		// the murmur3 finalizer, so that the 32 bits of hashCode() spread over the 64
+		long h = element.hashCode() * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * The i-th of the k positions, out of size.
+	 */
+	static long index(long hash, int i, long size) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long combined = h1 + (long) i * h2;
+		return (combined < 0 ? ~combined : combined) % size;
+	}
+}
@@ -0,0 +1,142 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A Map fronted by a CountingBloomFilter of its keys, so that get() and containsKey() of a missing key don't reach the map.
+ * As with BloomFilteredSet, a key is counted in the filter before it gets into the map and only after it is out of it,
+ * so a key in the map is never filtered out. Removals through the views (entrySet(), keySet()) don't update the filter,
+ * they only leave a false positive behind.
+ */
+@Slf4j
+public class BloomFilteredMap<K, V> extends AbstractMap<K, V> {
+
+	private final Map<K, V> map;
+	private final CountingBloomFilter filter;
+
+	/**
+	 * @param map an empty map, or one whose keys all go through put() of this front
+	 */
+	public BloomFilteredMap(Map<K, V> map, CountingBloomFilter filter) {
+		this.map = map;
+		this.filter = filter;
+		map.keySet().forEach(filter::add);
+	}
+
+	@Override
+	public V get(Object key) {
+		return filter.mightContain(key) ? map.get(key) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return filter.mightContain(key) && map.containsKey(key);
+	}
+
+	@Override
+	public V put(K key, V value) {
+		filter.add(key);
+		boolean added = false;
+		try {
+			V previous = map.put(key, value);
+			// a null previous value may also be a key mapped to null
+			added = previous == null;
+			return previous;
+		} finally {
+			if (!added) {
+				filter.remove(key);
+			}
+		}
+	}
+
+	@Override
+	public V remove(Object key) {
+		if (!filter.mightContain(key)) {
+			return null;
+		}
+		V previous = map.remove(key);
+		if (previous != null) {
+			filter.remove(key);
+		}
+		return previous;
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return map.entrySet();
+	}
+
+	public CountingBloomFilter getFilter() {
+		return filter;
+	}
+
+	public static void main(String[] args) {
+		int size = 100_000;
+		int lookups = 2_000_000;
+		log.info("{} get() calls on a ConcurrentSkipListMap of {} entries, 90% of them for missing keys:", lookups, size);
+		ConcurrentSkipListMap<String, Integer> skipListMap = new ConcurrentSkipListMap<>();
+		BloomFilteredMap<String, Integer> filtered = new BloomFilteredMap<>(new ConcurrentSkipListMap<>(), new CountingBloomFilter(size, 0.01));
+		for (int i = 0; i < size; i++) {
+			skipListMap.put("key-" + i, i);
+			filtered.put("key-" + i, i);
+		}
+		String[] queries = new String[lookups];
+		for (int i = 0; i < lookups; i++) {
+			queries[i] = i % 10 == 0 ? "key-" + (i / 10 % size) : "key-" + (size + i);
+		}
+		// the first rounds warm up the JIT
+		for (int round = 0; round < 3; round++) {
+			long skipListNanos = lookups(skipListMap, queries);
+			long filteredNanos = lookups(filtered, queries);
+			if (round == 2) {
+				log.info("    ConcurrentSkipListMap:                    {} ns per get()", skipListNanos / lookups);
+				log.info("    BloomFilteredMap(ConcurrentSkipListMap):  {} ns per get(), {}x", filteredNanos / lookups,
+						String.format("%.1f", (double) skipListNanos / filteredNanos));
+			}
+		}
+
+		// overwriting a key doesn't count it twice: once removed it is filtered out again (barring a false positive)
+		for (int i = 0; i < size; i++) {
+			filtered.put("key-" + i, -i);
+		}
+		for (int i = 0; i < size; i += 2) {
+			filtered.remove("key-" + i);
+		}
+		int stillPassing = 0;
+		int missed = 0;
+		for (int i = 0; i < size; i++) {
+			boolean passes = filtered.getFilter().mightContain("key-" + i);
+			if (i % 2 == 0 && passes) {
+				stillPassing++;
+			} else if (i % 2 == 1 && !passes) {
+				missed++;
+			}
+		}
+		log.info("After overwriting every key and removing half of them: {} removed keys still pass the filter, {} remaining keys missed",
+				stillPassing, missed);
+	}
+
+	private static long lookups(Map<String, Integer> map, String[] queries) {
+		long start = System.nanoTime();
+		int hits = 0;
+		for (String query : queries) {
+			if (map.get(query) != null) {
+				hits++;
+			}
+		}
+		if (hits != queries.length / 10) {
+			throw new IllegalStateException("Expecting 1 hit in 10 lookups, got " + hits);
+		}
+		return System.nanoTime() - start;
+	}
+}
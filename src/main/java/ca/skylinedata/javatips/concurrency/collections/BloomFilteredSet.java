@@ -0,0 +1,193 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A Set fronted by a CountingBloomFilter, for workloads where most lookups miss, as in ConcurrentMapExample.addAndRemoveConcurrently:
+ * contains() of an element that isn't there is answered by the filter in a few reads of an array,
+ * without the O(log n) comparisons of a ConcurrentSkipListSet. Only the false positives, and the hits, reach the set.
+ *
+ * The filter never misses an element of the set: add() counts the element in the filter before adding it to the set,
+ * and remove() takes it out of the filter only after it is out of the set. Meanwhile the filter may count it when the set doesn't,
+ * which is just a false positive. Removals through the iterator don't update the filter, they also leave a false positive behind.
+ */
+@Slf4j
+public class BloomFilteredSet<E> extends AbstractSet<E> {
+
+	private final Set<E> set;
+	private final CountingBloomFilter filter;
+
+	/**
+	 * @param set an empty set, or one whose elements all go through add() of this front
+	 */
+	public BloomFilteredSet(Set<E> set, CountingBloomFilter filter) {
+		this.set = set;
+		this.filter = filter;
+		set.forEach(filter::add);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return filter.mightContain(o) && set.contains(o);
+	}
+
+	@Override
+	public boolean add(E e) {
+		filter.add(e);
+		boolean added = false;
+		try {
+			added = set.add(e);
+			return added;
+		} finally {
+			if (!added) {
+				filter.remove(e);
+			}
+		}
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (filter.mightContain(o) && set.remove(o)) {
+			filter.remove(o);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return set.iterator();
+	}
+
+	@Override
+	public int size() {
+		return set.size();
+	}
+
+	public CountingBloomFilter getFilter() {
+		return filter;
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int size = 1_000_000;
+		log.info("False positive rates, {} elements in filters sized for 1%:", size);
+		BloomFilter bloom = new BloomFilter(size, 0.01);
+		CountingBloomFilter counting = new CountingBloomFilter(size, 0.01);
+		for (int i = 0; i < size; i++) {
+			bloom.add("item-" + i);
+			counting.add("item-" + i);
+		}
+		log.info("    BloomFilter:         {} bits ({} KB), {} hashes, estimated {}, measured {}", bloom.bitSize(), bloom.bitSize() / 8 / 1024,
+				bloom.hashFunctions(), percent(bloom.approximateFalsePositiveRate()), percent(falsePositives(bloom::mightContain, size)));
+		log.info("    CountingBloomFilter: {} counters ({} KB), {} hashes, estimated {}, measured {}", counting.counterCount(),
+				counting.counterCount() / 2 / 1024, counting.hashFunctions(), percent(counting.approximateFalsePositiveRate()),
+				percent(falsePositives(counting::mightContain, size)));
+		for (int i = 0; i < size; i += 2) {
+			counting.remove("item-" + i);
+		}
+		int missed = 0;
+		for (int i = 1; i < size; i += 2) {
+			if (!counting.mightContain("item-" + i)) {
+				missed++;
+			}
+		}
+		log.info("    CountingBloomFilter after removing half the elements: estimated {}, measured {}, {} of the remaining elements missed",
+				percent(counting.approximateFalsePositiveRate()), percent(falsePositives(counting::mightContain, size)), missed);
+
+		int setSize = 100_000;
+		int lookups = 2_000_000;
+		int threads = 2;
+		log.info("{} threads looking up {} items each in a ConcurrentSkipListSet of {}, 90% of them missing:", threads, lookups, setSize);
+		ConcurrentSkipListSet<String> skipListSet = new ConcurrentSkipListSet<>();
+		BloomFilteredSet<String> filtered = new BloomFilteredSet<>(new ConcurrentSkipListSet<>(), new CountingBloomFilter(setSize, 0.01));
+		for (int i = 0; i < setSize; i++) {
+			skipListSet.add("item-" + i);
+			filtered.add("item-" + i);
+		}
+		// 1 lookup in 10 is an item of the set, the others are items beyond it
+		String[] queries = new String[lookups];
+		for (int i = 0; i < lookups; i++) {
+			queries[i] = i % 10 == 0 ? "item-" + (i / 10 % setSize) : "item-" + (setSize + i);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			// the first rounds warm up the JIT
+			for (int round = 0; round < 3; round++) {
+				long skipListNanos = lookups(skipListSet, queries, executor, threads);
+				long filteredNanos = lookups(filtered, queries, executor, threads);
+				if (round == 2) {
+					log.info("    ConcurrentSkipListSet:                    {} M lookups/s", rate(threads * (long) lookups, skipListNanos));
+					log.info("    BloomFilteredSet(ConcurrentSkipListSet):  {} M lookups/s, {}x", rate(threads * (long) lookups, filteredNanos),
+							String.format("%.1f", (double) skipListNanos / filteredNanos));
+				}
+			}
+
+			int initialSize = 3000;
+			BloomFilteredSet<String> set = new BloomFilteredSet<>(new ConcurrentSkipListSet<>(), new CountingBloomFilter(initialSize, 0.01));
+			log.info("The ConcurrentMapExample.addAndRemoveConcurrently run on a BloomFilteredSet:");
+			log.info("    # of removed items is consistently equal to initial-remaining: {}",
+					initialSize - ConcurrentMapExample.addAndRemoveConcurrently(set, executor, initialSize));
+			log.info("    every remaining item passes the filter: {}", set.stream().allMatch(set.getFilter()::mightContain));
+		} finally {
+			executor.shutdown();
+		}
+		log.info("Lookups by miss rate under JMH are in the BloomFilterBenchmark of the benchmarks profile");
+	}
+
+	private static long lookups(Set<String> set, String[] queries, ExecutorService executor, int threads)
+			throws InterruptedException, ExecutionException {
+		List<Future<Integer>> futures = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			futures.add(executor.submit(() -> {
+				int hits = 0;
+				for (String query : queries) {
+					if (set.contains(query)) {
+						hits++;
+					}
+				}
+				return hits;
+			}));
+		}
+		for (Future<Integer> f : futures) {
+			if (f.get() != queries.length / 10) {
+				throw new IllegalStateException("Expecting 1 hit in 10 lookups, got " + f.get());
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * The share of elements never added that pass the filter.
+	 */
+	private static double falsePositives(Predicate<Object> filter, int elementsAdded) {
+		int probes = 1_000_000;
+		int positives = 0;
+		for (int i = 0; i < probes; i++) {
+			if (filter.test("absent-" + (elementsAdded + i))) {
+				positives++;
+			}
+		}
+		return (double) positives / probes;
+	}
+
+	private static String percent(double rate) {
+		return String.format("%.2f%%", 100 * rate);
+	}
+
+	private static String rate(long operations, long nanos) {
+		return String.format("%6.1f", operations * 1e3 / nanos);
+	}
+}
@@ -0,0 +1,501 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongUnaryOperator;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A lock-free concurrent map of long keys to long values, by open addressing (linear probing) over a single AtomicLongArray:
+ * the key of slot i is at 2i, its value at 2i+1. An update is a CAS on the value, so it allocates nothing,
+ * where ConcurrentHashMap.compute("k1", (k, v) -> ++v) of ConcurrentMapExample boxes a new Integer (and a lambda when it captures).
+ *
+ * Keys are never removed: this is a map of counters and ids. Long.MIN_VALUE and Long.MIN_VALUE + 1 can't be used as keys nor as values,
+ * they mark the free, sealed and moved slots.
+ *
+ * Resizing is concurrent and incremental: the table over its load factor gets a twice as large next table,
+ * and the threads inserting into it copy it over chunk by chunk. Each value is copied, then sealed with a CAS to MOVED,
+ * so an update racing with the copy either lands before the seal (and is copied again) or finds MOVED and goes to the next table.
+ * Free slots are sealed too, with a CAS on the key, so no key can be inserted behind the copy. Readers and updaters never wait for a resize,
+ * except the one inserting into the next table while it is still being filled: it helps finish the copy first.
+ */
+@Slf4j
+public class ConcurrentLongLongMap {
+
+	/**
+	 * Returned by get(), put() and putIfAbsent() when there is no value for the key.
+	 */
+	public static final long NO_VALUE = Long.MIN_VALUE;
+
+	private static final long FREE = Long.MIN_VALUE;
+	private static final long SEALED_KEY = Long.MIN_VALUE + 1;
+	private static final long ABSENT = Long.MIN_VALUE;
+	private static final long MOVED = Long.MIN_VALUE + 1;
+
+	// probe() results that aren't slot indexes
+	private static final int NOT_FOUND = -1;
+	private static final int SEALED = -2;
+	private static final int FULL = -3;
+
+	private static final int ADD = 0;
+	private static final int PUT = 1;
+	private static final int PUT_IF_ABSENT = 2;
+	private static final int UPDATE = 3;
+
+	private static final int CHUNK = 1024;
+
+	private static final AtomicReferenceFieldUpdater<ConcurrentLongLongMap, Table> TABLE =
+			AtomicReferenceFieldUpdater.newUpdater(ConcurrentLongLongMap.class, Table.class, "table");
+	private static final AtomicReferenceFieldUpdater<Table, Table> NEXT =
+			AtomicReferenceFieldUpdater.newUpdater(Table.class, Table.class, "next");
+
+	private volatile Table table;
+	private final LongAdder size = new LongAdder();
+
+	public ConcurrentLongLongMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize the number of keys the map should hold before its first resize
+	 */
+	public ConcurrentLongLongMap(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize must not be negative");
+		}
+		table = new Table(Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) * 2));
+	}
+
+	/**
+	 * @return the value, or NO_VALUE
+	 */
+	public long get(long key) {
+		checkKey(key);
+		return get(table, key);
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != NO_VALUE;
+	}
+
+	/**
+	 * Adds delta to the value of the key, an absent key counting as 0.
+	 * @return the new value
+	 */
+	public long addAndGet(long key, long delta) {
+		return update(key, ADD, delta, null);
+	}
+
+	/**
+	 * @return the previous value, or NO_VALUE
+	 */
+	public long put(long key, long value) {
+		checkValue(value);
+		return update(key, PUT, value, null);
+	}
+
+	/**
+	 * @return the current value, or NO_VALUE if there was none and value was put
+	 */
+	public long putIfAbsent(long key, long value) {
+		checkValue(value);
+		return update(key, PUT_IF_ABSENT, value, null);
+	}
+
+	/**
+	 * The compute() of this map: function gets the current value, or initial if the key is absent, and returns the new one.
+	 * As with AtomicLong.updateAndGet, the function may be called more than once when threads race, so it must be free of side effects.
+	 * @return the new value
+	 */
+	public long updateAndGet(long key, long initial, LongUnaryOperator function) {
+		return update(key, UPDATE, initial, function);
+	}
+
+	public long size() {
+		return size.sum();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Weakly consistent, as the iterators of ConcurrentHashMap: every entry present for the whole call is seen once,
+	 * the ones put or updated meanwhile may or may not be.
+	 */
+	public void forEach(EntryConsumer action) {
+		Table first = table;
+		for (Table t = first; t != null; t = t.next) {
+			for (int i = 0; i < t.capacity; i++) {
+				long key = t.slots.get(2 * i);
+				if (key == FREE || key == SEALED_KEY || inEarlierTable(first, t, key)) {
+					continue;
+				}
+				long value = t.slots.get(2 * i + 1);
+				if (value == MOVED) {
+					value = get(t.next, key);
+				}
+				if (value != ABSENT) {
+					action.accept(key, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of slots of the current table, for the demo and the tests.
+	 */
+	int capacity() {
+		return table.capacity;
+	}
+
+	private long update(long key, int op, long operand, LongUnaryOperator function) {
+		checkKey(key);
+		Table t = table;
+		for (;;) {
+			int i = probe(t, key, true);
+			if (i == SEALED) {
+				t = t.next;
+				continue;
+			}
+			if (i == FULL) {
+				grow(t);
+				awaitTransfer(t);
+				t = table;
+				continue;
+			}
+			int valueIndex = 2 * i + 1;
+			long v;
+			while ((v = t.slots.get(valueIndex)) != MOVED) {
+				long updated;
+				long result;
+				switch (op) {
+				case ADD:
+					updated = (v == ABSENT ? 0 : v) + operand;
+					checkValue(updated);
+					result = updated;
+					break;
+				case PUT:
+					updated = operand;
+					result = v;
+					break;
+				case PUT_IF_ABSENT:
+					if (v != ABSENT) {
+						return v;
+					}
+					updated = operand;
+					result = NO_VALUE;
+					break;
+				default:
+					updated = function.applyAsLong(v == ABSENT ? operand : v);
+					checkValue(updated);
+					result = updated;
+				}
+				if (t.slots.compareAndSet(valueIndex, v, updated)) {
+					if (v == ABSENT) {
+						size.increment();
+						if (t.claimed.get() > t.threshold) {
+							grow(t);
+						}
+					}
+					return result;
+				}
+			}
+			// copied to the next table while we were at it
+			t = t.next;
+		}
+	}
+
+	private static long get(Table t, long key) {
+		for (;;) {
+			int i = probe(t, key, false);
+			if (i == SEALED) {
+				t = t.next;
+				continue;
+			}
+			if (i < 0) {
+				return NO_VALUE;
+			}
+			long v = t.slots.get(2 * i + 1);
+			if (v == MOVED) {
+				t = t.next;
+				continue;
+			}
+			return v;
+		}
+	}
+
+	/**
+	 * @return the slot of the key, claiming a free one if insert is set, or one of NOT_FOUND, SEALED (the key can only be in the next table), FULL
+	 */
+	private static int probe(Table t, long key, boolean insert) {
+		AtomicLongArray slots = t.slots;
+		int i = spread(key) & t.mask;
+		for (int n = 0; n < t.capacity; n++, i = (i + 1) & t.mask) {
+			long k = slots.get(2 * i);
+			if (k == key) {
+				return i;
+			}
+			if (k == SEALED_KEY) {
+				return SEALED;
+			}
+			if (k == FREE) {
+				// keys are never removed, so the first free slot ends the search
+				if (!insert) {
+					return NOT_FOUND;
+				}
+				if (slots.compareAndSet(2 * i, FREE, key)) {
+					t.claimed.incrementAndGet();
+					return i;
+				}
+				k = slots.get(2 * i);
+				if (k == key) {
+					return i;
+				}
+				if (k == SEALED_KEY) {
+					return SEALED;
+				}
+			}
+		}
+		return FULL;
+	}
+
+	/**
+	 * Starts the resize of t if needed and helps with the copy. A table is only resized once the one before it is fully copied,
+	 * so there are at most two tables taking writes.
+	 */
+	private void grow(Table t) {
+		for (;;) {
+			Table head = table;
+			if (head != t) {
+				if (t.next != null) {
+					// someone resized it already
+					return;
+				}
+				// t is the next table of head, still being filled
+				transfer(head);
+				awaitTransfer(head);
+				continue;
+			}
+			if (t.next == null) {
+				NEXT.compareAndSet(t, null, new Table(t.capacity * 2));
+			}
+			transfer(t);
+			return;
+		}
+	}
+
+	private void transfer(Table t) {
+		Table next = t.next;
+		while (t.transferIndex.get() < t.chunks) {
+			int chunk = t.transferIndex.getAndIncrement();
+			if (chunk >= t.chunks) {
+				return;
+			}
+			int end = Math.min(t.capacity, (chunk + 1) * CHUNK);
+			for (int i = chunk * CHUNK; i < end; i++) {
+				moveSlot(t, next, i);
+			}
+			if (t.transferredChunks.incrementAndGet() == t.chunks) {
+				TABLE.compareAndSet(this, t, next);
+			}
+		}
+	}
+
+	/**
+	 * Only the thread that claimed the chunk moves the slot, and no one else writes the key into the next table before the seal.
+	 */
+	private static void moveSlot(Table t, Table next, int i) {
+		if (t.slots.get(2 * i) == FREE && t.slots.compareAndSet(2 * i, FREE, SEALED_KEY)) {
+			return;
+		}
+		int valueIndex = 2 * i + 1;
+		for (;;) {
+			long v = t.slots.get(valueIndex);
+			if (v == ABSENT) {
+				// a key whose first value isn't in yet: its writer will retry in the next table
+				if (t.slots.compareAndSet(valueIndex, ABSENT, MOVED)) {
+					return;
+				}
+				continue;
+			}
+			int j = probe(next, t.slots.get(2 * i), true);
+			next.slots.set(2 * j + 1, v);
+			if (t.slots.compareAndSet(valueIndex, v, MOVED)) {
+				return;
+			}
+		}
+	}
+
+	private void awaitTransfer(Table t) {
+		while (table == t) {
+			Thread.onSpinWait();
+		}
+	}
+
+	private static boolean inEarlierTable(Table first, Table t, long key) {
+		for (Table p = first; p != t; p = p.next) {
+			if (probe(p, key, false) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int spread(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		return (int) (h ^ (h >>> 16));
+	}
+
+	private static void checkKey(long key) {
+		if (key == FREE || key == SEALED_KEY) {
+			throw new IllegalArgumentException("Long.MIN_VALUE and Long.MIN_VALUE + 1 can't be used as keys");
+		}
+	}
+
+	private static void checkValue(long value) {
+		if (value == ABSENT || value == MOVED) {
+			throw new ArithmeticException("Long.MIN_VALUE and Long.MIN_VALUE + 1 can't be used as values");
+		}
+	}
+
+	@FunctionalInterface
+	public interface EntryConsumer {
+		void accept(long key, long value);
+	}
+
+	static final class Table {
+		final int capacity;
+		final int mask;
+		final int threshold;
+		final int chunks;
+		final AtomicLongArray slots;
+		final AtomicInteger claimed = new AtomicInteger();
+		final AtomicInteger transferIndex = new AtomicInteger();
+		final AtomicInteger transferredChunks = new AtomicInteger();
+		volatile Table next;
+
+		Table(int capacity) {
+			this.capacity = capacity;
+			this.mask = capacity - 1;
+			// a load factor of 1/2 keeps the linear probes short
+			this.threshold = capacity / 2;
+			this.chunks = (capacity + CHUNK - 1) / CHUNK;
+			this.slots = new AtomicLongArray(2 * capacity);
+			for (int i = 0; i < 2 * capacity; i++) {
+				slots.lazySet(i, FREE);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			int loops = 1000_000;
+			log.info("The ConcurrentMapExample workload: one thread incrementing \"k1\" {} times, another one decrementing it as many times", loops);
+			// the first rounds warm up the JIT
+			for (int round = 0; round < 3; round++) {
+				boolean report = round == 2;
+				runMap("ConcurrentHashMap.compute", new ConcurrentHashMap<>(), executor, loops, report);
+				runMap("ConcurrentSkipListMap.compute", new ConcurrentSkipListMap<>(), executor, loops, report);
+				runLongMap(executor, loops, report);
+			}
+			log.info("Throughput, also with the updates spread over 1024 keys, is in the LongMapBenchmark of the benchmarks profile");
+
+			int keys = 1_000_000;
+			ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+			long start = System.nanoTime();
+			Future<?> even = executor.submit(() -> countKeys(map, keys, 0));
+			Future<?> odd = executor.submit(() -> countKeys(map, keys, 1));
+			even.get();
+			odd.get();
+			long sum = 0;
+			long[] total = new long[1];
+			map.forEach((k, v) -> total[0] += v);
+			for (long k = 0; k < keys; k++) {
+				sum += map.get(k);
+			}
+			log.info("{} keys inserted by 2 threads from 16 slots, resized concurrently to {} slots in {} ms: size {}, sum of values {} (expected {}), forEach {}",
+					keys, map.capacity(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), map.size(), sum, 2L * keys, total[0]);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Both threads add 1 to every key, one from the even keys, the other from the odd ones.
+	 */
+	private static void countKeys(ConcurrentLongLongMap map, int keys, int offset) {
+		for (int n = 0; n < 2; n++) {
+			for (long k = (offset + n) % 2; k < keys; k += 2) {
+				map.addAndGet(k, 1);
+			}
+		}
+	}
+
+	private static void runMap(String name, Map<String, Integer> map, ExecutorService executor, int loops, boolean report)
+			throws InterruptedException, ExecutionException {
+		map.put("k1", 0);
+		long start = System.nanoTime();
+		Future<Long> up = executor.submit(() -> allocated(() -> {
+			for (int i = loops; i > 0; i--) {
+				map.compute("k1", (k, v) -> ++v);
+			}
+		}));
+		Future<Long> down = executor.submit(() -> allocated(() -> {
+			for (int i = loops; i > 0; i--) {
+				map.compute("k1", (k, v) -> --v);
+			}
+		}));
+		long bytes = up.get() + down.get();
+		if (report) {
+			log.info("    {}: {} ms, result {}, {} bytes allocated per update", String.format("%-32s", name),
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), map.get("k1"), bytes / (2 * loops));
+		}
+	}
+
+	private static void runLongMap(ExecutorService executor, int loops, boolean report) throws InterruptedException, ExecutionException {
+		ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+		map.put(1, 0);
+		long start = System.nanoTime();
+		Future<Long> up = executor.submit(() -> allocated(() -> {
+			for (int i = loops; i > 0; i--) {
+				map.addAndGet(1, 1);
+			}
+		}));
+		Future<Long> down = executor.submit(() -> allocated(() -> {
+			for (int i = loops; i > 0; i--) {
+				map.addAndGet(1, -1);
+			}
+		}));
+		long bytes = up.get() + down.get();
+		if (report) {
+			log.info("    {}: {} ms, result {}, {} bytes allocated per update", String.format("%-32s", "ConcurrentLongLongMap.addAndGet"),
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), map.get(1), bytes / (2 * loops));
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by this thread while running the task, as measured by the HotSpot ThreadMXBean
+	 */
+	private static long allocated(Runnable task) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		task.run();
+		return threads.getThreadAllocatedBytes(id) - before;
+	}
+}
@@ -0,0 +1,362 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Copy-on-write platform configuration, as in CopyOnWriteExample, but on a PersistentHashMap instead of an array:
+ * readers get an immutable, versioned snapshot with a single volatile read and no locking, like the iterators of CopyOnWriteArrayList,
+ * while a write copies only the path to the changed entry (O(log n)) instead of the whole array (O(n)),
+ * which matters once the configuration holds tens of thousands of entries and the updates come in bursts.
+ *
+ * A config push of many keys goes through update(), which applies all of them with one copy-and-publish, i.e. one new version.
+ * Readers that keep their own view of the configuration subscribe to the deltas between versions instead of re-scanning it.
+ * Writers take a lock, as the CopyOnWriteArrayList ones do, so that the versions and the deltas are delivered in order.
+ */
+@Slf4j
+public class ConfigStore<K, V> {
+
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final List<Consumer<? super Delta<K, V>>> subscribers = new CopyOnWriteArrayList<>();
+	private volatile Snapshot<K, V> current = new Snapshot<>(0, PersistentHashMap.empty());
+
+	/**
+	 * The configuration as of now, it doesn't change while it's being read.
+	 */
+	public Snapshot<K, V> snapshot() {
+		return current;
+	}
+
+	public V get(K key) {
+		return current.get(key);
+	}
+
+	public int size() {
+		return current.size();
+	}
+
+	/**
+	 * @return the previous value, or null
+	 */
+	public V put(K key, V value) {
+		Object[] previous = new Object[1];
+		update(b -> previous[0] = b.put(key, value));
+		return cast(previous[0]);
+	}
+
+	/**
+	 * @return the removed value, or null
+	 */
+	public V remove(K key) {
+		Object[] previous = new Object[1];
+		update(b -> previous[0] = b.remove(key));
+		return cast(previous[0]);
+	}
+
+	/**
+	 * Applies all the mutations as one new version, or none of them if they throw.
+	 * The subscribers get the delta on this thread before update() returns, they should be quick.
+	 * @return the new snapshot, the current one if nothing changed
+	 */
+	public Snapshot<K, V> update(Consumer<Builder<K, V>> mutations) {
+		writeLock.lock();
+		try {
+			Snapshot<K, V> before = current;
+			Builder<K, V> builder = new Builder<>(before.map);
+			mutations.accept(builder);
+			PersistentHashMap<K, V> map = builder.map.build();
+			if (builder.upserts.isEmpty() && builder.removals.isEmpty()) {
+				return before;
+			}
+			Snapshot<K, V> after = new Snapshot<>(before.version + 1, map);
+			current = after;
+			Delta<K, V> delta = new Delta<>(before.version, after.version, Collections.unmodifiableMap(builder.upserts),
+					Collections.unmodifiableSet(builder.removals));
+			for (Consumer<? super Delta<K, V>> subscriber : subscribers) {
+				try {
+					subscriber.accept(delta);
+				} catch (RuntimeException e) {
+					log.error("Config subscriber failed on version " + after.version, e);
+				}
+			}
+			return after;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * @param initial gets the snapshot the subscriber starts from, before any delta
+	 * @param subscriber gets every delta after the initial snapshot, in version order
+	 * @return close() it to unsubscribe
+	 */
+	public AutoCloseable subscribe(Consumer<? super Snapshot<K, V>> initial, Consumer<? super Delta<K, V>> subscriber) {
+		writeLock.lock();
+		try {
+			initial.accept(current);
+			subscribers.add(subscriber);
+			return () -> subscribers.remove(subscriber);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> V cast(Object value) {
+		return (V) value;
+	}
+
+	public static class Snapshot<K, V> {
+
+		private final long version;
+		private final PersistentHashMap<K, V> map;
+
+		Snapshot(long version, PersistentHashMap<K, V> map) {
+			this.version = version;
+			this.map = map;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public PersistentHashMap<K, V> getMap() {
+			return map;
+		}
+
+		public V get(K key) {
+			return map.get(key);
+		}
+
+		public int size() {
+			return map.size();
+		}
+
+		public void forEach(BiConsumer<? super K, ? super V> action) {
+			map.forEach(action);
+		}
+	}
+
+	/**
+	 * The changes from one version to the next: the keys added or changed with their new values, and the keys removed.
+	 */
+	public static class Delta<K, V> {
+
+		private final long fromVersion;
+		private final long toVersion;
+		private final Map<K, V> upserts;
+		private final Set<K> removals;
+
+		Delta(long fromVersion, long toVersion, Map<K, V> upserts, Set<K> removals) {
+			this.fromVersion = fromVersion;
+			this.toVersion = toVersion;
+			this.upserts = upserts;
+			this.removals = removals;
+		}
+
+		public long getFromVersion() {
+			return fromVersion;
+		}
+
+		public long getToVersion() {
+			return toVersion;
+		}
+
+		public Map<K, V> getUpserts() {
+			return upserts;
+		}
+
+		public Set<K> getRemovals() {
+			return removals;
+		}
+
+		/**
+		 * Brings a view that was at fromVersion to toVersion.
+		 */
+		public void applyTo(Map<K, V> view) {
+			removals.forEach(view::remove);
+			view.putAll(upserts);
+		}
+	}
+
+	/**
+	 * The mutations of an update(), recording the delta as it goes.
+	 */
+	public static class Builder<K, V> {
+
+		private final PersistentHashMap<K, V> base;
+		private final PersistentHashMap.Builder<K, V> map;
+		private final Map<K, V> upserts = new LinkedHashMap<>();
+		private final Set<K> removals = new LinkedHashSet<>();
+
+		Builder(PersistentHashMap<K, V> base) {
+			this.base = base;
+			this.map = base.toBuilder();
+		}
+
+		/**
+		 * @return the previous value, or null
+		 */
+		public V put(K key, V value) {
+			// the map doesn't hold nulls, whether or not the key is there yet
+			Objects.requireNonNull(value);
+			V previous = map.get(key);
+			if (!Objects.equals(previous, value)) {
+				map.put(key, value);
+				removals.remove(key);
+				upserts.put(key, value);
+			}
+			return previous;
+		}
+
+		/**
+		 * @return the removed value, or null
+		 */
+		public V remove(K key) {
+			V previous = map.get(key);
+			if (previous != null) {
+				map.remove(key);
+				upserts.remove(key);
+				// a key added by this update and removed again is no change at all
+				if (base.containsKey(key)) {
+					removals.add(key);
+				}
+			}
+			return previous;
+		}
+
+		public V get(K key) {
+			return map.get(key);
+		}
+
+		public int size() {
+			return map.size();
+		}
+	}
+
+	public static void main(String[] args) {
+		// a burst of 1,000 updates on configurations of growing size, the entries being "key:value" strings for the copy-on-write array ones
+		int updates = 1_000;
+		log.info("Cost of a burst of {} updates, by configuration size:", updates);
+		// the first round warms up the JIT
+		burst(1_000, updates, false);
+		for (int size : new int[] { 1_000, 10_000, 50_000 }) {
+			burst(size, updates, true);
+		}
+		log.info("Reader throughput (lookups and full scans) is in the CopyOnWriteBenchmark of the benchmarks profile");
+
+		configPush(20_000, 500, 100);
+	}
+
+	/**
+	 * The readers of CopyOnWriteExample re-scan the whole list on every pass, here each of them keeps its own view up to date from the deltas.
+	 */
+	static void configPush(int size, int keys, int readers) {
+		log.info("Config push of {} keys into {} entries, {} readers keeping their views up to date from the deltas:", keys, size, readers);
+		ConfigStore<String, String> store = new ConfigStore<>();
+		store.update(b -> {
+			for (int i = 0; i < size; i++) {
+				b.put("key" + i, "value" + i);
+			}
+		});
+		List<Map<String, String>> views = new ArrayList<>();
+		LongAdder deltas = new LongAdder();
+		for (int r = 0; r < readers; r++) {
+			Map<String, String> view = new HashMap<>();
+			views.add(view);
+			store.subscribe(snapshot -> snapshot.forEach(view::put), delta -> {
+				delta.applyTo(view);
+				deltas.increment();
+			});
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < keys; i++) {
+			store.put("key" + i, "pushed-one-by-one");
+		}
+		log.info("    put() one by one: {} ms, now at version {}, {} deltas delivered", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+				store.snapshot().getVersion(), deltas.sumThenReset());
+		start = System.nanoTime();
+		store.update(b -> {
+			for (int i = 0; i < keys; i++) {
+				b.put("key" + i, "pushed-in-one-update");
+			}
+		});
+		log.info("    one update():     {} ms, now at version {}, {} deltas delivered", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+				store.snapshot().getVersion(), deltas.sumThenReset());
+
+		CopyOnWriteArrayList<String> list = new CopyOnWriteArrayList<>();
+		for (int i = 0; i < size; i++) {
+			list.add("key" + i + ":value" + i);
+		}
+		start = System.nanoTime();
+		for (int i = 0; i < keys; i++) {
+			list.add("new entry #" + i);
+		}
+		log.info("    CopyOnWriteArrayList, add() one by one as in CopyOnWriteExample: {} ms, {} full array copies",
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), keys);
+
+		Map<String, String> expected = new HashMap<>();
+		store.snapshot().forEach(expected::put);
+		log.info("    all the reader views match the latest snapshot: {}", views.stream().allMatch(expected::equals));
+	}
+
+	static void burst(int size, int updates, boolean report) {
+		ConfigStore<String, String> store = new ConfigStore<>();
+		CopyOnWriteArrayList<String> list = new CopyOnWriteArrayList<>();
+		CopyOnWriteArraySet<String> set = new CopyOnWriteArraySet<>();
+		for (int i = 0; i < size; i++) {
+			store.put("key" + i, "value" + i);
+			list.add("key" + i + ":value" + i);
+			set.add("key" + i + ":value" + i);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < updates; i++) {
+			store.put("key" + (i * 31 % size), "updated" + i);
+		}
+		long storeNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < updates; i++) {
+			String prefix = "key" + (i * 31 % size) + ":";
+			// the list is the CopyOnWriteExample way: find the entry, replace it
+			for (int j = 0; j < list.size(); j++) {
+				if (list.get(j).startsWith(prefix)) {
+					list.set(j, prefix + "updated" + i);
+					break;
+				}
+			}
+		}
+		long listNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < updates; i++) {
+			int k = i * 31 % size;
+			set.remove("key" + k + ":value" + k);
+			set.add("key" + k + ":updated" + i);
+		}
+		long setNanos = System.nanoTime() - start;
+		if (report) {
+			log.info("    {} entries: ConfigStore {} us per update, CopyOnWriteArrayList {} us, CopyOnWriteArraySet {} us", String.format("%,6d", size),
+					micros(storeNanos / updates), micros(listNanos / updates), micros(setNanos / updates));
+		}
+	}
+
+	private static String micros(long nanos) {
+		return String.format("%.2f", nanos / (double) TimeUnit.MICROSECONDS.toNanos(1));
+	}
+}
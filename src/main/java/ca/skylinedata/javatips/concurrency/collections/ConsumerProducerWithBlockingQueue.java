@@ -7,8 +7,11 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ca.skylinedata.javatips.concurrency.basics.InstrumentedExecutors;
+import ca.skylinedata.javatips.concurrency.basics.TaskScope;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -41,17 +44,14 @@ public class ConsumerProducerWithBlockingQueue {
 			callables.add(consumer);
 			callables.add(producer);
 		}
-		ExecutorService executorService = Executors.newFixedThreadPool(producers * 2);
-		try {
-			List<Future<String>> futures = executorService.invokeAll(callables);
-			futures.forEach(f -> {
-				try {
-					log.info("callable result: " + f.get());
-				} catch (InterruptedException | ExecutionException e) {
-					log.error("", e);
-				}
-			});
-		} catch (InterruptedException e) {
+		ExecutorService executorService = InstrumentedExecutors.newFixedThreadPool("producers-consumers", producers * 2);
+		// the results as they complete; if a producer failed the consumers would wait forever, the scope cancels them at the deadline
+		try (TaskScope<String> scope = new TaskScope<>(executorService, 10, TimeUnit.SECONDS)) {
+			callables.forEach(scope::fork);
+			while (scope.remaining() > 0) {
+				log.info("callable result: " + scope.take());
+			}
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
 			log.error("", e);
 		} finally {
 			executorService.shutdown();
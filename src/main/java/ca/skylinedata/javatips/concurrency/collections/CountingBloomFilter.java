@@ -0,0 +1,99 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free Bloom filter that supports deletes: each position is a 4-bit counter instead of a bit, 16 of them packed in a long,
+ * incremented by add() and decremented by remove() with a CAS on their word. It takes 4 times the memory of a BloomFilter of the same rate.
+ *
+ * A counter that reaches 15 sticks there, as it can no longer tell how many elements map to it, so it can only cost false positives.
+ * Only remove what was added: removing an element never added may clear the counters of another one, which would then be missed.
+ */
+public class CountingBloomFilter {
+
+	private static final long COUNTER_MASK = 0xFL;
+	private static final long SATURATED = 0xFL;
+
+	private final AtomicLongArray words;
+	private final long counters;
+	private final int hashes;
+
+	/**
+	 * @param expectedInsertions the number of elements present at once the false positive rate holds for
+	 * @param falsePositiveRate e.g. 0.01 for 1%
+	 */
+	public CountingBloomFilter(long expectedInsertions, double falsePositiveRate) {
+		long optimalCounters = BloomFilter.optimalBits(expectedInsertions, falsePositiveRate);
+		this.words = new AtomicLongArray(Math.toIntExact((optimalCounters + 15) / 16));
+		this.counters = 16L * words.length();
+		this.hashes = BloomFilter.optimalHashes(expectedInsertions, counters);
+	}
+
+	public void add(Object element) {
+		long hash = BloomFilter.hash64(element);
+		for (int i = 0; i < hashes; i++) {
+			update(BloomFilter.index(hash, i, counters), 1);
+		}
+	}
+
+	public void remove(Object element) {
+		long hash = BloomFilter.hash64(element);
+		for (int i = 0; i < hashes; i++) {
+			update(BloomFilter.index(hash, i, counters), -1);
+		}
+	}
+
+	public boolean mightContain(Object element) {
+		long hash = BloomFilter.hash64(element);
+		for (int i = 0; i < hashes; i++) {
+			long counter = BloomFilter.index(hash, i, counters);
+			if (((words.get((int) (counter >>> 4)) >>> shift(counter)) & COUNTER_MASK) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The false positive rate for the counters set so far: (non-zero counters / counters)^k.
+	 */
+	public double approximateFalsePositiveRate() {
+		long set = 0;
+		for (int i = 0; i < words.length(); i++) {
+			long w = words.get(i);
+			for (int c = 0; c < 16; c++) {
+				if (((w >>> (4 * c)) & COUNTER_MASK) != 0) {
+					set++;
+				}
+			}
+		}
+		return Math.pow((double) set / counters, hashes);
+	}
+
+	public long counterCount() {
+		return counters;
+	}
+
+	public int hashFunctions() {
+		return hashes;
+	}
+
+	private void update(long counter, int delta) {
+		int word = (int) (counter >>> 4);
+		int shift = shift(counter);
+		for (;;) {
+			long w = words.get(word);
+			long value = (w >>> shift) & COUNTER_MASK;
+			if (value == SATURATED || value == 0 && delta < 0) {
+				return;
+			}
+			if (words.compareAndSet(word, w, w + ((long) delta << shift))) {
+				return;
+			}
+		}
+	}
+
+	private static int shift(long counter) {
+		return (int) (counter & 15) * 4;
+	}
+}
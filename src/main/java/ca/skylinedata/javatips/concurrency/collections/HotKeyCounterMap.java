@@ -0,0 +1,241 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+
+import ca.skylinedata.javatips.concurrency.basics.ContentionWindow;
+import ca.skylinedata.javatips.concurrency.basics.PaddedAtomicLongArray;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A map of counters for the hot-key pattern of ConcurrentMapExample.getAndPutConcurrently: one symbol or account getting most of the updates.
+ * ConcurrentHashMap.compute() serializes every update of a key on the lock of its bin, here a counter is updated without locking,
+ * with a CAS on a single long. Once its CAS failures show that a key is contended - 16 failures within 10 ms, not over the lifetime of the key -
+ * the counter inflates into striped cells, each on its own cache line (the LongAdder way), and every thread adds to the cell its id hashes to.
+ * Reads sum the cells.
+ *
+ * A cold counter is an object with a long and two null references, so millions of keys cost little more than the map itself:
+ * a key gets a ContentionWindow on its first CAS failure, and only the few hot ones pay for the cells (a cache line pair per stripe).
+ * Unlike AdaptiveCounter, a counter stays inflated once hot.
+ * As with LongAdder.sum(), a read is exact in the absence of concurrent updates of the key.
+ */
+@Slf4j
+public class HotKeyCounterMap<K> {
+
+	// CAS failures on a counter within the window that make it inflate
+	static final int INFLATE_FAILURES = 16;
+	static final long FAILURE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final int STRIPES = PaddedAtomicLongArray.stripesFor(Runtime.getRuntime().availableProcessors());
+
+	private final ConcurrentHashMap<K, Counter> counters = new ConcurrentHashMap<>();
+
+	public void increment(K key) {
+		add(key, 1);
+	}
+
+	public void decrement(K key) {
+		add(key, -1);
+	}
+
+	public void add(K key, long x) {
+		// get() doesn't lock, computeIfAbsent() only runs once per key
+		Counter counter = counters.get(key);
+		if (counter == null) {
+			counter = counters.computeIfAbsent(key, k -> new Counter());
+		}
+		counter.add(x);
+	}
+
+	/**
+	 * @return the count of the key, 0 if it was never updated
+	 */
+	public long sum(K key) {
+		Counter counter = counters.get(key);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	public void forEach(ObjLongConsumer<? super K> action) {
+		counters.forEach((k, c) -> action.accept(k, c.sum()));
+	}
+
+	public int size() {
+		return counters.size();
+	}
+
+	public boolean isHot(K key) {
+		Counter counter = counters.get(key);
+		return counter != null && counter.cells != null;
+	}
+
+	/**
+	 * @return the number of keys whose counter inflated into cells
+	 */
+	public int hotKeys() {
+		int hot = 0;
+		for (Counter counter : counters.values()) {
+			if (counter.cells != null) {
+				hot++;
+			}
+		}
+		return hot;
+	}
+
+	static final class Counter {
+
+		private static final AtomicLongFieldUpdater<Counter> BASE = AtomicLongFieldUpdater.newUpdater(Counter.class, "base");
+
+		volatile long base;
+		// created on the first CAS failure, most keys never need one
+		volatile ContentionWindow contention;
+		volatile PaddedAtomicLongArray cells;
+
+		void add(long x) {
+			PaddedAtomicLongArray c = cells;
+			if (c == null) {
+				long v = base;
+				if (BASE.compareAndSet(this, v, v + x)) {
+					return;
+				}
+				ContentionWindow w = contention;
+				if (w == null) {
+					// two threads may both create one, a lost failure doesn't matter
+					contention = w = new ContentionWindow(INFLATE_FAILURES, FAILURE_WINDOW_NANOS, TimeUnit.NANOSECONDS);
+				}
+				if (!w.onFailure()) {
+					BASE.getAndAdd(this, x);
+					return;
+				}
+				c = inflate();
+			}
+			c.getAndAdd(PaddedAtomicLongArray.stripeOfCurrentThread(STRIPES), x);
+		}
+
+		long sum() {
+			long sum = base;
+			PaddedAtomicLongArray c = cells;
+			if (c != null) {
+				for (int i = 0; i < STRIPES; i++) {
+					sum += c.get(i);
+				}
+			}
+			return sum;
+		}
+
+		private PaddedAtomicLongArray inflate() {
+			synchronized (this) {
+				if (cells == null) {
+					cells = new PaddedAtomicLongArray(STRIPES);
+				}
+				return cells;
+			}
+		}
+	}
+
+	/**
+	 * Key indexes drawn from a Zipf distribution: index i (from 0) comes up in proportion to 1 / (i + 1)^exponent,
+	 * so a handful of keys get most of the updates. An exponent of 0 gives the uniform distribution.
+	 */
+	public static int[] zipfSequence(int keys, double exponent, int length, long seed) {
+		double[] cumulative = new double[keys];
+		double total = 0;
+		for (int i = 0; i < keys; i++) {
+			total += 1 / Math.pow(i + 1, exponent);
+			cumulative[i] = total;
+		}
+		Random random = new Random(seed);
+		int[] sequence = new int[length];
+		for (int n = 0; n < length; n++) {
+			int i = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+			sequence[n] = Math.min(keys - 1, i < 0 ? -i - 1 : i);
+		}
+		return sequence;
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		int keys = 10_000;
+		int updates = 2_000_000;
+		String[] symbols = new String[keys];
+		for (int i = 0; i < keys; i++) {
+			symbols[i] = "SYM" + i;
+		}
+		log.info("{} threads, {} updates each over {} keys", threads, updates, keys);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (double exponent : new double[] { 0, 1.1 }) {
+				int[][] sequences = new int[threads][];
+				for (int t = 0; t < threads; t++) {
+					sequences[t] = zipfSequence(keys, exponent, updates, t);
+				}
+				log.info(exponent == 0 ? "Uniform keys:" : "Zipf keys, exponent {} (the top key gets {}% of the updates):", exponent,
+						String.format("%.0f", 100.0 * Arrays.stream(sequences[0]).filter(i -> i == 0).count() / updates));
+				// the first round warms up the JIT
+				for (int round = 0; round < 2; round++) {
+					boolean report = round == 1;
+					ConcurrentHashMap<String, Long> compute = new ConcurrentHashMap<>();
+					run("ConcurrentHashMap.compute", executor, sequences, report,
+							i -> compute.compute(symbols[i], (k, v) -> v == null ? 1 : v + 1), () -> compute.values().stream().mapToLong(v -> v).sum());
+					ConcurrentHashMap<String, LongAdder> adders = new ConcurrentHashMap<>();
+					run("ConcurrentHashMap<LongAdder>", executor, sequences, report,
+							i -> adders.computeIfAbsent(symbols[i], k -> new LongAdder()).increment(),
+							() -> adders.values().stream().mapToLong(LongAdder::sum).sum());
+					HotKeyCounterMap<String> hotKeys = new HotKeyCounterMap<>();
+					run("HotKeyCounterMap", executor, sequences, report, i -> hotKeys.increment(symbols[i]), () -> {
+						long[] total = new long[1];
+						hotKeys.forEach((k, v) -> total[0] += v);
+						return total[0];
+					});
+					if (report) {
+						log.info("        HotKeyCounterMap inflated {} of its {} keys", hotKeys.hotKeys(), hotKeys.size());
+					}
+				}
+			}
+			log.info("The same comparison under JMH is in the HotKeyBenchmark of the benchmarks profile");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private interface Update {
+		void apply(int keyIndex);
+	}
+
+	private interface Total {
+		long get();
+	}
+
+	private static void run(String name, ExecutorService executor, int[][] sequences, boolean report, Update update, Total total)
+			throws InterruptedException, ExecutionException {
+		List<Future<?>> futures = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int[] sequence : sequences) {
+			futures.add(executor.submit(() -> {
+				for (int i : sequence) {
+					update.apply(i);
+				}
+			}));
+		}
+		for (Future<?> f : futures) {
+			f.get();
+		}
+		long nanos = System.nanoTime() - start;
+		long expected = (long) sequences.length * sequences[0].length;
+		if (total.get() != expected) {
+			throw new IllegalStateException(name + " lost updates: " + total.get() + " instead of " + expected);
+		}
+		if (report) {
+			log.info("    {}: {} M updates/s", String.format("%-30s", name), String.format("%6.1f", expected * 1e3 / nanos));
+		}
+	}
+}
@@ -0,0 +1,657 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongConsumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A concurrent ordered map of long keys, as a B+ tree with optimistic lock coupling: every node has a StampedLock,
+ * readers go down the tree with optimistic stamps only (no writes to shared memory, so no cache line ping-pong between readers)
+ * and restart from the root if a node they went through changed meanwhile. Writers go down the same way,
+ * then convert the stamp of the leaf, and of its parent when the leaf splits, into a write lock. Locks are only ever tried,
+ * so there is no deadlock, and a full inner node is split on the way down, so a split never goes up more than one level.
+ *
+ * The entries sit in sorted arrays of 64 keys and values, with the leaves linked left to right, so a range scan is a walk over the arrays
+ * instead of the pointer chasing of ConcurrentSkipListMap, whose every entry is a node with a boxed Long key plus its share of the index nodes.
+ * For time-ordered keys, a leaf that overflows on its last key keeps its 64 entries and a new leaf starts, so the leaves stay full.
+ *
+ * Range iteration is weakly consistent, as in ConcurrentSkipListMap: each leaf is copied as of one instant,
+ * the entries present for the whole scan are seen once and in order, the ones added or removed meanwhile may or may not be.
+ * Removing an entry doesn't merge the leaves, a tree that shrinks for good is best rebuilt with bulkLoad().
+ */
+@Slf4j
+public class LongBTreeMap<V> {
+
+	static final int LEAF_CAPACITY = 64;
+	static final int INNER_CAPACITY = 64;
+
+	private volatile Node root = new Leaf();
+	private final LongAdder size = new LongAdder();
+
+	/**
+	 * Builds the tree bottom up from keys in ascending order, with full leaves: the fast way to load the history of a time series.
+	 */
+	public static <V> LongBTreeMap<V> bulkLoad(long[] keys, V[] values) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException("keys and values must have the same length");
+		}
+		for (int i = 1; i < keys.length; i++) {
+			if (keys[i] <= keys[i - 1]) {
+				throw new IllegalArgumentException("keys must be in strictly ascending order, " + keys[i] + " comes after " + keys[i - 1]);
+			}
+		}
+		LongBTreeMap<V> map = new LongBTreeMap<>();
+		if (keys.length == 0) {
+			return map;
+		}
+		List<Node> level = new ArrayList<>();
+		List<Long> lowKeys = new ArrayList<>();
+		Leaf previous = null;
+		for (int from = 0; from < keys.length; from += LEAF_CAPACITY) {
+			Leaf leaf = new Leaf();
+			leaf.count = Math.min(LEAF_CAPACITY, keys.length - from);
+			System.arraycopy(keys, from, leaf.keys, 0, leaf.count);
+			for (int i = 0; i < leaf.count; i++) {
+				leaf.values[i] = Objects.requireNonNull(values[from + i]);
+			}
+			if (previous != null) {
+				previous.next = leaf;
+			}
+			previous = leaf;
+			level.add(leaf);
+			lowKeys.add(keys[from]);
+		}
+		// inner nodes one short of full, so that the first insert going through doesn't split them right away
+		int fanOut = INNER_CAPACITY;
+		while (level.size() > 1) {
+			List<Node> parents = new ArrayList<>();
+			List<Long> parentLowKeys = new ArrayList<>();
+			for (int from = 0; from < level.size(); from += fanOut) {
+				Inner inner = new Inner();
+				int children = Math.min(fanOut, level.size() - from);
+				for (int c = 0; c < children; c++) {
+					inner.children[c] = level.get(from + c);
+					if (c > 0) {
+						inner.keys[c - 1] = lowKeys.get(from + c);
+					}
+				}
+				inner.count = children - 1;
+				parents.add(inner);
+				parentLowKeys.add(lowKeys.get(from));
+			}
+			level = parents;
+			lowKeys = parentLowKeys;
+		}
+		map.root = level.get(0);
+		map.size.add(keys.length);
+		return map;
+	}
+
+	public long size() {
+		return size.sum();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * @return the value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		for (;;) {
+			Node node = root;
+			long stamp = node.lock.tryOptimisticRead();
+			if (stamp == 0 || node != root) {
+				Thread.onSpinWait();
+				continue;
+			}
+			while (node instanceof Inner && stamp != 0) {
+				Inner inner = (Inner) node;
+				Node child = inner.child(key);
+				long childStamp = child == null ? 0 : child.lock.tryOptimisticRead();
+				// the child is the right one only if the parent didn't change while we read it
+				stamp = inner.lock.validate(stamp) ? childStamp : 0;
+				node = child;
+			}
+			if (stamp == 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			Leaf leaf = (Leaf) node;
+			int i = leaf.search(key);
+			Object value = i >= 0 ? leaf.values[i] : null;
+			if (leaf.lock.validate(stamp)) {
+				return (V) value;
+			}
+		}
+	}
+
+	/**
+	 * @return the previous value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		Objects.requireNonNull(value);
+		restart: for (;;) {
+			Node node = root;
+			long stamp = node.lock.tryOptimisticRead();
+			if (stamp == 0 || node != root) {
+				Thread.onSpinWait();
+				continue;
+			}
+			Inner parent = null;
+			long parentStamp = 0;
+			while (node instanceof Inner) {
+				Inner inner = (Inner) node;
+				if (inner.count >= INNER_CAPACITY) {
+					splitInner(parent, parentStamp, inner, stamp);
+					continue restart;
+				}
+				Node child = inner.child(key);
+				long childStamp = child == null ? 0 : child.lock.tryOptimisticRead();
+				if (childStamp == 0 || !inner.lock.validate(stamp)) {
+					Thread.onSpinWait();
+					continue restart;
+				}
+				parent = inner;
+				parentStamp = stamp;
+				node = child;
+				stamp = childStamp;
+			}
+			Leaf leaf = (Leaf) node;
+			long leafStamp = leaf.lock.tryConvertToWriteLock(stamp);
+			if (leafStamp == 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			int pos = leaf.search(key);
+			if (pos >= 0) {
+				Object previous = leaf.values[pos];
+				leaf.values[pos] = value;
+				leaf.lock.unlockWrite(leafStamp);
+				return (V) previous;
+			}
+			pos = -pos - 1;
+			if (leaf.count < LEAF_CAPACITY) {
+				leaf.insert(pos, key, value);
+				leaf.lock.unlockWrite(leafStamp);
+				size.increment();
+				return null;
+			}
+			// the leaf is full, the split needs its parent too
+			if (parent != null) {
+				parentStamp = parent.lock.tryConvertToWriteLock(parentStamp);
+				if (parentStamp == 0) {
+					leaf.lock.unlockWrite(leafStamp);
+					continue;
+				}
+			} else if (leaf != root) {
+				leaf.lock.unlockWrite(leafStamp);
+				continue;
+			}
+			Leaf right = leaf.split(pos, key, value);
+			insertSeparator(parent, leaf, right.keys[0], right);
+			if (parent != null) {
+				parent.lock.unlockWrite(parentStamp);
+			}
+			leaf.lock.unlockWrite(leafStamp);
+			size.increment();
+			return null;
+		}
+	}
+
+	/**
+	 * @return the removed value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		for (;;) {
+			Node node = root;
+			long stamp = node.lock.tryOptimisticRead();
+			if (stamp == 0 || node != root) {
+				Thread.onSpinWait();
+				continue;
+			}
+			while (node instanceof Inner && stamp != 0) {
+				Inner inner = (Inner) node;
+				Node child = inner.child(key);
+				long childStamp = child == null ? 0 : child.lock.tryOptimisticRead();
+				stamp = inner.lock.validate(stamp) ? childStamp : 0;
+				node = child;
+			}
+			// a leaf unchanged since it was reached from a valid parent still holds the key, if anyone does
+			long writeStamp = stamp == 0 ? 0 : node.lock.tryConvertToWriteLock(stamp);
+			if (writeStamp == 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			Leaf leaf = (Leaf) node;
+			int pos = leaf.search(key);
+			Object previous = null;
+			if (pos >= 0) {
+				previous = leaf.values[pos];
+				leaf.delete(pos);
+				size.decrement();
+			}
+			leaf.lock.unlockWrite(writeStamp);
+			return (V) previous;
+		}
+	}
+
+	/**
+	 * Calls the action on the entries from fromKey (inclusive) to toKey (exclusive) in key order, like subMap(fromKey, toKey).forEach().
+	 */
+	public void forEach(long fromKey, long toKey, EntryConsumer<? super V> action) {
+		Cursor<V> cursor = cursor(fromKey, toKey);
+		while (cursor.next()) {
+			action.accept(cursor.key(), cursor.value());
+		}
+	}
+
+	public void forEach(EntryConsumer<? super V> action) {
+		forEach(Long.MIN_VALUE, Long.MAX_VALUE, action);
+	}
+
+	/**
+	 * An iteration over the entries from fromKey (inclusive) to toKey (exclusive), without boxing the keys.
+	 */
+	public Cursor<V> cursor(long fromKey, long toKey) {
+		return new Cursor<>(this, fromKey, toKey);
+	}
+
+	/**
+	 * The leaf that held the key when it was validated.
+	 */
+	private Leaf findLeaf(long key) {
+		for (;;) {
+			Node node = root;
+			long stamp = node.lock.tryOptimisticRead();
+			if (stamp == 0 || node != root) {
+				Thread.onSpinWait();
+				continue;
+			}
+			while (node instanceof Inner && stamp != 0) {
+				Inner inner = (Inner) node;
+				Node child = inner.child(key);
+				long childStamp = child == null ? 0 : child.lock.tryOptimisticRead();
+				stamp = inner.lock.validate(stamp) ? childStamp : 0;
+				node = child;
+			}
+			if (stamp != 0) {
+				return (Leaf) node;
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * Splits a full inner node while holding it and its parent, if both are unchanged since their stamps were taken, then lets the caller restart.
+	 */
+	private void splitInner(Inner parent, long parentStamp, Inner inner, long stamp) {
+		long parentWriteStamp = 0;
+		if (parent != null && (parentWriteStamp = parent.lock.tryConvertToWriteLock(parentStamp)) == 0) {
+			return;
+		}
+		long writeStamp = inner.lock.tryConvertToWriteLock(stamp);
+		if (writeStamp != 0) {
+			if (parent != null || inner == root) {
+				int mid = INNER_CAPACITY / 2;
+				long separator = inner.keys[mid];
+				Inner right = new Inner();
+				right.count = INNER_CAPACITY - mid - 1;
+				System.arraycopy(inner.keys, mid + 1, right.keys, 0, right.count);
+				System.arraycopy(inner.children, mid + 1, right.children, 0, right.count + 1);
+				Arrays.fill(inner.children, mid + 1, INNER_CAPACITY + 1, null);
+				inner.count = mid;
+				insertSeparator(parent, inner, separator, right);
+			}
+			inner.lock.unlockWrite(writeStamp);
+		}
+		if (parent != null) {
+			parent.lock.unlockWrite(parentWriteStamp);
+		}
+	}
+
+	/**
+	 * Called with left, and its parent if any, write locked: right holds the keys from separator up.
+	 */
+	private void insertSeparator(Inner parent, Node left, long separator, Node right) {
+		if (parent == null) {
+			Inner newRoot = new Inner();
+			newRoot.keys[0] = separator;
+			newRoot.children[0] = left;
+			newRoot.children[1] = right;
+			newRoot.count = 1;
+			root = newRoot;
+			return;
+		}
+		int pos = -Arrays.binarySearch(parent.keys, 0, parent.count, separator) - 1;
+		System.arraycopy(parent.keys, pos, parent.keys, pos + 1, parent.count - pos);
+		System.arraycopy(parent.children, pos + 1, parent.children, pos + 2, parent.count - pos);
+		parent.keys[pos] = separator;
+		parent.children[pos + 1] = right;
+		parent.count++;
+	}
+
+	@FunctionalInterface
+	public interface EntryConsumer<V> {
+		void accept(long key, V value);
+	}
+
+	/**
+	 * Walks the leaves left to right, copying the entries of the range out of each leaf under an optimistic stamp.
+	 * Keys only ever move right (to the new leaf of a split), and the cursor skips the keys up to the last one it returned,
+	 * so a leaf splitting under the cursor neither loses nor repeats entries.
+	 */
+	public static final class Cursor<V> {
+
+		private final long toKey;
+		private final long[] keys = new long[LEAF_CAPACITY];
+		private final Object[] values = new Object[LEAF_CAPACITY];
+		private Leaf leaf;
+		private long lowKey;
+		private boolean last;
+		private int position;
+		private int count;
+
+		Cursor(LongBTreeMap<V> map, long fromKey, long toKey) {
+			this.toKey = toKey;
+			this.lowKey = fromKey;
+			this.last = fromKey >= toKey;
+			this.leaf = last ? null : map.findLeaf(fromKey);
+		}
+
+		/**
+		 * Moves to the next entry.
+		 * @return false at the end of the range
+		 */
+		public boolean next() {
+			while (++position >= count) {
+				if (last) {
+					return false;
+				}
+				fill();
+			}
+			return true;
+		}
+
+		public long key() {
+			return keys[position];
+		}
+
+		@SuppressWarnings("unchecked")
+		public V value() {
+			return (V) values[position];
+		}
+
+		private void fill() {
+			for (;;) {
+				Leaf l = leaf;
+				long stamp = l.lock.tryOptimisticRead();
+				if (stamp == 0) {
+					Thread.onSpinWait();
+					continue;
+				}
+				int n = Math.min(l.count, LEAF_CAPACITY);
+				int copied = 0;
+				boolean end = false;
+				for (int i = 0; i < n; i++) {
+					long key = l.keys[i];
+					if (key < lowKey) {
+						continue;
+					}
+					if (key >= toKey) {
+						end = true;
+						break;
+					}
+					keys[copied] = key;
+					values[copied] = l.values[i];
+					copied++;
+				}
+				Leaf next = l.next;
+				if (!l.lock.validate(stamp)) {
+					continue;
+				}
+				count = copied;
+				position = -1;
+				if (copied > 0) {
+					// below toKey, so no overflow
+					lowKey = keys[copied - 1] + 1;
+				}
+				last = end || next == null;
+				leaf = next;
+				// drop the references to the values of the previous leaf
+				Arrays.fill(values, copied, LEAF_CAPACITY, null);
+				if (copied > 0 || last) {
+					return;
+				}
+			}
+		}
+	}
+
+	abstract static class Node {
+		final StampedLock lock = new StampedLock();
+		final long[] keys;
+		// read under optimistic stamps, so possibly stale until the stamp is validated
+		int count;
+
+		Node(int capacity) {
+			keys = new long[capacity];
+		}
+	}
+
+	static final class Leaf extends Node {
+		final Object[] values = new Object[LEAF_CAPACITY];
+		Leaf next;
+
+		Leaf() {
+			super(LEAF_CAPACITY);
+		}
+
+		int search(long key) {
+			return Arrays.binarySearch(keys, 0, Math.min(count, LEAF_CAPACITY), key);
+		}
+
+		void insert(int pos, long key, Object value) {
+			System.arraycopy(keys, pos, keys, pos + 1, count - pos);
+			System.arraycopy(values, pos, values, pos + 1, count - pos);
+			keys[pos] = key;
+			values[pos] = value;
+			count++;
+		}
+
+		void delete(int pos) {
+			System.arraycopy(keys, pos + 1, keys, pos, count - pos - 1);
+			System.arraycopy(values, pos + 1, values, pos, count - pos - 1);
+			count--;
+			values[count] = null;
+		}
+
+		/**
+		 * Moves the upper part of this full leaf to a new leaf on its right and inserts the key in the half it belongs to.
+		 * A key going at the very end, the time-ordered case, starts the new leaf on its own, so this one stays full.
+		 */
+		Leaf split(int pos, long key, Object value) {
+			Leaf right = new Leaf();
+			if (pos == count) {
+				right.insert(0, key, value);
+			} else {
+				int mid = count / 2;
+				right.count = count - mid;
+				System.arraycopy(keys, mid, right.keys, 0, right.count);
+				System.arraycopy(values, mid, right.values, 0, right.count);
+				Arrays.fill(values, mid, count, null);
+				count = mid;
+				if (pos <= mid) {
+					insert(pos, key, value);
+				} else {
+					right.insert(pos - mid, key, value);
+				}
+			}
+			right.next = next;
+			next = right;
+			return right;
+		}
+	}
+
+	static final class Inner extends Node {
+		// child i holds the keys below keys[i], child i + 1 the ones from keys[i] up
+		final Node[] children = new Node[INNER_CAPACITY + 1];
+
+		Inner() {
+			super(INNER_CAPACITY);
+		}
+
+		Node child(long key) {
+			int i = Arrays.binarySearch(keys, 0, Math.max(0, Math.min(count, INNER_CAPACITY)), key);
+			return children[i >= 0 ? i + 1 : -i - 1];
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int entries = 1_000_000;
+		// time-ordered keys: event timestamps in microseconds, a few microseconds apart
+		long[] keys = new long[entries];
+		String[] values = new String[entries];
+		long t = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+		for (int i = 0; i < entries; i++) {
+			t += 1 + ThreadLocalRandom.current().nextInt(10);
+			keys[i] = t;
+			values[i] = "event";
+		}
+		log.info("Memory per entry, {} time-ordered keys (the values are shared, so this is the cost of the structure):", entries);
+		long before = usedHeap();
+		ConcurrentSkipListMap<Long, String> skipList = new ConcurrentSkipListMap<>();
+		for (int i = 0; i < entries; i++) {
+			skipList.put(keys[i], values[i]);
+		}
+		log.info("    ConcurrentSkipListMap:    {} bytes", (usedHeap() - before) / entries);
+		before = usedHeap();
+		LongBTreeMap<String> tree = new LongBTreeMap<>();
+		for (int i = 0; i < entries; i++) {
+			tree.put(keys[i], values[i]);
+		}
+		log.info("    LongBTreeMap, put():      {} bytes", (usedHeap() - before) / entries);
+		tree = null;
+		before = usedHeap();
+		LongBTreeMap<String> loaded = bulkLoad(keys, values);
+		log.info("    LongBTreeMap, bulkLoad(): {} bytes", (usedHeap() - before) / entries);
+
+		int window = 1_000;
+		log.info("Scan throughput, {}-entry windows at random:", window);
+		// the first rounds warm up the JIT
+		for (int round = 0; round < 3; round++) {
+			boolean report = round == 2;
+			long[] sink = new long[1];
+			long start = System.nanoTime();
+			int scans = 5_000;
+			for (int s = 0; s < scans; s++) {
+				int from = ThreadLocalRandom.current().nextInt(entries - window);
+				skipList.subMap(keys[from], keys[from + window]).forEach((k, v) -> sink[0] += k);
+			}
+			long skipListNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int s = 0; s < scans; s++) {
+				int from = ThreadLocalRandom.current().nextInt(entries - window);
+				loaded.forEach(keys[from], keys[from + window], (k, v) -> sink[0] += k);
+			}
+			long treeNanos = System.nanoTime() - start;
+			if (report) {
+				log.info("    ConcurrentSkipListMap.subMap().forEach(): {} M entries/s", String.format("%6.1f", (double) scans * window * 1e3 / skipListNanos));
+				log.info("    LongBTreeMap.forEach(from, to):           {} M entries/s", String.format("%6.1f", (double) scans * window * 1e3 / treeNanos));
+			}
+		}
+
+		log.info("For 1 second, 2 writers append new events while 2 readers scan the latest {} entries:", window);
+		long lastKey = keys[entries - 1];
+		concurrentScans("ConcurrentSkipListMap", lastKey, window, key -> skipList.put(key, "event"),
+				(from, to, check) -> skipList.subMap(from, to).forEach((k, v) -> check.accept(k)));
+		concurrentScans("LongBTreeMap", lastKey, window, key -> loaded.put(key, "event"), (from, to, check) -> loaded.forEach(from, to, (k, v) -> check.accept(k)));
+		log.info("Lookups and scans under JMH are in the OrderedMapBenchmark of the benchmarks profile");
+	}
+
+	private interface RangeScan {
+		void scan(long from, long to, LongConsumer action);
+	}
+
+	private static void concurrentScans(String name, long lastKey, int window, LongConsumer append, RangeScan scan)
+			throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			AtomicBoolean running = new AtomicBoolean(true);
+			LongAdder appends = new LongAdder();
+			LongAdder scans = new LongAdder();
+			LongAdder scanned = new LongAdder();
+			// the last key appended by each writer, the readers scan the window behind the slower one
+			AtomicLongArray heads = new AtomicLongArray(new long[] { lastKey, lastKey });
+			List<Future<?>> futures = new ArrayList<>();
+			for (int w = 0; w < 2; w++) {
+				long first = lastKey + 1 + w;
+				int writer = w;
+				futures.add(executor.submit(() -> {
+					// the two writers interleave: one the odd keys, the other the even ones
+					for (long key = first; running.get(); key += 2) {
+						append.accept(key);
+						appends.increment();
+						heads.lazySet(writer, key);
+					}
+				}));
+			}
+			for (int r = 0; r < 2; r++) {
+				futures.add(executor.submit(() -> {
+					long[] previous = new long[1];
+					while (running.get()) {
+						long to = Math.min(heads.get(0), heads.get(1));
+						previous[0] = Long.MIN_VALUE;
+						scan.scan(to - window, to, k -> {
+							if (k <= previous[0]) {
+								throw new IllegalStateException("keys out of order");
+							}
+							previous[0] = k;
+							scanned.increment();
+						});
+						scans.increment();
+					}
+				}));
+			}
+			TimeUnit.SECONDS.sleep(1);
+			running.set(false);
+			for (Future<?> f : futures) {
+				f.get();
+			}
+			log.info("    {}: {} appends, {} scans of {} entries on average", String.format("%-21s", name), appends.sum(), scans.sum(),
+					scans.sum() == 0 ? 0 : scanned.sum() / scans.sum());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
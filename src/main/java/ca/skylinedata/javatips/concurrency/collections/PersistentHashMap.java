@@ -0,0 +1,509 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash array mapped trie: a 32-way tree indexed by 5 bits of the key hash per level, where each node only stores
+ * the children it has (a bitmap says which ones). plus() and minus() return a new map that copies the path from the root to the changed
+ * entry - at most 7 small nodes - and shares everything else with the old map, so a write costs O(log32 n) instead of the O(n)
+ * array copy of CopyOnWriteArrayList, and the old map stays valid for whoever is reading it.
+ *
+ * Keys with the same hash end up in a collision node, a plain array searched linearly. Null keys and values are not supported.
+ *
+ * Many changes at once go through a Builder: the nodes it copies are tagged with the builder's edit token and it changes them in place
+ * from then on, so a batch of changes copies each node at most once instead of once per change, and the result is published as one new map.
+ */
+public final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+	private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+	private static final Object NOT_FOUND = new Object();
+
+	private final Node root;
+	private final int size;
+
+	private PersistentHashMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentHashMap<K, V> empty() {
+		return (PersistentHashMap<K, V>) EMPTY;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public V get(Object key) {
+		return getOrDefault(key, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V getOrDefault(Object key, V defaultValue) {
+		if (root == null) {
+			return defaultValue;
+		}
+		Object v = root.find(0, hash(key), key, NOT_FOUND);
+		return v == NOT_FOUND ? defaultValue : (V) v;
+	}
+
+	public boolean containsKey(Object key) {
+		return root != null && root.find(0, hash(key), key, NOT_FOUND) != NOT_FOUND;
+	}
+
+	/**
+	 * @return a map with the key mapped to the value, this one if it was mapped to that value already
+	 */
+	public PersistentHashMap<K, V> plus(K key, V value) {
+		Objects.requireNonNull(value, "value");
+		boolean[] added = new boolean[1];
+		Node r = (root == null ? BitmapNode.EMPTY : root).assoc(null, 0, hash(key), key, value, added);
+		return r == root ? this : new PersistentHashMap<>(r, added[0] ? size + 1 : size);
+	}
+
+	/**
+	 * @return a map without the key, this one if there was no such key
+	 */
+	public PersistentHashMap<K, V> minus(Object key) {
+		if (root == null) {
+			return this;
+		}
+		boolean[] removed = new boolean[1];
+		Node r = root.without(null, 0, hash(key), key, removed);
+		return removed[0] ? new PersistentHashMap<>(r, size - 1) : this;
+	}
+
+	/**
+	 * A builder starting from this map, which stays unchanged.
+	 */
+	public Builder<K, V> toBuilder() {
+		return new Builder<>(this);
+	}
+
+	@SuppressWarnings("unchecked")
+	public void forEach(BiConsumer<? super K, ? super V> action) {
+		if (root != null) {
+			root.forEach((BiConsumer<Object, Object>) action);
+		}
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> iterator() {
+		return new EntryIterator<>(root);
+	}
+
+	static int hash(Object key) {
+		// spread the high bits down, the trie consumes the hash from the low bits up
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static int mask(int hash, int shift) {
+		return (hash >>> shift) & 31;
+	}
+
+	private static int bitpos(int hash, int shift) {
+		return 1 << mask(hash, shift);
+	}
+
+	private static Object[] cloneAndSet(Object[] array, int i, Object a) {
+		Object[] clone = array.clone();
+		clone[i] = a;
+		return clone;
+	}
+
+	private static Object[] cloneAndSet(Object[] array, int i, Object a, int j, Object b) {
+		Object[] clone = array.clone();
+		clone[i] = a;
+		clone[j] = b;
+		return clone;
+	}
+
+	private static Object[] removePair(Object[] array, int i) {
+		Object[] result = new Object[array.length - 2];
+		System.arraycopy(array, 0, result, 0, 2 * i);
+		System.arraycopy(array, 2 * (i + 1), result, 2 * i, result.length - 2 * i);
+		return result;
+	}
+
+	private static Node createNode(Object edit, int shift, Object key1, Object val1, int hash2, Object key2, Object val2) {
+		int hash1 = hash(key1);
+		if (hash1 == hash2) {
+			return new CollisionNode(edit, hash1, new Object[] { key1, val1, key2, val2 });
+		}
+		boolean[] added = new boolean[1];
+		return BitmapNode.EMPTY.assoc(edit, shift, hash1, key1, val1, added).assoc(edit, shift, hash2, key2, val2, added);
+	}
+
+	/**
+	 * Applies many changes to a map with in-place edits of the nodes it already copied, build() returns the resulting map.
+	 * Not thread-safe, and not usable after build().
+	 */
+	public static final class Builder<K, V> {
+
+		private final PersistentHashMap<K, V> origin;
+		private Object edit = new Object();
+		private Node root;
+		private int size;
+
+		Builder(PersistentHashMap<K, V> origin) {
+			this.origin = origin;
+			this.root = origin.root;
+			this.size = origin.size;
+		}
+
+		public Builder<K, V> put(K key, V value) {
+			Objects.requireNonNull(value, "value");
+			ensureOpen();
+			boolean[] added = new boolean[1];
+			root = (root == null ? BitmapNode.EMPTY : root).assoc(edit, 0, hash(key), key, value, added);
+			if (added[0]) {
+				size++;
+			}
+			return this;
+		}
+
+		public Builder<K, V> remove(Object key) {
+			ensureOpen();
+			if (root != null) {
+				boolean[] removed = new boolean[1];
+				root = root.without(edit, 0, hash(key), key, removed);
+				if (removed[0]) {
+					size--;
+				}
+			}
+			return this;
+		}
+
+		@SuppressWarnings("unchecked")
+		public V get(Object key) {
+			ensureOpen();
+			Object v = root == null ? NOT_FOUND : root.find(0, hash(key), key, NOT_FOUND);
+			return v == NOT_FOUND ? null : (V) v;
+		}
+
+		public boolean containsKey(Object key) {
+			ensureOpen();
+			return root != null && root.find(0, hash(key), key, NOT_FOUND) != NOT_FOUND;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return the new map, or the original one if nothing changed
+		 */
+		public PersistentHashMap<K, V> build() {
+			ensureOpen();
+			// the nodes keep the token, but no builder will ever have it again, so they're immutable from now on
+			edit = null;
+			return root == origin.root ? origin : new PersistentHashMap<>(root, size);
+		}
+
+		private void ensureOpen() {
+			if (edit == null) {
+				throw new IllegalStateException("Builder used after build()");
+			}
+		}
+	}
+
+	private interface Node {
+
+		Object find(int shift, int hash, Object key, Object notFound);
+
+		/**
+		 * @param edit the token of the builder making the change, null for a persistent change
+		 * @return this node if nothing changed or if it was changed in place
+		 */
+		Node assoc(Object edit, int shift, int hash, Object key, Object value, boolean[] added);
+
+		/**
+		 * @return this node if the key isn't there or if it was changed in place, null if the node is left empty
+		 */
+		Node without(Object edit, int shift, int hash, Object key, boolean[] removed);
+
+		void forEach(BiConsumer<Object, Object> action);
+
+		/**
+		 * Key, value or null, child node pairs, e.g. as iterated by EntryIterator.
+		 */
+		Object[] array();
+	}
+
+	/**
+	 * The slots of the present children only, two per child: key and value, or null and the sub-node the keys are pushed down to.
+	 */
+	private static final class BitmapNode implements Node {
+
+		static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+		final Object edit;
+		// changed only by the builder owning the edit token
+		int bitmap;
+		Object[] array;
+
+		BitmapNode(Object edit, int bitmap, Object[] array) {
+			this.edit = edit;
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		private boolean editable(Object edit) {
+			return edit != null && this.edit == edit;
+		}
+
+		private BitmapNode with(Object edit, int bitmap, Object[] array) {
+			if (editable(edit)) {
+				this.bitmap = bitmap;
+				this.array = array;
+				return this;
+			}
+			return new BitmapNode(edit, bitmap, array);
+		}
+
+		private BitmapNode set(Object edit, int i, Object a) {
+			if (editable(edit)) {
+				array[i] = a;
+				return this;
+			}
+			return new BitmapNode(edit, bitmap, cloneAndSet(array, i, a));
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		public Object find(int shift, int hash, Object key, Object notFound) {
+			int bit = bitpos(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return notFound;
+			}
+			int idx = index(bit);
+			Object keyOrNull = array[2 * idx];
+			Object valOrNode = array[2 * idx + 1];
+			if (keyOrNull == null) {
+				return ((Node) valOrNode).find(shift + 5, hash, key, notFound);
+			}
+			return key.equals(keyOrNull) ? valOrNode : notFound;
+		}
+
+		@Override
+		public Node assoc(Object edit, int shift, int hash, Object key, Object value, boolean[] added) {
+			int bit = bitpos(hash, shift);
+			int idx = index(bit);
+			if ((bitmap & bit) == 0) {
+				Object[] a = new Object[array.length + 2];
+				System.arraycopy(array, 0, a, 0, 2 * idx);
+				a[2 * idx] = key;
+				a[2 * idx + 1] = value;
+				System.arraycopy(array, 2 * idx, a, 2 * (idx + 1), array.length - 2 * idx);
+				added[0] = true;
+				return with(edit, bitmap | bit, a);
+			}
+			Object keyOrNull = array[2 * idx];
+			Object valOrNode = array[2 * idx + 1];
+			if (keyOrNull == null) {
+				Node n = ((Node) valOrNode).assoc(edit, shift + 5, hash, key, value, added);
+				return n == valOrNode ? this : set(edit, 2 * idx + 1, n);
+			}
+			if (key.equals(keyOrNull)) {
+				return value == valOrNode ? this : set(edit, 2 * idx + 1, value);
+			}
+			// two keys in the same slot: push both down a level
+			added[0] = true;
+			Node pushedDown = createNode(edit, shift + 5, keyOrNull, valOrNode, hash, key, value);
+			if (editable(edit)) {
+				array[2 * idx] = null;
+				array[2 * idx + 1] = pushedDown;
+				return this;
+			}
+			return new BitmapNode(edit, bitmap, cloneAndSet(array, 2 * idx, null, 2 * idx + 1, pushedDown));
+		}
+
+		@Override
+		public Node without(Object edit, int shift, int hash, Object key, boolean[] removed) {
+			int bit = bitpos(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int idx = index(bit);
+			Object keyOrNull = array[2 * idx];
+			Object valOrNode = array[2 * idx + 1];
+			if (keyOrNull == null) {
+				Node n = ((Node) valOrNode).without(edit, shift + 5, hash, key, removed);
+				if (n == valOrNode) {
+					return this;
+				}
+				if (n != null) {
+					return set(edit, 2 * idx + 1, n);
+				}
+			} else if (key.equals(keyOrNull)) {
+				removed[0] = true;
+			} else {
+				return this;
+			}
+			return bitmap == bit ? null : with(edit, bitmap ^ bit, removePair(array, idx));
+		}
+
+		@Override
+		public void forEach(BiConsumer<Object, Object> action) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (array[i] == null) {
+					((Node) array[i + 1]).forEach(action);
+				} else {
+					action.accept(array[i], array[i + 1]);
+				}
+			}
+		}
+
+		@Override
+		public Object[] array() {
+			return array;
+		}
+	}
+
+	/**
+	 * Keys with the same full hash, as key and value pairs.
+	 */
+	private static final class CollisionNode implements Node {
+
+		final Object edit;
+		final int hash;
+		// changed only by the builder owning the edit token
+		Object[] array;
+
+		CollisionNode(Object edit, int hash, Object[] array) {
+			this.edit = edit;
+			this.hash = hash;
+			this.array = array;
+		}
+
+		private CollisionNode with(Object edit, Object[] array) {
+			if (edit != null && this.edit == edit) {
+				this.array = array;
+				return this;
+			}
+			return new CollisionNode(edit, hash, array);
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public Object find(int shift, int hash, Object key, Object notFound) {
+			int i = hash == this.hash ? indexOf(key) : -1;
+			return i < 0 ? notFound : array[i + 1];
+		}
+
+		@Override
+		public Node assoc(Object edit, int shift, int hash, Object key, Object value, boolean[] added) {
+			if (hash != this.hash) {
+				// a different hash sharing the path so far: nest this node in a bitmap node, where they can part
+				return new BitmapNode(edit, bitpos(this.hash, shift), new Object[] { null, this }).assoc(edit, shift, hash, key, value, added);
+			}
+			int i = indexOf(key);
+			if (i >= 0) {
+				return array[i + 1] == value ? this : with(edit, cloneAndSet(array, i + 1, value));
+			}
+			Object[] a = Arrays.copyOf(array, array.length + 2);
+			a[array.length] = key;
+			a[array.length + 1] = value;
+			added[0] = true;
+			return with(edit, a);
+		}
+
+		@Override
+		public Node without(Object edit, int shift, int hash, Object key, boolean[] removed) {
+			int i = hash == this.hash ? indexOf(key) : -1;
+			if (i < 0) {
+				return this;
+			}
+			removed[0] = true;
+			return array.length == 2 ? null : with(edit, removePair(array, i / 2));
+		}
+
+		@Override
+		public void forEach(BiConsumer<Object, Object> action) {
+			for (int i = 0; i < array.length; i += 2) {
+				action.accept(array[i], array[i + 1]);
+			}
+		}
+
+		@Override
+		public Object[] array() {
+			return array;
+		}
+	}
+
+	/**
+	 * Depth-first over the node arrays, with an explicit stack: the trie is at most 7 levels deep (plus a collision node).
+	 */
+	private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+		private final Object[][] arrays = new Object[9][];
+		private final int[] positions = new int[9];
+		private int depth = -1;
+		private Map.Entry<K, V> next;
+
+		EntryIterator(Node root) {
+			if (root != null) {
+				arrays[++depth] = root.array();
+			}
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			next = null;
+			while (depth >= 0) {
+				Object[] a = arrays[depth];
+				int i = positions[depth];
+				if (i >= a.length) {
+					positions[depth--] = 0;
+					continue;
+				}
+				positions[depth] = i + 2;
+				if (a[i] == null) {
+					arrays[++depth] = ((Node) a[i + 1]).array();
+				} else {
+					next = new AbstractMap.SimpleImmutableEntry<>((K) a[i], (V) a[i + 1]);
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<K, V> e = next;
+			advance();
+			return e;
+		}
+	}
+}
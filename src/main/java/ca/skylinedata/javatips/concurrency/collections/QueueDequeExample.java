@@ -18,7 +18,7 @@ public class QueueDequeExample {
 		log.info("Starting QueueDequeExample");
 
 		// * Queue implementations are:
-		// * ArrayBlockingQueue, ConcurrentLinkedQueue, DelayQueue, 
+		// * ArrayBlockingQueue, ConcurrentLinkedQueue, DelayQueue (TimingWheelDelayQueue for millions of timers), 
 		// * LinkedBlockingQueue, LinkedTransferQueue, PriorityBlockingQueue, PriorityQueue etc.
 		
 		BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<>(2); // thread-safe, bounded by a fixed size array, not extendable
@@ -0,0 +1,667 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A BlockingQueue of Delayed elements, like DelayQueue, on a hierarchical timing wheel instead of a binary heap under a single lock.
+ * DelayQueue takes its lock and sifts its heap (O(log n)) on every offer and take, with millions of pending retry and expiry timers
+ * the producers queue up behind the consumer. Here producers push onto a lock-free intake stack with a single CAS and never touch the wheel,
+ * and cancelling a Timer is a CAS too; the consumer moves the intake onto the wheel and ticks it - both O(1) per timer, whatever the size.
+ *
+ * The wheel has 4 levels of 256 slots: level 0 slots are one tick wide, level 1 slots 256 ticks, and so on,
+ * so with 1 ms ticks the levels cover 256 ms, 65 seconds, 4.6 hours and 49 days. Every 256 ticks the next level 1 slot is cascaded
+ * down into level 0 (and every 65,536 ticks a level 2 slot into level 1...), a timer is moved at most once per level.
+ *
+ * The price is precision, as with TimingWheel: an element comes out at the end of the tick of its deadline, never before its deadline
+ * but up to a tick after it, and elements of the same tick come out in the order they were offered rather than by their exact delay
+ * (so do the elements offered already overdue).
+ * The wheel is driven by its consumer, meant to be a single thread (a scheduler's tick loop); several consumers are serialized on a lock,
+ * the one waiting for the next deadline parks without holding it. peek() only sees expired elements, and remove(Object) is a linear scan,
+ * use the Timer returned by schedule() to cancel in O(1). Cancelled timers stay on the wheel until their slot comes up.
+ */
+@Slf4j
+public class TimingWheelDelayQueue<E extends Delayed> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+	private static final int SLOT_BITS = 8;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+
+	private static final int ARMED = 0;
+	private static final int TAKEN = 1;
+	private static final int CANCELLED = 2;
+
+	private static final VarHandle INTAKE;
+	private static final VarHandle STATE;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			INTAKE = lookup.findVarHandle(TimingWheelDelayQueue.class, "intake", TimingWheelDelayQueue.Timer.class);
+			STATE = lookup.findVarHandle(TimingWheelDelayQueue.Timer.class, "state", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final long tickNanos;
+	private final long startTime;
+	private final LongAdder pending = new LongAdder();
+	private final ReentrantLock takeLock = new ReentrantLock();
+	// consumers waiting for the leader, the one parked until the next deadline, to be done
+	private final Condition followers = takeLock.newCondition();
+	// timers offered but not on the wheel yet: a stack linked through Timer.next, pushed with a CAS and taken whole by the consumer
+	private volatile Timer intake;
+	private volatile Thread leader;
+	// the tick the leader wakes up for, producers only unpark it for an earlier timer
+	private volatile long leaderWakeTick = Long.MAX_VALUE;
+
+	// the fields below are guarded by takeLock
+	// wheel[level][slot]: the timers of the slot, linked through Timer.next
+	private final Timer[][] wheel;
+	private final ArrayDeque<Timer> expired = new ArrayDeque<>();
+	// the next tick to process, all the earlier ones are done
+	private long tick;
+	// timers on the wheel, including the cancelled ones not dropped yet
+	private long onWheel;
+
+	/**
+	 * A queue with 1 ms ticks.
+	 */
+	public TimingWheelDelayQueue() {
+		this(1, TimeUnit.MILLISECONDS);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TimingWheelDelayQueue(long tickDuration, TimeUnit unit) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be positive");
+		}
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new TimingWheelDelayQueue.Timer[LEVELS][SLOTS];
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Offers the element, and returns the timer that cancels it.
+	 */
+	public Timer schedule(E element) {
+		Objects.requireNonNull(element);
+		long now = System.nanoTime() - startTime;
+		long delay = element.getDelay(TimeUnit.NANOSECONDS);
+		long deadline = delay > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + delay;
+		Timer timer = new Timer(element, Math.floorDiv(deadline, tickNanos));
+		pending.increment();
+		Timer head;
+		do {
+			head = intake;
+			timer.next = head;
+		} while (!INTAKE.compareAndSet(this, head, timer));
+		if (timer.deadlineTick < leaderWakeTick) {
+			Thread waiting = leader;
+			if (waiting != null) {
+				LockSupport.unpark(waiting);
+			}
+		}
+		return timer;
+	}
+
+	@Override
+	public boolean offer(E e) {
+		schedule(e);
+		return true;
+	}
+
+	@Override
+	public void put(E e) {
+		schedule(e);
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) {
+		schedule(e);
+		return true;
+	}
+
+	@Override
+	public E poll() {
+		takeLock.lock();
+		try {
+			Timer t = pollExpired();
+			return t == null ? null : t.element;
+		} finally {
+			takeLock.unlock();
+		}
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		return await(false, 0);
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return await(true, unit.toNanos(timeout));
+	}
+
+	/**
+	 * @return the next expired element, or null if none has expired (unlike DelayQueue, which returns the unexpired head)
+	 */
+	@Override
+	public E peek() {
+		takeLock.lock();
+		try {
+			drainIntake();
+			advance();
+			Timer t;
+			while ((t = expired.peek()) != null && t.state != ARMED) {
+				expired.poll();
+			}
+			return t == null ? null : t.element;
+		} finally {
+			takeLock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.max(0, Math.min(pending.sum(), Integer.MAX_VALUE));
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		Objects.requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		takeLock.lock();
+		try {
+			drainIntake();
+			advance();
+			int n = 0;
+			Timer t;
+			while (n < maxElements && (t = nextExpired()) != null) {
+				c.add(t.element);
+				n++;
+			}
+			return n;
+		} finally {
+			takeLock.unlock();
+		}
+	}
+
+	/**
+	 * A linear scan of the wheel, cancel the Timer instead.
+	 */
+	@Override
+	public boolean remove(Object o) {
+		if (o == null) {
+			return false;
+		}
+		for (Timer t : snapshot()) {
+			if (o.equals(t.element) && t.cancel()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void clear() {
+		for (Timer t : snapshot()) {
+			t.cancel();
+		}
+	}
+
+	/**
+	 * Iterates over a snapshot of the pending elements, expired or not, in no particular order.
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		List<Timer> timers = snapshot();
+		return new Iterator<E>() {
+			private int next;
+			private Timer last;
+
+			@Override
+			public boolean hasNext() {
+				return next < timers.size();
+			}
+
+			@Override
+			public E next() {
+				if (next >= timers.size()) {
+					throw new NoSuchElementException();
+				}
+				last = timers.get(next++);
+				return last.element;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				last.cancel();
+				last = null;
+			}
+		};
+	}
+
+	private List<Timer> snapshot() {
+		List<Timer> timers = new ArrayList<>();
+		takeLock.lock();
+		try {
+			drainIntake();
+			for (Timer t : expired) {
+				if (t.state == ARMED) {
+					timers.add(t);
+				}
+			}
+			for (Timer[] level : wheel) {
+				for (Timer slot : level) {
+					for (Timer t = slot; t != null; t = t.next) {
+						if (t.state == ARMED) {
+							timers.add(t);
+						}
+					}
+				}
+			}
+		} finally {
+			takeLock.unlock();
+		}
+		return timers;
+	}
+
+	private E await(boolean timed, long nanos) throws InterruptedException {
+		long deadline = timed ? System.nanoTime() + nanos : 0;
+		ReentrantLock lock = takeLock;
+		lock.lockInterruptibly();
+		try {
+			for (;;) {
+				Timer t = pollExpired();
+				if (t != null) {
+					return t.element;
+				}
+				long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+				if (remaining <= 0) {
+					return null;
+				}
+				if (leader != null) {
+					if (timed) {
+						followers.awaitNanos(remaining);
+					} else {
+						followers.await();
+					}
+					continue;
+				}
+				long wakeTick = nextWakeTick();
+				long wait = wakeTick == Long.MAX_VALUE ? Long.MAX_VALUE : (wakeTick + 1) * tickNanos - (System.nanoTime() - startTime);
+				wait = Math.min(wait, remaining);
+				if (wait <= 0) {
+					continue;
+				}
+				// park without the lock, so that poll(), remove() and the like don't wait for the next deadline
+				leaderWakeTick = wakeTick;
+				leader = Thread.currentThread();
+				lock.unlock();
+				try {
+					// a producer that pushed before we became the leader didn't unpark us, so look at the intake once more
+					if (intake == null) {
+						if (wait == Long.MAX_VALUE) {
+							LockSupport.park(this);
+						} else {
+							LockSupport.parkNanos(this, wait);
+						}
+					}
+				} finally {
+					lock.lock();
+					leader = null;
+					leaderWakeTick = Long.MAX_VALUE;
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			if (leader == null) {
+				followers.signal();
+			}
+			lock.unlock();
+		}
+	}
+
+	private Timer pollExpired() {
+		drainIntake();
+		advance();
+		return nextExpired();
+	}
+
+	private Timer nextExpired() {
+		Timer t;
+		while ((t = expired.poll()) != null) {
+			if (t.take()) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+	private void drainIntake() {
+		if (intake == null) {
+			return;
+		}
+		// the stack is newest first, reversed so that timers of the same tick come out in the order they were offered
+		Timer t = reverse((Timer) INTAKE.getAndSet(this, null));
+		while (t != null) {
+			Timer next = t.next;
+			t.next = null;
+			place(t);
+			t = next;
+		}
+	}
+
+	private void place(Timer t) {
+		if (t.state != ARMED) {
+			return;
+		}
+		if (t.deadlineTick < tick) {
+			expired.add(t);
+			return;
+		}
+		// the level whose slots are the right size for the distance, a slot that only comes up once before the deadline
+		long distance = t.deadlineTick - tick;
+		int level = Math.min(LEVELS - 1, (63 - Long.numberOfLeadingZeros(distance | 1)) / SLOT_BITS);
+		int slot = (int) (t.deadlineTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+		t.next = wheel[level][slot];
+		wheel[level][slot] = t;
+		onWheel++;
+	}
+
+	private void advance() {
+		long now = (System.nanoTime() - startTime) / tickNanos;
+		// a tick is processed once it's over
+		while (tick < now) {
+			if (onWheel == 0) {
+				tick = now;
+				return;
+			}
+			cascade();
+			int slot = (int) tick & SLOT_MASK;
+			Timer t = reverse(wheel[0][slot]);
+			wheel[0][slot] = null;
+			while (t != null) {
+				Timer next = t.next;
+				t.next = null;
+				onWheel--;
+				if (t.state == ARMED) {
+					expired.add(t);
+				}
+				t = next;
+			}
+			tick++;
+		}
+	}
+
+	private void cascade() {
+		for (int level = LEVELS - 1; level > 0; level--) {
+			if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+				int slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+				Timer t = reverse(wheel[level][slot]);
+				wheel[level][slot] = null;
+				while (t != null) {
+					Timer next = t.next;
+					t.next = null;
+					onWheel--;
+					place(t);
+					t = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The tick to wake up for: the next non-empty level 0 slot, or the next cascade, when level 1 may bring in more.
+	 */
+	private long nextWakeTick() {
+		if (onWheel == 0) {
+			return Long.MAX_VALUE;
+		}
+		long cascadeTick = (tick | SLOT_MASK) + 1;
+		for (long c = tick; c < cascadeTick; c++) {
+			if (wheel[0][(int) c & SLOT_MASK] != null) {
+				return c;
+			}
+		}
+		return cascadeTick;
+	}
+
+	private Timer reverse(Timer head) {
+		Timer reversed = null;
+		while (head != null) {
+			Timer next = head.next;
+			head.next = reversed;
+			reversed = head;
+			head = next;
+		}
+		return reversed;
+	}
+
+	public final class Timer {
+
+		private final E element;
+		private final long deadlineTick;
+		// the intake stack while offered, then the slot list, owned by the consumer once drained from the intake
+		private Timer next;
+		volatile int state;
+
+		private Timer(E element, long deadlineTick) {
+			this.element = element;
+			this.deadlineTick = deadlineTick;
+		}
+
+		public E element() {
+			return element;
+		}
+
+		/**
+		 * @return false if the element has already been taken or cancelled
+		 */
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, ARMED, CANCELLED)) {
+				return false;
+			}
+			pending.decrement();
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		private boolean take() {
+			if (!STATE.compareAndSet(this, ARMED, TAKEN)) {
+				return false;
+			}
+			pending.decrement();
+			return true;
+		}
+	}
+
+	/**
+	 * A retry or expiry timer of the demo: a deadline and an id, ordered by deadline for DelayQueue.
+	 */
+	public static final class RetryTimer implements Delayed {
+
+		private final long deadlineNanoTime;
+		private final int id;
+
+		public RetryTimer(long delay, TimeUnit unit, int id) {
+			this.deadlineNanoTime = System.nanoTime() + unit.toNanos(delay);
+			this.id = id;
+		}
+
+		public int id() {
+			return id;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadlineNanoTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return o instanceof RetryTimer ? Long.compare(deadlineNanoTime, ((RetryTimer) o).deadlineNanoTime)
+					: Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int timers = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+		int producers = Math.max(4, Runtime.getRuntime().availableProcessors());
+		int churn = 1_000_000;
+		log.info("{} pending timers due in 1 to 10 minutes, armed by {} producers, then {} short timers (0 to 100 ms) taken by one consumer",
+				String.format("%,d", timers), producers, String.format("%,d", churn));
+		ExecutorService executor = Executors.newFixedThreadPool(producers);
+		try {
+			// one queue at a time, 10M timers take a good part of the default heap
+			DelayQueue<RetryTimer> delayQueue = new DelayQueue<>();
+			List<RetryTimer> sample = new ArrayList<>();
+			run("DelayQueue", delayQueue, executor, producers, timers, churn, sample, null);
+			long start = System.nanoTime();
+			int removals = 100;
+			for (int i = 0; i < removals; i++) {
+				delayQueue.remove(sample.get(i));
+			}
+			log.info("    remove(Object) with {} pending: {} us each (a linear scan)", String.format("%,d", delayQueue.size()),
+					(System.nanoTime() - start) / removals / 1000);
+			delayQueue = null;
+			sample = null;
+			// so that the wheel doesn't pay for collecting the DelayQueue
+			System.gc();
+
+			TimingWheelDelayQueue<RetryTimer> wheelQueue = new TimingWheelDelayQueue<>();
+			List<TimingWheelDelayQueue<RetryTimer>.Timer> handles = new ArrayList<>();
+			run("TimingWheelDelayQueue", wheelQueue, executor, producers, timers, churn, null, handles);
+			start = System.nanoTime();
+			for (TimingWheelDelayQueue<RetryTimer>.Timer timer : handles) {
+				timer.cancel();
+			}
+			log.info("    Timer.cancel() with {} pending: {} ns each", String.format("%,d", wheelQueue.size() + handles.size()),
+					(System.nanoTime() - start) / Math.max(1, handles.size()));
+			log.info("Offer and poll cost by queue size is in the DelayQueueBenchmark of the benchmarks profile");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Every 100th timer goes to the sample, or is scheduled with its handle kept, to time removals.
+	 */
+	private static void run(String name, BlockingQueue<RetryTimer> queue, ExecutorService executor, int producers, int timers, int churn,
+			List<RetryTimer> sample, List<TimingWheelDelayQueue<RetryTimer>.Timer> handles) throws InterruptedException, ExecutionException {
+		@SuppressWarnings("unchecked")
+		TimingWheelDelayQueue<RetryTimer> wheelQueue = queue instanceof TimingWheelDelayQueue ? (TimingWheelDelayQueue<RetryTimer>) queue : null;
+		long start = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			int from = p;
+			futures.add(executor.submit(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = from; i < timers; i += producers) {
+					RetryTimer timer = new RetryTimer(random.nextLong(60_000, 600_000), TimeUnit.MILLISECONDS, i);
+					if (i % 100 != 0) {
+						queue.offer(timer);
+					} else if (wheelQueue != null) {
+						TimingWheelDelayQueue<RetryTimer>.Timer handle = wheelQueue.schedule(timer);
+						synchronized (handles) {
+							handles.add(handle);
+						}
+					} else {
+						queue.offer(timer);
+						synchronized (sample) {
+							sample.add(timer);
+						}
+					}
+				}
+			}));
+		}
+		for (Future<?> f : futures) {
+			f.get();
+		}
+		// the wheel places the timers when its consumer comes around, peek() makes that part of the arming time
+		queue.peek();
+		long armedNanos = System.nanoTime() - start;
+		log.info("{}: armed {} timers in {} ms, {} ns each", name, String.format("%,d", queue.size()),
+				TimeUnit.NANOSECONDS.toMillis(armedNanos), armedNanos / timers);
+
+		// with the queue full, producers keep adding short timers while a consumer takes them as they expire
+		AtomicInteger taken = new AtomicInteger();
+		start = System.nanoTime();
+		Future<?> consumer = executor.submit(() -> {
+			try {
+				while (taken.get() < churn) {
+					if (queue.poll(1, TimeUnit.SECONDS) != null) {
+						taken.incrementAndGet();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		futures.clear();
+		for (int p = 0; p < producers - 1; p++) {
+			int from = p;
+			futures.add(executor.submit(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = from; i < churn; i += producers - 1) {
+					queue.offer(new RetryTimer(random.nextLong(100_000_000), TimeUnit.NANOSECONDS, i));
+				}
+			}));
+		}
+		for (Future<?> f : futures) {
+			f.get();
+		}
+		long offeredNanos = System.nanoTime() - start;
+		consumer.get();
+		long takenNanos = System.nanoTime() - start;
+		log.info("    {} short timers offered in {} ms ({} ns each), all taken after {} ms", String.format("%,d", churn),
+				TimeUnit.NANOSECONDS.toMillis(offeredNanos), offeredNanos / churn, TimeUnit.NANOSECONDS.toMillis(takenNanos));
+	}
+}
@@ -0,0 +1,127 @@
+package ca.skylinedata.javatips.concurrency.collections;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The Chase-Lev work-stealing deque: one owner thread pushes and pops at the bottom, like a stack, any number of thieves steal at the top.
+ * The owner needs no CAS, except to race the thieves for the very last element; thieves CAS the top index among themselves.
+ * The owner takes its most recent task, whose data is still in its cache, the thieves take the oldest ones,
+ * which in a recursive computation are the biggest pieces of work, so they steal rarely.
+ *
+ * The elements sit in a circular array that the owner doubles when it's full. A thief that still reads the previous array
+ * gets the same element there, as the owner never writes to an array it has replaced.
+ * Only the owner may call push() and pop(), anyone may call steal() and size().
+ */
+public class WorkStealingDeque<T> {
+
+	private static final VarHandle TOP;
+	private static final VarHandle BOTTOM;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			TOP = lookup.findVarHandle(WorkStealingDeque.class, "top", long.class);
+			BOTTOM = lookup.findVarHandle(WorkStealingDeque.class, "bottom", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	// the next element to steal, only ever incremented by a CAS
+	private volatile long top;
+	// the next free slot, written by the owner only
+	private volatile long bottom;
+	private volatile AtomicReferenceArray<T> array;
+
+	public WorkStealingDeque() {
+		this(64);
+	}
+
+	/**
+	 * @param initialCapacity rounded up to a power of two
+	 */
+	public WorkStealingDeque(int initialCapacity) {
+		array = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(2, initialCapacity) * 2 - 1));
+	}
+
+	/**
+	 * Owner only.
+	 */
+	public void push(T element) {
+		long b = (long) BOTTOM.getOpaque(this);
+		long t = (long) TOP.getAcquire(this);
+		AtomicReferenceArray<T> a = array;
+		if (b - t >= a.length()) {
+			a = grow(a, t, b);
+		}
+		a.setRelease((int) b & (a.length() - 1), element);
+		// publishes the element to the thieves
+		BOTTOM.setRelease(this, b + 1);
+	}
+
+	/**
+	 * Owner only.
+	 * @return the most recently pushed element, or null if the deque is empty
+	 */
+	public T pop() {
+		long b = (long) BOTTOM.getOpaque(this) - 1;
+		AtomicReferenceArray<T> a = array;
+		// a volatile write then a volatile read: the thieves see the new bottom before we read top, or we see their new top
+		bottom = b;
+		long t = top;
+		if (t > b) {
+			// empty
+			bottom = b + 1;
+			return null;
+		}
+		int i = (int) b & (a.length() - 1);
+		T element = a.get(i);
+		if (t < b) {
+			a.lazySet(i, null);
+			return element;
+		}
+		// the last element: the thieves may be after it too
+		if (!TOP.compareAndSet(this, t, t + 1)) {
+			element = null;
+		}
+		bottom = b + 1;
+		return element;
+	}
+
+	/**
+	 * Any thread.
+	 * @return the oldest element, or null if the deque is empty or another thief got it first
+	 */
+	public T steal() {
+		long t = top;
+		long b = bottom;
+		if (t >= b) {
+			return null;
+		}
+		AtomicReferenceArray<T> a = array;
+		T element = a.get((int) t & (a.length() - 1));
+		return TOP.compareAndSet(this, t, t + 1) ? element : null;
+	}
+
+	/**
+	 * A snapshot, exact only when no one is pushing, popping or stealing.
+	 */
+	public int size() {
+		return (int) Math.max(0, bottom - top);
+	}
+
+	public boolean isEmpty() {
+		return bottom <= top;
+	}
+
+	private AtomicReferenceArray<T> grow(AtomicReferenceArray<T> a, long t, long b) {
+		AtomicReferenceArray<T> bigger = new AtomicReferenceArray<>(a.length() * 2);
+		for (long i = t; i < b; i++) {
+			bigger.lazySet((int) i & (bigger.length() - 1), a.get((int) i & (a.length() - 1)));
+		}
+		array = bigger;
+		return bigger;
+	}
+}
@@ -2,10 +2,18 @@
  * This package contains concurrent collection examples, covering:
  * - ConcurrentHashMap
  * - ConcurrentSkipListMap
+ * - Lock-free primitive long-to-long map with concurrent resize
+ * - Hot-key counter map inflating contended keys into striped cells
  * - ConcurrentSkipListSet
+ * - B+ tree with optimistic lock coupling as an ordered map with fast range scans
+ * - Lock-free Bloom filters (plain and counting) fronting a Set or Map to short-circuit misses
  * - CopyOnWriteArrayList
+ * - Persistent hash array mapped trie as a copy-on-write config store
+ * - Batched copy-on-write updates with versioned snapshots and delta subscriptions
  * - BlockingQueue
  * - ConsumerProducer (implementation with ArrayBlockingQueue)
  * - Concurrent Queue, Deque
+ * - Chase-Lev work-stealing deque
+ * - DelayQueue on a hierarchical timing wheel
  */
 package ca.skylinedata.javatips.concurrency.collections;
\ No newline at end of file
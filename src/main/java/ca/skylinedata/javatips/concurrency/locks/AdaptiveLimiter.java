@@ -0,0 +1,291 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ca.skylinedata.javatips.concurrency.basics.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Semaphore-like concurrency limiter whose number of permits (the limit) follows the round-trip time of the calls it guards:
+ * when the backend slows down the limit shrinks, so requests wait here instead of piling up in the backend's queue,
+ * and when there's spare capacity the limit grows back. The limit is computed by an AIMD or a gradient (Vegas-style) algorithm.
+ *
+ * The round-trip time is measured from acquire() to release(), both must be called by the same thread.
+ */
+@Slf4j
+public class AdaptiveLimiter {
+
+	/**
+	 * Computes the new limit from a round-trip sample.
+	 */
+	public interface LimitAlgorithm {
+		double update(double limit, long rttNanos, int inflight, boolean dropped);
+	}
+
+	private final LimitAlgorithm algorithm;
+	private final int minLimit;
+	private final int maxLimit;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition permitAvailable = lock.newCondition();
+	private final ThreadLocal<long[]> acquiredAt = ThreadLocal.withInitial(() -> new long[1]);
+	private double limit; // guarded by lock
+	private int inflight; // guarded by lock
+
+	public AdaptiveLimiter(LimitAlgorithm algorithm, int initialLimit, int minLimit, int maxLimit) {
+		this.algorithm = algorithm;
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+	}
+
+	public void acquire() throws InterruptedException {
+		lock.lock();
+		try {
+			while (inflight >= (int) limit) {
+				permitAvailable.await();
+			}
+			inflight++;
+		} finally {
+			lock.unlock();
+		}
+		acquiredAt.get()[0] = System.nanoTime();
+	}
+
+	public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (inflight >= (int) limit) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = permitAvailable.awaitNanos(nanos);
+			}
+			inflight++;
+		} finally {
+			lock.unlock();
+		}
+		acquiredAt.get()[0] = System.nanoTime();
+		return true;
+	}
+
+	/**
+	 * Releases the permit of a call that succeeded.
+	 */
+	public void release() {
+		release(false);
+	}
+
+	/**
+	 * @param dropped the call failed because of overload (e.g. timed out or was rejected), which is a congestion signal
+	 */
+	public void release(boolean dropped) {
+		long rtt = System.nanoTime() - acquiredAt.get()[0];
+		lock.lock();
+		try {
+			int before = (int) limit;
+			limit = Math.max(minLimit, Math.min(maxLimit, algorithm.update(limit, rtt, inflight, dropped)));
+			inflight--;
+			if ((int) limit > before) {
+				permitAvailable.signalAll();
+			} else {
+				permitAvailable.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getInflight() {
+		lock.lock();
+		try {
+			return inflight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Additive increase, multiplicative decrease, as TCP does: +1 per round trip while the limit is in use, times 0.9 on a drop.
+	 * A call slower than the timeout counts as a drop.
+	 */
+	public static class Aimd implements LimitAlgorithm {
+
+		private final long timeoutNanos;
+		private final double backoffRatio;
+
+		public Aimd(long timeout, TimeUnit unit) {
+			this(timeout, unit, 0.9);
+		}
+
+		public Aimd(long timeout, TimeUnit unit, double backoffRatio) {
+			this.timeoutNanos = unit.toNanos(timeout);
+			this.backoffRatio = backoffRatio;
+		}
+
+		@Override
+		public double update(double limit, long rttNanos, int inflight, boolean dropped) {
+			if (dropped || rttNanos > timeoutNanos) {
+				return limit * backoffRatio;
+			}
+			// growing the limit only makes sense when we're actually using it
+			if (inflight * 2 >= limit) {
+				return limit + 1 / limit; // about +1 per round trip of the whole limit
+			}
+			return limit;
+		}
+	}
+
+	/**
+	 * Vegas-style gradient of the no-load round-trip time over the current one:
+	 * as long as the latency stays within the tolerance of the no-load latency the limit keeps growing by a small queue allowance,
+	 * once requests start queueing in the backend and the latency grows past it, the limit shrinks proportionally.
+	 */
+	public static class Gradient implements LimitAlgorithm {
+
+		private final double tolerance;
+		private final double smoothing;
+		private double shortRtt; // accessed under the limiter's lock
+		private double noLoadRtt; // accessed under the limiter's lock
+
+		public Gradient() {
+			this(1.5, 0.2);
+		}
+
+		/**
+		 * @param tolerance how much slower than the no-load latency the calls may get before the limit shrinks, e.g. 1.5
+		 * @param smoothing 0..1, how fast the limit moves towards the computed one
+		 */
+		public Gradient(double tolerance, double smoothing) {
+			this.tolerance = tolerance;
+			this.smoothing = smoothing;
+		}
+
+		@Override
+		public double update(double limit, long rttNanos, int inflight, boolean dropped) {
+			if (noLoadRtt == 0) {
+				shortRtt = noLoadRtt = rttNanos;
+				return limit;
+			}
+			shortRtt += (rttNanos - shortRtt) * 0.1;
+			if (rttNanos < noLoadRtt) {
+				noLoadRtt = rttNanos;
+			} else {
+				// drifts up very slowly, so that a backend that got permanently slower gets a new baseline eventually
+				noLoadRtt += (rttNanos - noLoadRtt) * 0.00001;
+			}
+			if (dropped) {
+				return limit * 0.5;
+			}
+			double gradient = Math.max(0.5, Math.min(1.0, tolerance * noLoadRtt / shortRtt));
+			// no point in raising the limit while we're not even using half of it
+			if (gradient == 1.0 && inflight * 2 < limit) {
+				return limit;
+			}
+			double newLimit = limit * gradient + Math.sqrt(limit);
+			return limit * (1 - smoothing) + newLimit * smoothing;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		// The backend serves up to `capacity` requests in parallel within 10 ms, past that the requests queue and latency grows.
+		// Halfway through the run the capacity drops from 20 to 5 (e.g. a node went down). 50 clients keep calling it.
+		// SemaphoreTasks-style fixed permits are either too few (wasting capacity) or too many (long queues once capacity drops).
+		int clients = 50;
+		log.info("{} clients, backend capacity 20 for 2 sec then 5 for 2 sec, 10 ms per call without queueing", clients);
+		Semaphore few = new Semaphore(2);
+		simulate("Semaphore(2)", clients, few::acquire, few::release, null);
+		Semaphore many = new Semaphore(40);
+		simulate("Semaphore(40)", clients, many::acquire, many::release, null);
+		AdaptiveLimiter aimd = new AdaptiveLimiter(new Aimd(30, TimeUnit.MILLISECONDS), 10, 1, 200);
+		simulate("AIMD", clients, aimd::acquire, aimd::release, aimd);
+		AdaptiveLimiter gradient = new AdaptiveLimiter(new Gradient(), 10, 1, 200);
+		simulate("Gradient", clients, gradient::acquire, gradient::release, gradient);
+	}
+
+	interface Acquire {
+		void acquire() throws InterruptedException;
+	}
+
+	static void simulate(String name, int clients, Acquire acquire, Runnable release, AdaptiveLimiter limiter) throws InterruptedException {
+		Backend backend = new Backend(20);
+		ExecutorService executorService = Executors.newFixedThreadPool(clients);
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<LatencyHistogram> latencies = List.of(new LatencyHistogram(), new LatencyHistogram());
+		AtomicInteger phase = new AtomicInteger();
+		for (int i = 0; i < clients; i++) {
+			executorService.submit(() -> {
+				while (running.get()) {
+					long start = System.nanoTime();
+					try {
+						acquire.acquire();
+						try {
+							backend.call();
+						} finally {
+							release.run();
+						}
+					} catch (InterruptedException e) {
+						return;
+					}
+					latencies.get(phase.get()).record(System.nanoTime() - start);
+				}
+			});
+		}
+		List<String> limits = new ArrayList<>();
+		for (int p = 0; p < 2; p++) {
+			TimeUnit.SECONDS.sleep(2);
+			limits.add(limiter == null ? "fixed" : String.valueOf(limiter.getLimit()));
+			if (p == 0) {
+				backend.capacity = 5;
+				phase.set(1);
+			}
+		}
+		running.set(false);
+		executorService.shutdownNow();
+		executorService.awaitTermination(5, TimeUnit.SECONDS);
+		for (int p = 0; p < 2; p++) {
+			LatencyHistogram h = latencies.get(p);
+			log.info("{} capacity {}: limit {}, throughput {} calls/sec, client latency p50 {} ms, p99 {} ms", name, p == 0 ? 20 : 5,
+					limits.get(p), h.count() / 2, TimeUnit.NANOSECONDS.toMillis(h.percentile(50)), TimeUnit.NANOSECONDS.toMillis(h.percentile(99)));
+		}
+	}
+
+	/**
+	 * Serves `capacity` calls in parallel in 10 ms each, the calls past the capacity make everybody slower.
+	 */
+	static class Backend {
+		volatile int capacity;
+		final AtomicInteger inflight = new AtomicInteger();
+
+		Backend(int capacity) {
+			this.capacity = capacity;
+		}
+
+		void call() throws InterruptedException {
+			int n = inflight.incrementAndGet();
+			try {
+				TimeUnit.MICROSECONDS.sleep(10_000L * Math.max(1, n) / Math.min(n, capacity));
+			} finally {
+				inflight.decrementAndGet();
+			}
+		}
+	}
+}
@@ -20,7 +20,8 @@ public class CacheWithReadWriteLock {
     // * HashMap is not thread-safe, so concurrent access from several threads will cause a race condition.
     // * race condition can be prevented by managing the cache access via read/write locks
     
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
+    // profiled, so that we can see how long the producers wait for the read and the write lock
+    private ReadWriteLock lock = new InstrumentedReadWriteLock("CacheWithReadWriteLock", new ReentrantReadWriteLock());
     private Lock readLock = lock.readLock();
     private Lock writeLock = lock.writeLock();
 
@@ -60,6 +61,7 @@ public class CacheWithReadWriteLock {
             Thread.sleep(1000);
             log.info("cache size: {}", cache.size());
         }
+        log.info("Lock profile:{}{}", System.lineSeparator(), LockProfiler.hottestLocks(2));
 
     }
     
@@ -71,11 +71,8 @@ public class CyclicBarrierTasks {
 		@Override
 		public String call() throws Exception {
 			log.info("===> {} - starting report generation", title);
-			Random r = new Random();
-			long sleepMs = r.nextInt(CyclicBarrierTasks.SLEEP_SECONDS_MAX)*1000 + 100;
-			log.info("     {} generation will take: {} ms", title, sleepMs);
-			Thread.sleep(sleepMs);
-			log.info("     {} just completed (generation time {} ms), waiting on others to complete", title, sleepMs);
+			long generationMs = generate();
+			log.info("     {} just completed (generation time {} ms), waiting on others to complete", title, generationMs);
 			
 			// Wait until all reporters have invoked await on this barrier - signaling they've generated their reports
 			int arrivalIndex = barrier.await(CyclicBarrierTasks.BARRIER_TIMEOUT, TimeUnit.SECONDS);
@@ -88,6 +85,18 @@ public class CyclicBarrierTasks {
 			// ...
 			return title + " generated, emailed all ok";
 		}
+
+		/**
+		 * Generates the report, here it only takes a random time (see EodReportEngine for a real aggregation).
+		 * @return the generation time in ms
+		 */
+		protected long generate() throws Exception {
+			Random r = new Random();
+			long sleepMs = r.nextInt(CyclicBarrierTasks.SLEEP_SECONDS_MAX)*1000 + 100;
+			log.info("     {} generation will take: {} ms", title, sleepMs);
+			Thread.sleep(sleepMs);
+			return sleepMs;
+		}
 		
 	}
 }
@@ -0,0 +1,262 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import ca.skylinedata.javatips.async.TimingWheel;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One-shot barrier that opens when all its named parties arrived, or at the deadline with whoever arrived by then:
+ * in CyclicBarrierExceptionHandling one late EodReport breaks the barrier and every other report fails with a BrokenBarrierException,
+ * here the EOD goes ahead at the cutoff with the completed reports, and the barrier action gets the completed and the missing ones,
+ * e.g. to cancel the stragglers or send them to a catch-up run. The EOD latency is bounded by the deadline, not by the slowest report.
+ *
+ * The action runs once, before the waiting threads are released: on the thread of the last arrival, or on a pool thread at the deadline
+ * (the deadline is armed on the shared TimingWheel, whose timer thread must not run long tasks). Arrivals after the opening are rejected.
+ */
+@Slf4j
+public class DeadlineBarrier {
+
+	private static final int SLEEP_SECONDS_MAX = 20; // some reports will miss the cutoff, run it a few times to see different scenarios
+	private static final int CUTOFF_SECONDS = 13;
+	private static final int CATCH_UP_CUTOFF_SECONDS = 25;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition opened = lock.newCondition();
+	private final Set<String> pending; // guarded by lock
+	private final Set<String> completed = new LinkedHashSet<>(); // guarded by lock
+	private final BiConsumer<Set<String>, Set<String>> action;
+	private final TimingWheel.Timeout deadline;
+	private boolean closed; // guarded by lock, no more arrivals
+	private Outcome outcome; // guarded by lock, set once the action has run
+
+	/**
+	 * @param action gets the parties that arrived in time (in arrival order) and the missing ones
+	 */
+	public DeadlineBarrier(Collection<String> parties, long timeout, TimeUnit unit, BiConsumer<Set<String>, Set<String>> action) {
+		if (parties.isEmpty()) {
+			throw new IllegalArgumentException("a barrier needs parties");
+		}
+		this.pending = new LinkedHashSet<>(parties);
+		this.action = action;
+		this.deadline = TimingWheel.shared().schedule(() -> CompletableFuture.runAsync(this::openAtDeadline).whenComplete((v, e) -> {
+			if (e != null) {
+				log.error("Barrier action failed at the deadline", e);
+			}
+		}), timeout, unit);
+	}
+
+	/**
+	 * @return true if the party made it before the barrier opened, false if it's late
+	 * @throws IllegalArgumentException if the party isn't one of the barrier's or already arrived
+	 */
+	public boolean arrive(String party) {
+		Outcome o;
+		lock.lock();
+		try {
+			if (closed) {
+				return false;
+			}
+			if (!pending.remove(party)) {
+				throw new IllegalArgumentException("Not a pending party of the barrier: " + party);
+			}
+			completed.add(party);
+			if (!pending.isEmpty()) {
+				return true;
+			}
+			// the last one to arrive opens the barrier, decided under the lock so that a deadline firing now finds it closed
+			o = close(false);
+		} finally {
+			lock.unlock();
+		}
+		deadline.cancel();
+		runAction(o);
+		return true;
+	}
+
+	public Outcome awaitOpen() throws InterruptedException {
+		lock.lock();
+		try {
+			while (outcome == null) {
+				opened.await();
+			}
+			return outcome;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return null if the barrier didn't open within the timeout
+	 */
+	public Outcome awaitOpen(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (outcome == null) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = opened.awaitNanos(nanos);
+			}
+			return outcome;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isOpen() {
+		lock.lock();
+		try {
+			return outcome != null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void openAtDeadline() {
+		Outcome o;
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			o = close(true);
+		} finally {
+			lock.unlock();
+		}
+		runAction(o);
+	}
+
+	// with the lock held
+	private Outcome close(boolean deadlineReached) {
+		closed = true;
+		return new Outcome(Collections.unmodifiableSet(new LinkedHashSet<>(completed)), Collections.unmodifiableSet(new LinkedHashSet<>(pending)),
+				deadlineReached);
+	}
+
+	private void runAction(Outcome o) {
+		try {
+			action.accept(o.completed, o.missing);
+		} finally {
+			lock.lock();
+			try {
+				outcome = o;
+				opened.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	public static class Outcome {
+
+		private final Set<String> completed;
+		private final Set<String> missing;
+		private final boolean deadlineReached;
+
+		Outcome(Set<String> completed, Set<String> missing, boolean deadlineReached) {
+			this.completed = completed;
+			this.missing = missing;
+			this.deadlineReached = deadlineReached;
+		}
+
+		public Set<String> getCompleted() {
+			return completed;
+		}
+
+		public Set<String> getMissing() {
+			return missing;
+		}
+
+		public boolean isDeadlineReached() {
+			return deadlineReached;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		log.info("Starting DeadlineBarrier demo, as a set of EOD reports to email at the {} sec cutoff with whatever is ready by then", CUTOFF_SECONDS);
+		log.info("Reports still running at the cutoff are cancelled and rerun in a catch-up run with a {} sec cutoff", CATCH_UP_CUTOFF_SECONDS);
+
+		List<String> titles = IntStream.range(0, 6).mapToObj(i -> "Daily Transactions Report #" + i).collect(Collectors.toList());
+		ExecutorService executorService = Executors.newFixedThreadPool(titles.size());
+		ExecutorService catchUpService = Executors.newFixedThreadPool(titles.size());
+		Map<String, Future<String>> running = new ConcurrentHashMap<>();
+		CountDownLatch catchUpDone = new CountDownLatch(1);
+
+		DeadlineBarrier eod = new DeadlineBarrier(titles, CUTOFF_SECONDS, TimeUnit.SECONDS, (completed, missing) -> {
+			log.info("<=== Cutoff! emailing {} completed reports: {} ===>", completed.size(), completed);
+			if (missing.isEmpty()) {
+				catchUpDone.countDown();
+				return;
+			}
+			log.warn("<=== {} reports missed the cutoff, cancelling them and starting the catch-up run: {} ===>", missing.size(), missing);
+			DeadlineBarrier catchUp = new DeadlineBarrier(missing, CATCH_UP_CUTOFF_SECONDS, TimeUnit.SECONDS, (caughtUp, stillMissing) -> {
+				log.info("<=== Catch-up cutoff! emailing {} reports: {}, still missing (escalate to operations): {} ===>",
+						caughtUp.size(), caughtUp, stillMissing);
+				catchUpDone.countDown();
+			});
+			for (String title : missing) {
+				running.get(title).cancel(true);
+				catchUpService.submit(new EodReport(catchUp, title));
+			}
+		});
+		for (String title : titles) {
+			running.put(title, executorService.submit(new EodReport(eod, title)));
+		}
+		Outcome outcome = eod.awaitOpen();
+		log.info("EOD closed {}, {} reports emailed, {} sent to the catch-up run", outcome.isDeadlineReached() ? "at the cutoff" : "early",
+				outcome.getCompleted().size(), outcome.getMissing().size());
+		catchUpDone.await();
+		executorService.shutdownNow();
+		catchUpService.shutdownNow();
+	}
+
+	public static class EodReport implements Callable<String> {
+
+		private final DeadlineBarrier barrier;
+		private final String title;
+
+		public EodReport(DeadlineBarrier barrier, String title) {
+			this.barrier = barrier;
+			this.title = title;
+		}
+
+		@Override
+		public String call() throws Exception {
+			long sleepMs = new Random().nextInt(SLEEP_SECONDS_MAX) * 1000 + 100;
+			log.info("===> {} - starting report generation, will take: {} ms", title, sleepMs);
+			try {
+				Thread.sleep(sleepMs);
+			} catch (InterruptedException e) {
+				log.info("     {} cancelled", title);
+				throw e;
+			}
+			if (barrier.arrive(title)) {
+				log.info("     {} just completed (generation time {} ms)", title, sleepMs);
+				return title + " generated in time";
+			}
+			log.info("     {} completed after the cutoff (generation time {} ms)", title, sleepMs);
+			return title + " generated too late";
+		}
+	}
+}
@@ -0,0 +1,311 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * EOD report engine: a day of transactions (millions of rows) is aggregated per account - count, sum, min and max of the amounts -
+ * by RecursiveTasks on a ForkJoinPool. Each task splits its rows in halves until a chunk is small enough,
+ * aggregates the chunk into primitive arrays indexed by account (no boxing, no maps), and the halves are merged on the way back up.
+ *
+ * The demo compares the sequential aggregation with the fork/join one on 1..N cores,
+ * then generates several reports in parallel and emails them together through the CyclicBarrier of CyclicBarrierTasks.
+ */
+@Slf4j
+public class EodReportEngine {
+
+	private static final int ACCOUNTS = 10_000;
+	private static final int ROWS = 8_000_000;
+	private static final Path OUTPUT_DIR = Paths.get("target", "eod-reports");
+
+	private EodReportEngine() {
+	}
+
+	public static AccountTotals aggregate(ForkJoinPool pool, Transactions transactions) {
+		// a few chunks per worker, so that a worker finishing early can steal, but not so many that merging the arrays dominates
+		int threshold = Math.max(50_000, transactions.size() / (pool.getParallelism() * 8));
+		return aggregate(pool, transactions, threshold);
+	}
+
+	/**
+	 * @param threshold the rows a task aggregates itself rather than splitting them in halves
+	 */
+	public static AccountTotals aggregate(ForkJoinPool pool, Transactions transactions, int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("threshold must be positive: " + threshold);
+		}
+		return pool.invoke(new AggregateTask(transactions, 0, transactions.size(), threshold));
+	}
+
+	public static AccountTotals aggregateSequentially(Transactions transactions) {
+		return AccountTotals.of(transactions, 0, transactions.size());
+	}
+
+	public static void main(String[] args) throws IOException {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		log.info("Aggregating {} transactions over {} accounts, on up to {} cores", String.format("%,d", ROWS), ACCOUNTS, cpus);
+		Transactions day = Transactions.random(ROWS, ACCOUNTS, 42);
+
+		AccountTotals expected = aggregateSequentially(day);
+		long sequentialNanos = bestOf(3, () -> aggregateSequentially(day));
+		log.info("    sequential:        {} ms", TimeUnit.NANOSECONDS.toMillis(sequentialNanos));
+		// 1, 2, 4 ... and all the cores
+		List<Integer> coreCounts = new ArrayList<>();
+		for (int n = 1; n < cpus; n *= 2) {
+			coreCounts.add(n);
+		}
+		coreCounts.add(cpus);
+		for (int parallelism : coreCounts) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				if (!aggregate(pool, day).sameAs(expected)) {
+					throw new IllegalStateException("fork/join totals differ from the sequential ones");
+				}
+				long nanos = bestOf(3, () -> aggregate(pool, day));
+				log.info("    fork/join {} cores: {} ms, speedup {}x", String.format("%2d", parallelism), TimeUnit.NANOSECONDS.toMillis(nanos),
+						String.format("%.2f", (double) sequentialNanos / nanos));
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		log.info("Starting EOD: 3 aggregated reports, emailed together when all of them are written to {}", OUTPUT_DIR);
+		Files.createDirectories(OUTPUT_DIR);
+		int reporters = 3;
+		CyclicBarrier barrier = new CyclicBarrier(reporters, () -> log.info("<=== Barrier opening! ===>"));
+		ExecutorService executorService = Executors.newFixedThreadPool(reporters);
+		List<Future<String>> futures = new ArrayList<>();
+		try {
+			for (int i = 0; i < reporters; i++) {
+				futures.add(executorService.submit(new AggregatedReport(barrier, "Daily Transactions Report #" + i,
+						Transactions.random(ROWS / reporters, ACCOUNTS, i), OUTPUT_DIR.resolve("daily-transactions-" + i + ".csv"))));
+			}
+			futures.forEach(ff -> {
+				try {
+					log.info("* Callable returned: {}", ff.get());
+				} catch (InterruptedException | ExecutionException e) {
+					log.error("Exception while getting future result for " + ff.hashCode() + ":", e);
+				}
+			});
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	private static long bestOf(int runs, Runnable aggregation) {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			aggregation.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+	/**
+	 * The EodReport of CyclicBarrierTasks, generating its report with the fork/join engine (on the common pool) instead of sleeping.
+	 */
+	public static class AggregatedReport extends CyclicBarrierTasks.EodReport {
+
+		private final String title;
+		private final Transactions transactions;
+		private final Path output;
+
+		public AggregatedReport(CyclicBarrier barrier, String title, Transactions transactions, Path output) {
+			super(barrier, title);
+			this.title = title;
+			this.transactions = transactions;
+			this.output = output;
+		}
+
+		@Override
+		protected long generate() throws IOException {
+			long start = System.nanoTime();
+			AccountTotals totals = aggregate(ForkJoinPool.commonPool(), transactions);
+			totals.writeCsv(output);
+			log.info("     {} aggregated {} transactions into {}", title, String.format("%,d", transactions.size()), output);
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		}
+	}
+
+	static class AggregateTask extends RecursiveTask<AccountTotals> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Transactions transactions;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		AggregateTask(Transactions transactions, int from, int to, int threshold) {
+			this.transactions = transactions;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected AccountTotals compute() {
+			if (to - from <= threshold) {
+				return AccountTotals.of(transactions, from, to);
+			}
+			int mid = (from + to) >>> 1;
+			AggregateTask left = new AggregateTask(transactions, from, mid, threshold);
+			left.fork();
+			// the right half runs on this thread, the left one is there for others to steal
+			AccountTotals right = new AggregateTask(transactions, mid, to, threshold).compute();
+			return right.merge(left.join());
+		}
+	}
+
+	/**
+	 * Transactions stored column by column: the account and the amount (in cents) of row i are accounts[i] and amounts[i].
+	 */
+	public static class Transactions {
+
+		private final int[] accounts;
+		private final long[] amounts;
+		private final int accountCount;
+
+		public Transactions(int[] accounts, long[] amounts, int accountCount) {
+			if (accounts.length != amounts.length) {
+				throw new IllegalArgumentException("accounts and amounts must have the same length");
+			}
+			// checked here rather than failing with an ArrayIndexOutOfBoundsException in a fork/join leaf
+			for (int i = 0; i < accounts.length; i++) {
+				if (accounts[i] < 0 || accounts[i] >= accountCount) {
+					throw new IllegalArgumentException("row " + i + ": account " + accounts[i] + " not in [0, " + accountCount + ")");
+				}
+			}
+			this.accounts = accounts;
+			this.amounts = amounts;
+			this.accountCount = accountCount;
+		}
+
+		/**
+		 * Amounts between -1000.00 and 1000.00, the first accounts being the busiest ones.
+		 */
+		public static Transactions random(int rows, int accountCount, long seed) {
+			Random random = new Random(seed);
+			int[] accounts = new int[rows];
+			long[] amounts = new long[rows];
+			for (int i = 0; i < rows; i++) {
+				double u = random.nextDouble();
+				accounts[i] = (int) (u * u * accountCount);
+				amounts[i] = random.nextInt(200_001) - 100_000;
+			}
+			return new Transactions(accounts, amounts, accountCount);
+		}
+
+		public int size() {
+			return accounts.length;
+		}
+
+		public int getAccountCount() {
+			return accountCount;
+		}
+	}
+
+	/**
+	 * Per-account aggregates, indexed by account.
+	 */
+	public static class AccountTotals {
+
+		private final long[] counts;
+		private final long[] sums;
+		private final long[] mins;
+		private final long[] maxs;
+
+		AccountTotals(int accountCount) {
+			counts = new long[accountCount];
+			sums = new long[accountCount];
+			mins = new long[accountCount];
+			maxs = new long[accountCount];
+			Arrays.fill(mins, Long.MAX_VALUE);
+			Arrays.fill(maxs, Long.MIN_VALUE);
+		}
+
+		static AccountTotals of(Transactions transactions, int from, int to) {
+			AccountTotals totals = new AccountTotals(transactions.accountCount);
+			int[] accounts = transactions.accounts;
+			long[] amounts = transactions.amounts;
+			for (int i = from; i < to; i++) {
+				int a = accounts[i];
+				long amount = amounts[i];
+				totals.counts[a]++;
+				totals.sums[a] += amount;
+				if (amount < totals.mins[a]) {
+					totals.mins[a] = amount;
+				}
+				if (amount > totals.maxs[a]) {
+					totals.maxs[a] = amount;
+				}
+			}
+			return totals;
+		}
+
+		AccountTotals merge(AccountTotals other) {
+			for (int a = 0; a < counts.length; a++) {
+				counts[a] += other.counts[a];
+				sums[a] += other.sums[a];
+				mins[a] = Math.min(mins[a], other.mins[a]);
+				maxs[a] = Math.max(maxs[a], other.maxs[a]);
+			}
+			return this;
+		}
+
+		public long count(int account) {
+			return counts[account];
+		}
+
+		public long sum(int account) {
+			return sums[account];
+		}
+
+		public long min(int account) {
+			return mins[account];
+		}
+
+		public long max(int account) {
+			return maxs[account];
+		}
+
+		public boolean sameAs(AccountTotals other) {
+			return Arrays.equals(counts, other.counts) && Arrays.equals(sums, other.sums)
+					&& Arrays.equals(mins, other.mins) && Arrays.equals(maxs, other.maxs);
+		}
+
+		/**
+		 * One line per account with transactions: account,count,sum,min,max (the amounts in cents).
+		 */
+		public void writeCsv(Path file) throws IOException {
+			try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+				writer.write("account,count,sum,min,max");
+				writer.newLine();
+				for (int a = 0; a < counts.length; a++) {
+					if (counts[a] > 0) {
+						writer.write(a + "," + counts[a] + "," + sums[a] + "," + mins[a] + "," + maxs[a]);
+						writer.newLine();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock decorator that records, per lock name, how long threads waited for the lock, how long they held it,
+ * how many acquisitions were contended and how many tryLock calls failed (see {@link LockProfiler}).
+ *
+ * Contention is detected with a tryLock() probe before blocking. A probe would let the thread barge ahead of the queue of a fair lock,
+ * so for fair locks an acquisition counts as contended when it had to wait longer than it takes to park and unpark a thread.
+ * Hold time is measured from the outermost acquisition to the matching unlock, minus the time spent in Condition.await().
+ */
+public class InstrumentedLock implements Lock {
+
+	static final long FAIR_CONTENDED_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+	private final Lock delegate;
+	private final boolean fair;
+	private final LockProfiler.LockStats stats;
+	// a read lock is held by several threads at once, so the hold bookkeeping is per thread
+	private final ThreadLocal<Hold> hold = ThreadLocal.withInitial(Hold::new);
+
+	public InstrumentedLock(String name, ReentrantLock delegate) {
+		this(name, delegate, delegate.isFair());
+	}
+
+	public InstrumentedLock(String name, Lock delegate, boolean fair) {
+		this.delegate = delegate;
+		this.fair = fair;
+		this.stats = LockProfiler.statsFor(name);
+	}
+
+	public LockProfiler.LockStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public void lock() {
+		long start = System.nanoTime();
+		if (!fair && delegate.tryLock()) {
+			acquired(start, false);
+			return;
+		}
+		delegate.lock();
+		acquired(start, true);
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		long start = System.nanoTime();
+		if (!fair && delegate.tryLock()) {
+			acquired(start, false);
+			return;
+		}
+		delegate.lockInterruptibly();
+		acquired(start, true);
+	}
+
+	@Override
+	public boolean tryLock() {
+		long start = System.nanoTime();
+		if (delegate.tryLock()) {
+			acquired(start, false);
+			return true;
+		}
+		stats.tryLockFailed();
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		long start = System.nanoTime();
+		if (!fair && delegate.tryLock()) {
+			acquired(start, false);
+			return true;
+		}
+		if (delegate.tryLock(time, unit)) {
+			acquired(start, true);
+			return true;
+		}
+		stats.tryLockFailed();
+		return false;
+	}
+
+	@Override
+	public void unlock() {
+		Hold h = hold.get();
+		if (h.depth == 1) {
+			stats.released(System.nanoTime() - h.acquiredAt);
+		}
+		if (h.depth > 0) {
+			h.depth--;
+		}
+		delegate.unlock();
+	}
+
+	@Override
+	public Condition newCondition() {
+		return new InstrumentedCondition(delegate.newCondition());
+	}
+
+	private void acquired(long start, boolean blocked) {
+		long now = System.nanoTime();
+		long waited = now - start;
+		Hold h = hold.get();
+		if (h.depth++ == 0) {
+			h.acquiredAt = now;
+			stats.acquired(waited, blocked && (!fair || waited >= FAIR_CONTENDED_NANOS));
+		}
+	}
+
+	private static class Hold {
+		int depth;
+		long acquiredAt;
+	}
+
+	/**
+	 * await() releases the lock while waiting, that time is not counted as hold time.
+	 */
+	private class InstrumentedCondition implements Condition {
+
+		private final Condition delegate;
+
+		InstrumentedCondition(Condition delegate) {
+			this.delegate = delegate;
+		}
+
+		private Hold beforeAwait() {
+			Hold h = hold.get();
+			stats.released(System.nanoTime() - h.acquiredAt);
+			return h;
+		}
+
+		private void afterAwait(Hold h) {
+			h.acquiredAt = System.nanoTime();
+		}
+
+		@Override
+		public void await() throws InterruptedException {
+			Hold h = beforeAwait();
+			try {
+				delegate.await();
+			} finally {
+				afterAwait(h);
+			}
+		}
+
+		@Override
+		public void awaitUninterruptibly() {
+			Hold h = beforeAwait();
+			try {
+				delegate.awaitUninterruptibly();
+			} finally {
+				afterAwait(h);
+			}
+		}
+
+		@Override
+		public long awaitNanos(long nanosTimeout) throws InterruptedException {
+			Hold h = beforeAwait();
+			try {
+				return delegate.awaitNanos(nanosTimeout);
+			} finally {
+				afterAwait(h);
+			}
+		}
+
+		@Override
+		public boolean await(long time, TimeUnit unit) throws InterruptedException {
+			Hold h = beforeAwait();
+			try {
+				return delegate.await(time, unit);
+			} finally {
+				afterAwait(h);
+			}
+		}
+
+		@Override
+		public boolean awaitUntil(Date deadline) throws InterruptedException {
+			Hold h = beforeAwait();
+			try {
+				return delegate.awaitUntil(deadline);
+			} finally {
+				afterAwait(h);
+			}
+		}
+
+		@Override
+		public void signal() {
+			delegate.signal();
+		}
+
+		@Override
+		public void signalAll() {
+			delegate.signalAll();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ReadWriteLock decorator: the read and the write lock get profiled separately, as "name.read" and "name.write".
+ */
+public class InstrumentedReadWriteLock implements ReadWriteLock {
+
+	private final InstrumentedLock readLock;
+	private final InstrumentedLock writeLock;
+
+	public InstrumentedReadWriteLock(String name, ReentrantReadWriteLock delegate) {
+		this(name, delegate, delegate.isFair());
+	}
+
+	public InstrumentedReadWriteLock(String name, ReadWriteLock delegate, boolean fair) {
+		this.readLock = new InstrumentedLock(name + ".read", delegate.readLock(), fair);
+		this.writeLock = new InstrumentedLock(name + ".write", delegate.writeLock(), fair);
+	}
+
+	@Override
+	public Lock readLock() {
+		return readLock;
+	}
+
+	@Override
+	public Lock writeLock() {
+		return writeLock;
+	}
+}
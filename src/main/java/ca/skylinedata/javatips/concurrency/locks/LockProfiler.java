@@ -0,0 +1,134 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import ca.skylinedata.javatips.concurrency.basics.LatencyHistogram;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Registry of the per-lock statistics collected by {@link InstrumentedLock}: locks with the same name share their statistics.
+ * Acquisitions that waited longer than the JFR threshold are also emitted as "ca.skylinedata.javatips.LockAcquisition" JFR events,
+ * e.g. java -XX:StartFlightRecording=filename=locks.jfr ... and then jfr print --events ca.skylinedata.javatips.LockAcquisition locks.jfr
+ */
+public class LockProfiler {
+
+	private static final Map<String, LockStats> STATS = new ConcurrentHashMap<>();
+	private static volatile long jfrThresholdNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private LockProfiler() {
+	}
+
+	public static LockStats statsFor(String lockName) {
+		return STATS.computeIfAbsent(lockName, LockStats::new);
+	}
+
+	public static void setJfrThreshold(long threshold, TimeUnit unit) {
+		jfrThresholdNanos = unit.toNanos(threshold);
+	}
+
+	/**
+	 * The top N locks by the total time threads spent waiting for them, one line per lock.
+	 */
+	public static String hottestLocks(int topN) {
+		return STATS.values().stream()
+				.sorted(Comparator.comparingLong((LockStats s) -> s.waitTimes.total()).reversed())
+				.limit(topN)
+				.map(LockStats::toString)
+				.collect(Collectors.joining(System.lineSeparator()));
+	}
+
+	public static void reset() {
+		STATS.clear();
+	}
+
+	public static class LockStats {
+
+		private final String name;
+		final LatencyHistogram waitTimes = new LatencyHistogram();
+		final LatencyHistogram holdTimes = new LatencyHistogram();
+		final LongAdder contended = new LongAdder();
+		final LongAdder tryLockFailures = new LongAdder();
+
+		LockStats(String name) {
+			this.name = name;
+		}
+
+		void acquired(long waitNanos, boolean wasContended) {
+			waitTimes.record(waitNanos);
+			if (wasContended) {
+				contended.increment();
+			}
+			if (waitNanos >= jfrThresholdNanos) {
+				LockAcquisitionEvent event = new LockAcquisitionEvent();
+				if (event.isEnabled()) {
+					event.lockName = name;
+					event.waitTime = waitNanos;
+					event.contended = wasContended;
+					event.commit();
+				}
+			}
+		}
+
+		void released(long holdNanos) {
+			holdTimes.record(holdNanos);
+		}
+
+		void tryLockFailed() {
+			tryLockFailures.increment();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public LatencyHistogram getWaitTimes() {
+			return waitTimes;
+		}
+
+		public LatencyHistogram getHoldTimes() {
+			return holdTimes;
+		}
+
+		public long getContended() {
+			return contended.sum();
+		}
+
+		public long getTryLockFailures() {
+			return tryLockFailures.sum();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d acquisitions, %d contended, %d tryLock failures, total wait %d ms%n    wait: %s%n    hold: %s",
+					name, waitTimes.count(), getContended(), getTryLockFailures(), TimeUnit.NANOSECONDS.toMillis(waitTimes.total()),
+					waitTimes.summaryMicros(), holdTimes.summaryMicros());
+		}
+	}
+
+	@Name("ca.skylinedata.javatips.LockAcquisition")
+	@Label("Lock Acquisition")
+	@Category({ "Java Tips", "Locks" })
+	@Description("A lock acquisition that waited longer than the LockProfiler threshold")
+	static class LockAcquisitionEvent extends Event {
+
+		@Label("Lock Name")
+		String lockName;
+
+		@Label("Wait Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long waitTime;
+
+		@Label("Contended")
+		boolean contended;
+	}
+}
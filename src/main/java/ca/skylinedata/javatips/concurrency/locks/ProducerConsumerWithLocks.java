@@ -10,6 +10,9 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import ca.skylinedata.javatips.concurrency.basics.InstrumentedExecutors;
+import ca.skylinedata.javatips.concurrency.basics.TaskScope;
+
 @Slf4j
 public class ProducerConsumerWithLocks {
 	
@@ -39,19 +42,16 @@ public class ProducerConsumerWithLocks {
         autoIndustry.addAll(carAssemblyLines);
         autoIndustry.addAll(dealerships);
 
-        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        ExecutorService executorService = InstrumentedExecutors.newFixedThreadPool("auto-industry", 8);
 
         // VALIDATION: the number of cars assembled and sold should be the same!
-        try {
-            List<Future<String>> futures = executorService.invokeAll(autoIndustry);
-            futures.forEach(f -> {
-                try {
-                    log.info("Done, callable result = " + f.get());
-                } catch (InterruptedException | ExecutionException e) {
-                    log.error("", e);
-                }
-            });
-        } catch (InterruptedException e) {
+        // the results in completion order; a failed assembly line or dealership cancels the others instead of leaving them blocked
+        try (TaskScope<String> scope = new TaskScope<>(executorService, 30, TimeUnit.SECONDS)) {
+            autoIndustry.forEach(scope::fork);
+            while (scope.remaining() > 0) {
+                log.info("Done, callable result = " + scope.take());
+            }
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
             log.error("", e);
         } finally {
             executorService.shutdown();
@@ -153,6 +153,7 @@ public class ProducerConsumerWithLocks {
     }
     
     static void sleep(int ms) {
-    	try { Thread.sleep(ms); } catch (InterruptedException e) { e.printStackTrace(); }
+    	// keeps the interrupt of a cancelled task, so that it stops at its next await()
+    	try { Thread.sleep(ms); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
     }
 }
@@ -6,6 +6,7 @@ import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
@@ -29,18 +30,21 @@ public class ReentrantLockDemo {
         }
         */
 
+        // the runners lock through a profiling decorator, which records how long they waited for the lock and held it
+        Lock profiledLock = new InstrumentedLock("ReentrantLockDemo.lock", lock);
+
         ExecutorService executor = Executors.newFixedThreadPool(9);
-        executor.execute(new TryLockRunner(lock, "Runner-1"));
-        executor.execute(new TryLockRunner(lock, "Runner-2"));
-        executor.execute(new TryLockRunner(lock, "Runner-3"));
-        executor.execute(new TryLockRunner(lock, "Runner-4"));
-        executor.execute(new TryLockRunner(lock, "Runner-5"));
+        executor.execute(new TryLockRunner(lock, profiledLock, "Runner-1"));
+        executor.execute(new TryLockRunner(lock, profiledLock, "Runner-2"));
+        executor.execute(new TryLockRunner(lock, profiledLock, "Runner-3"));
+        executor.execute(new TryLockRunner(lock, profiledLock, "Runner-4"));
+        executor.execute(new TryLockRunner(lock, profiledLock, "Runner-5"));
         
         // separate group of threads will use lock.lock() call and work with ReentrantLockDemo.sharedCounter
-        executor.execute(new LockRunner(lock, "Incrementer-1"));
-        executor.execute(new LockRunner(lock, "Incrementer-2"));
-        executor.execute(new LockRunner(lock, "Decrementer-3"));
-        executor.execute(new LockRunner(lock, "Decrementer-4"));
+        executor.execute(new LockRunner(lock, profiledLock, "Incrementer-1"));
+        executor.execute(new LockRunner(lock, profiledLock, "Incrementer-2"));
+        executor.execute(new LockRunner(lock, profiledLock, "Decrementer-3"));
+        executor.execute(new LockRunner(lock, profiledLock, "Decrementer-4"));
         executor.shutdown();
         
         try {
@@ -50,6 +54,7 @@ public class ReentrantLockDemo {
 		}
         
         log.info("ReentrantLockDemo.sharedCounter was safely incremented and decremented by 4 threads, it should remain zero: {}", ReentrantLockDemo.sharedCounter);
+        log.info("Lock profile:{}{}", System.lineSeparator(), LockProfiler.hottestLocks(5));
 
     }
 
@@ -64,10 +69,16 @@ public class ReentrantLockDemo {
     public static class TryLockRunner implements Runnable {
     	
     	private ReentrantLock lock;
+    	private Lock guard; // what we lock and unlock through, the lock itself or a decorator of it
     	private String name;
     	
     	public TryLockRunner (ReentrantLock lock, String name) {
+    		this(lock, lock, name);
+    	}
+    	
+    	public TryLockRunner (ReentrantLock lock, Lock guard, String name) {
     		this.lock = lock;
+    		this.guard = guard;
     		this.name = name;
     	}
     	
@@ -79,11 +90,11 @@ public class ReentrantLockDemo {
     		try {
     			ReentrantLockDemo.sleep(sleepMs);
 	    		log.info("{} woke up. Now will try acquiring the lock", name);
-	    		boolean gotLock = lock.tryLock(100, TimeUnit.MILLISECONDS);
+	    		boolean gotLock = guard.tryLock(100, TimeUnit.MILLISECONDS);
 	    		if (gotLock) {
 	    			log.info("===> {} got the lock. {}'s lock hold count= {}", name, name, lock.getHoldCount());
 	    			ReentrantLockDemo.sleep(sleepMs);
-	    			lock.unlock();
+	    			guard.unlock();
 	    			log.info("<=== {} released lock. {}'s lock hold count= {}", name, name, lock.getHoldCount());
 	    		} else {
 	    			log.info(" :-( {} - failed to get the lock. {}'s lock hold count= {}", name, name, lock.getHoldCount());
@@ -97,10 +108,16 @@ public class ReentrantLockDemo {
     public static class LockRunner implements Runnable {
     	
     	private ReentrantLock lock;
+    	private Lock guard; // what we lock and unlock through, the lock itself or a decorator of it
     	private String name;
     	
     	public LockRunner (ReentrantLock lock, String name) {
+    		this(lock, lock, name);
+    	}
+    	
+    	public LockRunner (ReentrantLock lock, Lock guard, String name) {
     		this.lock = lock;
+    		this.guard = guard;
     		this.name = name;
     	}
     	
@@ -113,12 +130,12 @@ public class ReentrantLockDemo {
     		log.info("{} woke up. Now will try acquiring the lock", name);
     		
     		try {
-	    		lock.lock();
+	    		guard.lock();
 	    		log.info("{} got the lock. {}'s lock hold count= {}", name, name, lock.getHoldCount());
 	    		// work with some shared resource
 	    		someThreadSafeWork(sleepMs); 
 			} finally {
-				lock.unlock();
+				guard.unlock();
     			log.info("{} released lock. {}'s lock hold count= {}", name, name, lock.getHoldCount());
 			}
     		
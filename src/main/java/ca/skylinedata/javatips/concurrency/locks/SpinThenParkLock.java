@@ -0,0 +1,257 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reentrant, non-fair lock that spins for a while before parking: when the lock is held for nanoseconds,
+ * it's cheaper to wait for the owner to release it than to pay for parking and unparking a thread (a context switch per handoff).
+ *
+ * The spin budget is learned from the hold times: a few times the average recent hold time (but at least a microsecond),
+ * capped at roughly the cost of a park/unpark.
+ * Locks held longer than the cap get no spinning at all, and neither do single-cpu machines, where the owner can't run while we spin.
+ */
+@Slf4j
+public class SpinThenParkLock implements Lock {
+
+	// past this, parking is cheaper than spinning
+	static final long MAX_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+	// a handoff takes a cache line transfer or two, even when the critical section is almost empty
+	static final long MIN_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	// spin for this many average hold times: the owner might have just acquired the lock
+	static final int SPIN_HOLD_MULTIPLIER = 4;
+	// measuring every hold would add two nanoTime() calls to a critical section that only takes a few nanos
+	static final int HOLD_SAMPLE_MASK = 15;
+	static final boolean MULTI_CPU = Runtime.getRuntime().availableProcessors() > 1;
+
+	static long sharedCounter;
+
+	private final Sync sync = new Sync();
+
+	// written by the owner thread only (while holding the lock), read by the spinning threads
+	private volatile long avgHoldNanos;
+	private int acquisitions;
+	private long sampledAcquiredAt;
+
+	public static void main(String[] args) {
+		// short critical section: a counter increment, as LockRunner.someThreadSafeWork does (minus the sleep and the logging)
+		// long critical section: about 50 us of work, past the spin cap
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		for (int work : new int[] { 0, 50_000 }) {
+			int cycles = work == 0 ? 2_000_000 : 20_000;
+			log.info("{} threads, {} critical sections, ns per lock/unlock:", threads, work == 0 ? "short" : "long");
+			log.info("    ReentrantLock unfair: {}", run(new ReentrantLock(false), threads, cycles, work));
+			log.info("    ReentrantLock fair:   {}", run(new ReentrantLock(true), threads, cycles, work));
+			SpinThenParkLock spinLock = new SpinThenParkLock();
+			log.info("    SpinThenParkLock:     {} (learned spin budget {} ns)", run(spinLock, threads, cycles, work), spinLock.spinBudgetNanos());
+		}
+	}
+
+	static long run(Lock lock, int threads, int cycles, long workNanos) {
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<>();
+		long start = System.nanoTime();
+		try {
+			for (int j = 0; j < threads; j++) {
+				futures.add(executorService.submit(() -> {
+					for (int i = cycles / threads; i > 0; i--) {
+						lock.lock();
+						try {
+							sharedCounter++;
+							if (workNanos > 0) {
+								long until = System.nanoTime() + workNanos;
+								while (System.nanoTime() < until) {
+									// busy work inside the critical section
+								}
+							}
+						} finally {
+							lock.unlock();
+						}
+					}
+				}));
+			}
+			futures.forEach(f -> {
+				try {
+					f.get();
+				} catch (InterruptedException | ExecutionException e) {
+					log.error("", e);
+				}
+			});
+			return (System.nanoTime() - start) / cycles;
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Override
+	public void lock() {
+		if (!sync.tryAcquire(1) && !spinAcquire(Long.MAX_VALUE)) {
+			sync.acquire(1);
+		}
+		acquired();
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		// as ReentrantLock does: an interrupted thread doesn't get the lock, even a free one
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		if (!sync.tryAcquire(1) && !spinAcquire(Long.MAX_VALUE)) {
+			sync.acquireInterruptibly(1);
+		}
+		acquired();
+	}
+
+	@Override
+	public boolean tryLock() {
+		if (sync.tryAcquire(1)) {
+			acquired();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		long nanos = unit.toNanos(time);
+		long deadline = System.nanoTime() + nanos;
+		// the time spent spinning counts against the timeout
+		if (sync.tryAcquire(1) || spinAcquire(nanos) || sync.tryAcquireNanos(1, deadline - System.nanoTime())) {
+			acquired();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void unlock() {
+		if (sync.isHeldExclusively() && sync.getHoldCount() == 1 && sampledAcquiredAt != 0) {
+			long hold = System.nanoTime() - sampledAcquiredAt;
+			sampledAcquiredAt = 0;
+			// exponentially weighted moving average, the last 8 or so samples matter
+			avgHoldNanos += (hold - avgHoldNanos) >> 3;
+		}
+		sync.release(1);
+	}
+
+	@Override
+	public Condition newCondition() {
+		return sync.newCondition();
+	}
+
+	public long spinBudgetNanos() {
+		if (!MULTI_CPU) {
+			return 0;
+		}
+		long budget = avgHoldNanos * SPIN_HOLD_MULTIPLIER;
+		return budget > MAX_SPIN_NANOS ? 0 : Math.max(budget, MIN_SPIN_NANOS);
+	}
+
+	public boolean isLocked() {
+		return sync.isLocked();
+	}
+
+	public boolean isHeldByCurrentThread() {
+		return sync.isHeldExclusively();
+	}
+
+	public int getHoldCount() {
+		return sync.getHoldCount();
+	}
+
+	/**
+	 * Spins for the learned budget, or for maxNanos if that's shorter.
+	 */
+	private boolean spinAcquire(long maxNanos) {
+		long budget = Math.min(spinBudgetNanos(), maxNanos);
+		if (budget <= 0) {
+			return false;
+		}
+		long deadline = System.nanoTime() + budget;
+		do {
+			// queued threads are waiting already, no point in spinning behind them
+			if (sync.hasQueuedThreads()) {
+				return false;
+			}
+			Thread.onSpinWait();
+			if (!sync.isLocked() && sync.tryAcquire(1)) {
+				return true;
+			}
+		} while (System.nanoTime() < deadline);
+		return false;
+	}
+
+	private void acquired() {
+		if (sync.getHoldCount() == 1 && (++acquisitions & HOLD_SAMPLE_MASK) == 0) {
+			sampledAcquiredAt = System.nanoTime();
+		}
+	}
+
+	private static final class Sync extends AbstractQueuedSynchronizer {
+
+		private static final long serialVersionUID = 1L;
+
+		// the same non-fair reentrant acquire as ReentrantLock: the state is the hold count
+		@Override
+		protected boolean tryAcquire(int acquires) {
+			Thread current = Thread.currentThread();
+			int c = getState();
+			if (c == 0) {
+				if (compareAndSetState(0, acquires)) {
+					setExclusiveOwnerThread(current);
+					return true;
+				}
+			} else if (current == getExclusiveOwnerThread()) {
+				setState(c + acquires);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		protected boolean tryRelease(int releases) {
+			if (Thread.currentThread() != getExclusiveOwnerThread()) {
+				throw new IllegalMonitorStateException();
+			}
+			int c = getState() - releases;
+			boolean free = c == 0;
+			if (free) {
+				setExclusiveOwnerThread(null);
+			}
+			setState(c);
+			return free;
+		}
+
+		@Override
+		protected boolean isHeldExclusively() {
+			return getExclusiveOwnerThread() == Thread.currentThread();
+		}
+
+		Condition newCondition() {
+			return new ConditionObject();
+		}
+
+		int getHoldCount() {
+			return isHeldExclusively() ? getState() : 0;
+		}
+
+		boolean isLocked() {
+			return getState() != 0;
+		}
+	}
+}
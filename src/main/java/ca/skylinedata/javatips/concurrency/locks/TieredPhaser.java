@@ -0,0 +1,215 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+import ca.skylinedata.javatips.concurrency.basics.PaddedAtomicLongArray;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A tree of Phasers for barriers with thousands of parties: CyclicBarrierTasks' single barrier makes every arrival contend on one lock,
+ * here the parties register with (and arrive at) the leaves, and only the last arrival at a leaf arrives at its parent, and so on up to the root.
+ * The leaves are picked by a hash of the registering thread, so a thread keeps arriving at the same leaf and threads rarely share one:
+ * the contention on a leaf is bounded by the threads that hash to it, not by the number of parties.
+ *
+ * Parties can join with register() and leave with arriveAndDeregister() on their leaf at any time, as with a plain Phaser.
+ * Like Phaser.register() on any tiered Phaser, registering with a leaf whose parties have all arrived waits for the phase to advance:
+ * a party that joins mid-phase from a thread that still has parties to arrive at the same leaf (e.g. a report replacing another one) never waits.
+ */
+@Slf4j
+public class TieredPhaser {
+
+	static final int DEFAULT_FAN_OUT = 8;
+
+	private final Phaser root;
+	private final Phaser[] leaves;
+
+	public TieredPhaser() {
+		this(PaddedAtomicLongArray.stripesFor(Runtime.getRuntime().availableProcessors()), DEFAULT_FAN_OUT, phase -> {});
+	}
+
+	/**
+	 * @param leafCount rounded up to a power of two
+	 * @param fanOut how many children each inner phaser has
+	 * @param onAdvance called by the last party to arrive, with the number of the phase that just completed
+	 */
+	public TieredPhaser(int leafCount, int fanOut, IntConsumer onAdvance) {
+		if (leafCount < 1 || fanOut < 2) {
+			throw new IllegalArgumentException("leafCount must be positive and fanOut at least 2: " + leafCount + ", " + fanOut);
+		}
+		int n = 1;
+		while (n < leafCount) {
+			n <<= 1;
+		}
+		root = new Phaser() {
+			@Override
+			protected boolean onAdvance(int phase, int registeredParties) {
+				onAdvance.accept(phase);
+				return registeredParties == 0;
+			}
+		};
+		// level sizes from the leaves up, e.g. 64 leaves with a fan-out of 8: 64, 8, 1
+		List<Integer> sizes = new ArrayList<>();
+		for (; n > 1; n = (n + fanOut - 1) / fanOut) {
+			sizes.add(n);
+		}
+		Phaser[] level = { root };
+		for (int i = sizes.size() - 1; i >= 0; i--) {
+			Phaser[] children = new Phaser[sizes.get(i)];
+			for (int j = 0; j < children.length; j++) {
+				// a child registers with its parent when it gets its first party and deregisters when it loses the last one
+				children[j] = new Phaser(level[j / fanOut]);
+			}
+			level = children;
+		}
+		leaves = level;
+	}
+
+	/**
+	 * Registers a party with the leaf of the current thread.
+	 * @return the leaf to arrive at (arrive(), arriveAndAwaitAdvance(), arriveAndDeregister())
+	 */
+	public Phaser register() {
+		Phaser leaf = leafOfCurrentThread();
+		leaf.register();
+		return leaf;
+	}
+
+	public Phaser bulkRegister(int parties) {
+		Phaser leaf = leafOfCurrentThread();
+		leaf.bulkRegister(parties);
+		return leaf;
+	}
+
+	public int getPhase() {
+		return root.getPhase();
+	}
+
+	/**
+	 * Waits for the phase to complete at the root, i.e. for every party of the tree to arrive.
+	 */
+	public int awaitAdvance(int phase) {
+		return root.awaitAdvance(phase);
+	}
+
+	public int awaitAdvanceInterruptibly(int phase, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		return root.awaitAdvanceInterruptibly(phase, timeout, unit);
+	}
+
+	public int getRegisteredParties() {
+		int parties = 0;
+		for (Phaser leaf : leaves) {
+			parties += leaf.getRegisteredParties();
+		}
+		return parties;
+	}
+
+	public int getLeafCount() {
+		return leaves.length;
+	}
+
+	public Phaser getRoot() {
+		return root;
+	}
+
+	public boolean isTerminated() {
+		return root.isTerminated();
+	}
+
+	public void forceTermination() {
+		root.forceTermination();
+	}
+
+	private Phaser leafOfCurrentThread() {
+		return leaves[PaddedAtomicLongArray.stripeOfCurrentThread(leaves.length)];
+	}
+
+	public static void main(String[] args) {
+		int parties = 10_000;
+		int phases = 200;
+		int threads = Math.max(8, Runtime.getRuntime().availableProcessors());
+		log.info("Starting Phaser demo: {} EOD reports on {} threads go through {} phases, every 10th phase a report per thread is replaced by a new one",
+				parties, threads, phases);
+
+		Phaser flat = new Phaser() {
+			@Override
+			protected boolean onAdvance(int phase, int registeredParties) {
+				return false;
+			}
+		};
+		run("Flat Phaser", parties, phases, threads, () -> {
+			flat.register();
+			return flat;
+		}, flat::awaitAdvance);
+
+		TieredPhaser tiered = new TieredPhaser(threads * 2, DEFAULT_FAN_OUT, phase -> {
+			if (phase % 50 == 49) {
+				log.info("<=== phase {} done by all the reports, let's email them all at the same time! ===>", phase);
+			}
+		});
+		log.info("TieredPhaser with {} leaves, fan-out {}", tiered.getLeafCount(), DEFAULT_FAN_OUT);
+		run("TieredPhaser", parties, phases, threads, tiered::register, tiered::awaitAdvance);
+		log.info("TieredPhaser still has {} registered parties", tiered.getRegisteredParties());
+	}
+
+	interface AwaitAdvance {
+		int awaitAdvance(int phase);
+	}
+
+	static void run(String name, int parties, int phases, int threads, Supplier<Phaser> register, AwaitAdvance awaitAdvance) {
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		CountDownLatch registered = new CountDownLatch(threads);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int share = parties / threads + (t < parties % threads ? 1 : 0);
+			futures.add(executorService.submit(() -> {
+				// each party is the Phaser it registered with, arrivals go there
+				List<Phaser> reports = new ArrayList<>();
+				for (int i = 0; i < share; i++) {
+					reports.add(register.get());
+				}
+				// nobody arrives before all the parties are registered, otherwise phase 0 would complete with the early ones only
+				registered.countDown();
+				registered.await();
+				for (int phase = 0; phase < phases; phase++) {
+					for (int i = 0; i < reports.size(); i++) {
+						if (i == 0 && phase % 10 == 9) {
+							// a new report joins before the old one leaves, the leaf still has our other reports to wait for
+							Phaser joined = register.get();
+							reports.get(0).arriveAndDeregister();
+							reports.set(0, joined);
+						}
+						reports.get(i).arrive();
+					}
+					awaitAdvance.awaitAdvance(phase);
+				}
+				return null;
+			}));
+		}
+		try {
+			registered.await();
+			long start = System.nanoTime();
+			for (Future<?> f : futures) {
+				f.get();
+			}
+			long elapsed = System.nanoTime() - start;
+			log.info("{}: {} phases of {} parties in {} ms, {} us per phase, {} arrivals/sec", name, phases, parties,
+					TimeUnit.NANOSECONDS.toMillis(elapsed), TimeUnit.NANOSECONDS.toMicros(elapsed / phases),
+					String.format("%,d", (long) parties * phases * 1_000_000_000L / elapsed));
+		} catch (InterruptedException | ExecutionException e) {
+			log.error("", e);
+		} finally {
+			executorService.shutdown();
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lock-free token-bucket rate limiter: SemaphoreTasks limits how many cars are in the lane at once, this limits how many go through per second.
+ *
+ * The bucket holds up to `burst` tokens and gains `permitsPerSecond` of them per second. There's no refill thread:
+ * the whole state is one long (the token count in the low 22 bits, the time of the last refill in microseconds in the high 42 bits),
+ * every acquisition computes the refill from the time elapsed and CASes the new state in.
+ * The timestamp wraps around every 50 days or so. Since another thread may have refilled with a more recent time than the one we read,
+ * a gap of up to the fill time behind us counts as no time at all, any other gap as time gone by: an idle period longer than the fill time
+ * refills the bucket however long it lasted, except within a fill time of a multiple of the wrap-around.
+ *
+ * Permits are weighted (a truck may take 3 tokens, a car 1) and are never given back. Blocking acquisitions park for the time
+ * the missing tokens take to refill and then compete again, so they are not served in arrival order.
+ */
+@Slf4j
+public class TokenBucket {
+
+	static final int TOKEN_BITS = 22;
+	static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+	static final int MAX_BURST = (int) TOKEN_MASK;
+	static final int TIME_BITS = 64 - TOKEN_BITS;
+	static final long TIME_MASK = (1L << TIME_BITS) - 1;
+	static final long MICROS_PER_SECOND = 1_000_000;
+
+	private final long permitsPerSecond;
+	private final int burst;
+	// the time an empty bucket takes to fill up, past that the elapsed time doesn't matter anymore
+	private final long fillMicros;
+	// a gap on the wrapping clock this close to a full turn is a time behind us, not one ahead
+	private final long maxSkewMicros;
+	private final LongSupplier nanoClock;
+	private final long startNanos;
+	private final AtomicLong state;
+
+	public TokenBucket(long permitsPerSecond, int burst) {
+		this(permitsPerSecond, burst, System::nanoTime);
+	}
+
+	/**
+	 * @param nanoClock System::nanoTime, or a clock a test can move forward
+	 */
+	public TokenBucket(long permitsPerSecond, int burst, LongSupplier nanoClock) {
+		if (permitsPerSecond < 1) {
+			throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+		}
+		if (burst < 1 || burst > MAX_BURST) {
+			throw new IllegalArgumentException("burst must be between 1 and " + MAX_BURST + ": " + burst);
+		}
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.fillMicros = (burst * MICROS_PER_SECOND + permitsPerSecond - 1) / permitsPerSecond;
+		this.maxSkewMicros = Math.min(fillMicros, TIME_MASK >>> 1);
+		this.nanoClock = nanoClock;
+		this.startNanos = nanoClock.getAsLong();
+		// starts full
+		this.state = new AtomicLong(pack(0, burst));
+	}
+
+	public boolean tryAcquire() {
+		return tryAcquire(1);
+	}
+
+	/**
+	 * Takes n tokens if they're available right now, never waits.
+	 */
+	public boolean tryAcquire(int n) {
+		return reserve(checkPermits(n)) == 0;
+	}
+
+	/**
+	 * Takes n tokens, waiting at most the timeout for them.
+	 * Gives up right away if the refill alone would take longer than the time left.
+	 */
+	public boolean tryAcquire(int n, long timeout, TimeUnit unit) throws InterruptedException {
+		checkPermits(n);
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (;;) {
+			long waitNanos = reserve(n);
+			if (waitNanos == 0) {
+				return true;
+			}
+			if (waitNanos > deadline - System.nanoTime()) {
+				return false;
+			}
+			park(waitNanos);
+		}
+	}
+
+	public void acquire() throws InterruptedException {
+		acquire(1);
+	}
+
+	/**
+	 * Takes n tokens, parking for as long as the missing ones take to refill.
+	 */
+	public void acquire(int n) throws InterruptedException {
+		checkPermits(n);
+		for (long waitNanos = reserve(n); waitNanos != 0; waitNanos = reserve(n)) {
+			park(waitNanos);
+		}
+	}
+
+	public int availablePermits() {
+		return (int) (refill(state.get(), nowMicros()) & TOKEN_MASK);
+	}
+
+	public long getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @return 0 if the n tokens were taken, otherwise the nanoseconds until they're refilled
+	 */
+	private long reserve(int n) {
+		long now = nowMicros();
+		for (;;) {
+			long current = state.get();
+			long refilled = refill(current, now);
+			long tokens = refilled & TOKEN_MASK;
+			if (tokens < n) {
+				long due = (refilled >>> TOKEN_BITS) + ((n - tokens) * MICROS_PER_SECOND + permitsPerSecond - 1) / permitsPerSecond;
+				return TimeUnit.MICROSECONDS.toNanos(Math.max(1, elapsed(now, due)));
+			}
+			// the tokens are in the low bits and there are at least n of them, so there's no borrow into the timestamp
+			if (state.compareAndSet(current, refilled - n)) {
+				return 0;
+			}
+		}
+	}
+
+	private long refill(long current, long now) {
+		long tokens = current & TOKEN_MASK;
+		long last = current >>> TOKEN_BITS;
+		long elapsed = elapsed(last, now);
+		if (tokens == burst || elapsed >= fillMicros) {
+			return pack(now, burst);
+		}
+		long added = elapsed * permitsPerSecond / MICROS_PER_SECOND;
+		if (added == 0) {
+			return current;
+		}
+		if (tokens + added >= burst) {
+			return pack(now, burst);
+		}
+		// only the time the whole tokens took to refill is used up, the remainder counts towards the next token
+		return pack(last + added * MICROS_PER_SECOND / permitsPerSecond, tokens + added);
+	}
+
+	/**
+	 * Microseconds from `from` to `to` on the wrapping 42-bit clock, 0 when `to` is up to maxSkewMicros before `from`
+	 * (another thread may have refilled with a more recent time than the one we read).
+	 * A longer gap is at least the fill time, how much longer doesn't matter to refill().
+	 */
+	private long elapsed(long from, long to) {
+		long d = (to - from) & TIME_MASK;
+		return d > TIME_MASK - maxSkewMicros ? 0 : d;
+	}
+
+	private static long pack(long micros, long tokens) {
+		return (micros & TIME_MASK) << TOKEN_BITS | tokens;
+	}
+
+	private long nowMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(nanoClock.getAsLong() - startNanos);
+	}
+
+	private int checkPermits(int n) {
+		if (n < 1 || n > burst) {
+			throw new IllegalArgumentException("permits must be between 1 and the burst " + burst + ": " + n);
+		}
+		return n;
+	}
+
+	private void park(long nanos) throws InterruptedException {
+		LockSupport.parkNanos(this, nanos);
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		log.info("Starting TokenBucket demo, as a toll booth letting 4 vehicles per second through, with a burst of 4; a truck counts as 3 cars");
+		TokenBucket tollBooth = new TokenBucket(4, 4);
+		ExecutorService executorService = Executors.newFixedThreadPool(10);
+		long start = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			String vehicle = i % 4 == 3 ? "Truck #" + i : "Car #" + i;
+			int weight = i % 4 == 3 ? 3 : 1;
+			futures.add(executorService.submit(() -> {
+				tollBooth.acquire(weight);
+				log.info("{} went through after {} ms", vehicle, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				return null;
+			}));
+		}
+		futures.forEach(f -> {
+			try {
+				f.get();
+			} catch (InterruptedException | ExecutionException e) {
+				log.error("", e);
+			}
+		});
+		executorService.shutdown();
+
+		// the overhead of the limiter itself: a rate high enough that tryAcquire mostly succeeds
+		int threads = 64;
+		log.info("tryAcquire throughput with {} threads, 10M permits/sec, burst 10,000:", threads);
+		TokenBucket bucket = new TokenBucket(10_000_000, 10_000);
+		log.info("    TokenBucket:                  {}", throughput(threads, bucket::tryAcquire));
+		ScheduledExecutorService refiller = Executors.newSingleThreadScheduledExecutor();
+		Semaphore semaphore = new Semaphore(10_000);
+		refiller.scheduleAtFixedRate(() -> {
+			// 10M per second is 10,000 per millisecond, but never more than the burst
+			int missing = 10_000 - semaphore.availablePermits();
+			if (missing > 0) {
+				semaphore.release(missing);
+			}
+		}, 1, 1, TimeUnit.MILLISECONDS);
+		log.info("    Semaphore + scheduled refill: {}", throughput(threads, semaphore::tryAcquire));
+		refiller.shutdown();
+	}
+
+	interface Attempt {
+		boolean tryAcquire();
+	}
+
+	static String throughput(int threads, Attempt attempt) throws InterruptedException {
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		LongAdder granted = new LongAdder();
+		LongAdder denied = new LongAdder();
+		long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+		for (int i = 0; i < threads; i++) {
+			executorService.submit(() -> {
+				while (System.nanoTime() < until) {
+					if (attempt.tryAcquire()) {
+						granted.increment();
+					} else {
+						denied.increment();
+					}
+				}
+			});
+		}
+		executorService.shutdown();
+		executorService.awaitTermination(10, TimeUnit.SECONDS);
+		return String.format("%,d attempts/sec, %,d granted", granted.sum() + denied.sum(), granted.sum());
+	}
+}
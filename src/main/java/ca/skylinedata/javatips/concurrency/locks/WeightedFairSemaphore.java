@@ -0,0 +1,286 @@
+package ca.skylinedata.javatips.concurrency.locks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ca.skylinedata.javatips.concurrency.basics.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Semaphore with several priority classes: waiters queue per class, and freed permits are granted across the classes
+ * by deficit round robin. Each round a class with waiters earns its weight in permits (its deficit) and is served while the permits
+ * its first waiter asks for fit in the deficit, so with weights 8 and 1 the first class gets 8 permits for every permit of the second
+ * one while both have waiters, and neither starves. Within a class the waiters are served FIFO.
+ *
+ * A fair java.util.concurrent.Semaphore is FIFO across everybody, so a burst of batch callers queues ahead of the latency-sensitive ones.
+ * The wait time of every acquisition is recorded per class.
+ */
+@Slf4j
+public class WeightedFairSemaphore {
+
+	// the priority classes of the demo
+	static final int INTERACTIVE = 0;
+	static final int BATCH = 1;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final PriorityClass[] classes;
+	private int available; // guarded by lock
+	private int waiting; // guarded by lock
+	private int cursor; // guarded by lock, the class the round robin is at
+
+	/**
+	 * @param weights the weight of each priority class, the class of a waiter is its index in this array
+	 */
+	public WeightedFairSemaphore(int permits, int... weights) {
+		if (weights.length == 0) {
+			throw new IllegalArgumentException("at least one priority class is needed");
+		}
+		this.available = permits;
+		this.classes = new PriorityClass[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			if (weights[i] < 1) {
+				throw new IllegalArgumentException("weights must be positive: " + weights[i]);
+			}
+			classes[i] = new PriorityClass(weights[i]);
+		}
+	}
+
+	public void acquire(int priorityClass) throws InterruptedException {
+		acquire(priorityClass, 1);
+	}
+
+	public void acquire(int priorityClass, int permits) throws InterruptedException {
+		acquire(priorityClass, permits, false, 0);
+	}
+
+	public boolean tryAcquire(int priorityClass, int permits, long timeout, TimeUnit unit) throws InterruptedException {
+		return acquire(priorityClass, permits, true, unit.toNanos(timeout));
+	}
+
+	public void release() {
+		release(1);
+	}
+
+	public void release(int permits) {
+		if (permits < 1) {
+			throw new IllegalArgumentException("permits must be positive: " + permits);
+		}
+		lock.lock();
+		try {
+			available += permits;
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int availablePermits() {
+		lock.lock();
+		try {
+			return available;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getQueueLength(int priorityClass) {
+		lock.lock();
+		try {
+			return classes[priorityClass].queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Nanoseconds the acquisitions of the class waited for their permits, failed tryAcquire calls excluded.
+	 */
+	public LatencyHistogram getWaitTimes(int priorityClass) {
+		return classes[priorityClass].waitTimes;
+	}
+
+	private boolean acquire(int priorityClass, int permits, boolean timed, long nanos) throws InterruptedException {
+		if (permits < 1) {
+			throw new IllegalArgumentException("permits must be positive: " + permits);
+		}
+		PriorityClass c = classes[priorityClass];
+		long start = System.nanoTime();
+		lock.lockInterruptibly();
+		try {
+			// no barging: when anybody is waiting, the permits go through the round robin
+			if (waiting == 0 && available >= permits) {
+				available -= permits;
+				c.waitTimes.record(System.nanoTime() - start);
+				return true;
+			}
+			if (timed && nanos <= 0) {
+				return false;
+			}
+			Waiter w = new Waiter(permits, lock.newCondition());
+			c.queue.add(w);
+			waiting++;
+			dispatch();
+			try {
+				while (!w.granted) {
+					if (!timed) {
+						w.condition.await();
+					} else if (nanos > 0) {
+						nanos = w.condition.awaitNanos(nanos);
+					} else {
+						cancel(c, w);
+						return false;
+					}
+				}
+			} catch (InterruptedException e) {
+				if (w.granted) {
+					// granted while being interrupted, the permits go to the next waiters
+					available += permits;
+				} else {
+					cancel(c, w);
+				}
+				dispatch();
+				throw e;
+			}
+			c.waitTimes.record(System.nanoTime() - start);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void cancel(PriorityClass c, Waiter w) {
+		c.queue.remove(w);
+		waiting--;
+		// the cancelled waiter may have been the one holding the others back
+		dispatch();
+	}
+
+	/**
+	 * Deficit round robin over the classes with waiters, for as long as there are permits to grant.
+	 */
+	private void dispatch() {
+		while (available > 0 && waiting > 0) {
+			PriorityClass c = classes[cursor];
+			if (c.queue.isEmpty()) {
+				// an idle class doesn't bank its deficit
+				c.deficit = 0;
+				next(c);
+				continue;
+			}
+			if (!c.visited) {
+				c.deficit += c.weight;
+				c.visited = true;
+			}
+			Waiter w = c.queue.peek();
+			if (w.permits > c.deficit) {
+				next(c);
+				continue;
+			}
+			if (w.permits > available) {
+				// stays on this class, it gets served first when more permits are released
+				return;
+			}
+			c.queue.poll();
+			waiting--;
+			c.deficit -= w.permits;
+			available -= w.permits;
+			w.granted = true;
+			w.condition.signal();
+		}
+	}
+
+	private void next(PriorityClass c) {
+		c.visited = false;
+		cursor = (cursor + 1) % classes.length;
+	}
+
+	private static class PriorityClass {
+		final int weight;
+		final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+		final LatencyHistogram waitTimes = new LatencyHistogram();
+		int deficit;
+		boolean visited;
+
+		PriorityClass(int weight) {
+			this.weight = weight;
+		}
+	}
+
+	private static class Waiter {
+		final int permits;
+		final Condition condition;
+		boolean granted;
+
+		Waiter(int permits, Condition condition) {
+			this.permits = permits;
+			this.condition = condition;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		// the toll booth of SemaphoreTasks again: 4 lanes, 4 interactive cars and a burst of 40 batch trucks,
+		// every vehicle takes 5 ms to go through and the interactive ones come back after 20 ms
+		log.info("4 lanes, 4 interactive callers (5 ms in the lane, 20 ms between calls) vs 40 batch callers (5 ms in the lane, no pause)");
+		Semaphore fifo = new Semaphore(4, true);
+		List<LatencyHistogram> fifoWaits = List.of(new LatencyHistogram(), new LatencyHistogram());
+		run((priorityClass) -> {
+			long start = System.nanoTime();
+			fifo.acquire();
+			fifoWaits.get(priorityClass).record(System.nanoTime() - start);
+		}, fifo::release);
+		report("Semaphore(4, fair)", fifoWaits.get(INTERACTIVE), fifoWaits.get(BATCH));
+
+		WeightedFairSemaphore weighted = new WeightedFairSemaphore(4, 8, 1);
+		run(weighted::acquire, weighted::release);
+		report("WeightedFairSemaphore(4, 8:1)", weighted.getWaitTimes(INTERACTIVE), weighted.getWaitTimes(BATCH));
+	}
+
+	interface Acquire {
+		void acquire(int priorityClass) throws InterruptedException;
+	}
+
+	static void run(Acquire acquire, Runnable release) throws InterruptedException {
+		ExecutorService executorService = Executors.newFixedThreadPool(44);
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<Runnable> callers = new ArrayList<>();
+		for (int i = 0; i < 44; i++) {
+			int priorityClass = i < 4 ? INTERACTIVE : BATCH;
+			callers.add(() -> {
+				try {
+					while (running.get()) {
+						acquire.acquire(priorityClass);
+						try {
+							TimeUnit.MILLISECONDS.sleep(5);
+						} finally {
+							release.run();
+						}
+						if (priorityClass == INTERACTIVE) {
+							TimeUnit.MILLISECONDS.sleep(20);
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		callers.forEach(executorService::submit);
+		TimeUnit.SECONDS.sleep(3);
+		running.set(false);
+		executorService.shutdown();
+		executorService.awaitTermination(5, TimeUnit.SECONDS);
+	}
+
+	static void report(String name, LatencyHistogram interactive, LatencyHistogram batch) {
+		log.info("{}:", name);
+		log.info("    interactive wait: {}", interactive.summaryMicros());
+		log.info("    batch wait:       {}", batch.summaryMicros());
+	}
+}
@@ -3,7 +3,15 @@
  * - Lock interface
  * - ReentrantReadWriteLock
  * - CyclicBarrier
+ * - Tiered Phaser for thousands of parties
+ * - Deadline barrier opening with partial completion
+ * - Fork/join EOD report aggregation
  * - Semaphore
  * - Producer-Consumer implementation with ReentrantLock
+ * - Lock profiling: wait/hold time histograms, contention, JFR events
+ * - AbstractQueuedSynchronizer: spin-then-park lock
+ * - Adaptive concurrency limit (AIMD, gradient) instead of fixed Semaphore permits
+ * - Lock-free token-bucket rate limiter
+ * - Semaphore with weighted-fair priority classes (deficit round robin)
  */
 package ca.skylinedata.javatips.concurrency.locks;
\ No newline at end of file
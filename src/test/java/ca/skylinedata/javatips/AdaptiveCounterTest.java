@@ -0,0 +1,86 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.basics.AdaptiveCounter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class AdaptiveCounterTest {
+
+	@Test
+	public void countsEveryUpdateFromManyThreads() throws InterruptedException {
+		AdaptiveCounter counter = new AdaptiveCounter();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 200_000; i++) {
+					counter.add(3);
+					counter.decrement();
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(4 * 200_000 * 2, counter.sum());
+	}
+
+	@Test
+	public void singleWriterStaysOnTheBaseValue() {
+		AdaptiveCounter counter = new AdaptiveCounter();
+		for (int i = 0; i < 1_000_000; i++) {
+			counter.increment();
+		}
+		assertFalse(counter.isInflated(), "Expecting no CAS failures without a second writer");
+		assertEquals(1_000_000, counter.sum());
+	}
+
+	@Test
+	public void inflatesUnderContentionAndDeflatesOnceQuiet() throws InterruptedException {
+		// a CAS only fails often when the writers really run in parallel
+		assumeTrue(Runtime.getRuntime().availableProcessors() > 1, "Needs more than one cpu");
+		AdaptiveCounter counter = new AdaptiveCounter();
+		AtomicBoolean stop = new AtomicBoolean();
+		long[] added = new long[4];
+		Thread[] threads = new Thread[added.length];
+		for (int t = 0; t < threads.length; t++) {
+			int writer = t;
+			threads[t] = new Thread(() -> {
+				while (!stop.get()) {
+					counter.increment();
+					added[writer]++;
+				}
+			});
+			threads[t].start();
+		}
+		long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!counter.isInflated() && System.nanoTime() < until) {
+			Thread.sleep(1);
+		}
+		boolean inflated = counter.isInflated();
+		stop.set(true);
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertTrue(inflated, "Expecting the contended counter to inflate");
+		long expected = 0;
+		for (long a : added) {
+			expected += a;
+		}
+		// without writers, the reads see at most one cell changing and fold the cells back
+		for (int i = 0; i < 20 && counter.isInflated(); i++) {
+			Thread.sleep(110);
+			assertEquals(expected, counter.sum());
+		}
+		assertFalse(counter.isInflated(), "Expecting the quiet counter to deflate");
+		assertEquals(expected, counter.sum());
+		counter.increment();
+		assertEquals(expected + 1, counter.sum());
+	}
+}
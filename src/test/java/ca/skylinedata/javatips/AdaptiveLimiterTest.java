@@ -0,0 +1,73 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.locks.AdaptiveLimiter;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimiterTest {
+
+	private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void noMoreCallsInFlightThanTheLimit() throws InterruptedException {
+		AdaptiveLimiter limiter = new AdaptiveLimiter((limit, rtt, inflight, dropped) -> limit, 2, 1, 10);
+		limiter.acquire();
+		assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+		assertFalse(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+		assertEquals(2, limiter.getInflight());
+		limiter.release();
+		assertTrue(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+		limiter.release();
+		limiter.release();
+		assertEquals(0, limiter.getInflight());
+	}
+
+	@Test
+	public void dropsShrinkTheLimitDownToTheMinimum() throws InterruptedException {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(new AdaptiveLimiter.Aimd(1, TimeUnit.SECONDS), 10, 2, 20);
+		limiter.acquire();
+		limiter.release(true);
+		assertEquals(9, limiter.getLimit());
+		for (int i = 0; i < 50; i++) {
+			limiter.acquire();
+			limiter.release(true);
+		}
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void aimdGrowsByOnePerRoundTripOfABusyLimit() {
+		AdaptiveLimiter.Aimd aimd = new AdaptiveLimiter.Aimd(100, TimeUnit.MILLISECONDS);
+		double limit = 10;
+		// 10 calls of a fully used limit of 10
+		for (int i = 0; i < 10; i++) {
+			limit = aimd.update(limit, MILLI, 10, false);
+		}
+		assertEquals(11, limit, 0.1);
+		assertEquals(11, aimd.update(11, MILLI, 2, false), 0.0, "Expecting no growth while the limit is mostly unused");
+		assertEquals(9.9, aimd.update(11, 200 * MILLI, 11, false), 0.001, "Expecting a call past the timeout to count as a drop");
+		assertEquals(9.9, aimd.update(11, MILLI, 11, true), 0.001);
+	}
+
+	@Test
+	public void gradientShrinksWhenTheLatencyGrowsPastTheTolerance() {
+		AdaptiveLimiter.Gradient gradient = new AdaptiveLimiter.Gradient(1.5, 0.2);
+		double limit = 20;
+		// the first sample is the no-load latency
+		assertEquals(20, gradient.update(limit, 10 * MILLI, 20, false));
+		for (int i = 0; i < 20; i++) {
+			limit = gradient.update(limit, 10 * MILLI, 20, false);
+		}
+		assertTrue(limit > 20, "Expecting growth while the latency stays at the no-load latency");
+		double grown = limit;
+		for (int i = 0; i < 50; i++) {
+			limit = gradient.update(limit, 100 * MILLI, 20, false);
+		}
+		assertTrue(limit < grown, "Expecting the limit to shrink once calls queue up in the backend");
+		assertEquals(limit / 2, gradient.update(limit, 100 * MILLI, 20, true), 0.001);
+	}
+}
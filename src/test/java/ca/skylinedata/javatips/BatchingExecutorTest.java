@@ -0,0 +1,103 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.basics.BatchingExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchingExecutorTest {
+
+	@Test
+	public void everyTaskFromManyProducersRunsExactlyOnce() throws Exception {
+		int producers = 4;
+		int perProducer = 250_000;
+		BatchingExecutor executor = new BatchingExecutor(3, 64);
+		AtomicIntegerArray runs = new AtomicIntegerArray(producers * perProducer);
+		CountDownLatch done = new CountDownLatch(producers * perProducer);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			int first = p * perProducer;
+			threads[p] = new Thread(() -> {
+				for (int i = first; i < first + perProducer; i++) {
+					int task = i;
+					executor.execute(() -> {
+						runs.incrementAndGet(task);
+						done.countDown();
+					});
+				}
+			});
+			threads[p].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS), "Expecting every task to run");
+		for (int i = 0; i < runs.length(); i++) {
+			assertEquals(1, runs.get(i), "Task " + i);
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(producers * perProducer, executor.getCompletedTaskCount());
+		assertTrue(executor.getBatchCount() < executor.getCompletedTaskCount(), "Expecting the tasks to be run in batches");
+	}
+
+	@Test
+	public void everyAcceptedTaskRunsWhenShutdownRacesWithExecute() throws Exception {
+		for (int round = 0; round < 50; round++) {
+			BatchingExecutor executor = new BatchingExecutor(2, 8);
+			LongAdder accepted = new LongAdder();
+			LongAdder ran = new LongAdder();
+			CountDownLatch started = new CountDownLatch(3);
+			Thread[] producers = new Thread[3];
+			for (int p = 0; p < producers.length; p++) {
+				producers[p] = new Thread(() -> {
+					started.countDown();
+					try {
+						while (true) {
+							executor.execute(ran::increment);
+							accepted.increment();
+						}
+					} catch (RejectedExecutionException e) {
+						// shut down
+					}
+				});
+				producers[p].start();
+			}
+			started.await();
+			executor.shutdown();
+			for (Thread t : producers) {
+				t.join();
+			}
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			assertEquals(accepted.sum(), ran.sum(), "Round " + round + ": expecting every accepted task to run");
+		}
+	}
+
+	@Test
+	public void queuedTasksRunAfterShutdown() throws Exception {
+		BatchingExecutor executor = new BatchingExecutor(1, 16);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		Future<String> queued = executor.submit(() -> "done");
+		executor.shutdown();
+		assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+		assertFalse(executor.isTerminated());
+		release.countDown();
+		assertEquals("done", queued.get(5, TimeUnit.SECONDS));
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,80 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.collections.BloomFilter;
+import ca.skylinedata.javatips.concurrency.collections.BloomFilteredSet;
+import ca.skylinedata.javatips.concurrency.collections.CountingBloomFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+	@Test
+	public void noFalseNegativesWhenAddingConcurrently() throws InterruptedException, ExecutionException {
+		int threads = 4;
+		int perThread = 50_000;
+		BloomFilter filter = new BloomFilter(threads * perThread, 0.01);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int offset = t * perThread;
+				// neighbouring elements set bits in the same words from different threads
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < perThread; i++) {
+						filter.add(offset + i);
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		for (int i = 0; i < threads * perThread; i++) {
+			assertTrue(filter.mightContain(i), "Expecting no false negative for " + i);
+		}
+		int positives = 0;
+		for (int i = 0; i < 100_000; i++) {
+			if (filter.mightContain("absent-" + i)) {
+				positives++;
+			}
+		}
+		assertTrue(positives < 2_000, "Expecting about 1% false positives, got " + positives + " in 100,000");
+	}
+
+	@Test
+	public void filteredSetFollowsAddsAndRemoves() {
+		BloomFilteredSet<String> set = new BloomFilteredSet<>(new ConcurrentSkipListSet<>(), new CountingBloomFilter(10_000, 0.01));
+		for (int i = 0; i < 10_000; i++) {
+			assertTrue(set.add("item-" + i));
+		}
+		assertFalse(set.add("item-0"));
+		for (int i = 0; i < 10_000; i += 2) {
+			assertTrue(set.remove("item-" + i));
+		}
+		assertFalse(set.remove("item-0"));
+		assertEquals(5_000, set.size());
+		for (int i = 0; i < 10_000; i++) {
+			assertEquals(i % 2 == 1, set.contains("item-" + i));
+		}
+		// the removed elements are mostly gone from the filter too
+		int stale = 0;
+		for (int i = 0; i < 10_000; i += 2) {
+			if (set.getFilter().mightContain("item-" + i)) {
+				stale++;
+			}
+		}
+		assertTrue(stale < 100, "Expecting the counters of removed elements to be cleared, " + stale + " still pass");
+	}
+}
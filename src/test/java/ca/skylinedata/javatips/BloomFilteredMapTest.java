@@ -0,0 +1,103 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.collections.BloomFilteredMap;
+import ca.skylinedata.javatips.concurrency.collections.CountingBloomFilter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilteredMapTest {
+
+	@Test
+	public void presentKeysAreNeverFilteredOut() {
+		CountingBloomFilter filter = new CountingBloomFilter(10_000, 0.01);
+		BloomFilteredMap<Integer, String> map = new BloomFilteredMap<>(new HashMap<>(), filter);
+		Map<Integer, String> expected = new HashMap<>();
+		Random random = new Random(7);
+		// puts of new keys, overwrites and removes, over a key range small enough for each of them to happen often
+		for (int i = 0; i < 100_000; i++) {
+			int key = random.nextInt(5_000);
+			int op = random.nextInt(3);
+			if (op == 2) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Integer, String> e : expected.entrySet()) {
+			assertTrue(filter.mightContain(e.getKey()), "Expecting key " + e.getKey() + " in the filter");
+			assertTrue(map.containsKey(e.getKey()));
+			assertEquals(e.getValue(), map.get(e.getKey()));
+		}
+		for (int key = 0; key < 5_000; key++) {
+			if (!expected.containsKey(key)) {
+				assertNull(map.get(key));
+			}
+		}
+	}
+
+	@Test
+	public void overwritesDoNotPileUpInTheFilter() {
+		CountingBloomFilter filter = new CountingBloomFilter(1_000, 0.01);
+		BloomFilteredMap<String, Integer> map = new BloomFilteredMap<>(new HashMap<>(), filter);
+		for (int i = 0; i < 1_000; i++) {
+			map.put("key", i);
+		}
+		assertEquals(999, map.put("key", 1_000));
+		assertEquals(1_000, map.remove("key"));
+		// an overwrite counted once more would keep the removed key in the filter
+		assertFalse(filter.mightContain("key"), "Expecting the removed key out of the filter");
+		assertNull(map.get("key"));
+		assertNull(map.remove("key"));
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void lookupsOfMissingKeysDoNotReachTheMap() {
+		CountingBloomFilter filter = new CountingBloomFilter(1_000, 0.01);
+		CountingMap<Integer, String> backing = new CountingMap<>();
+		BloomFilteredMap<Integer, String> map = new BloomFilteredMap<>(backing, filter);
+		for (int i = 0; i < 1_000; i++) {
+			map.put(i, "v" + i);
+		}
+		int passedTheFilter = 0;
+		for (int key = 1_000; key < 11_000; key++) {
+			int lookups = backing.lookups;
+			boolean mightContain = filter.mightContain(key);
+			assertNull(map.get(key));
+			assertFalse(map.containsKey(key));
+			if (mightContain) {
+				passedTheFilter++;
+			} else {
+				assertEquals(lookups, backing.lookups, "Expecting the filter to answer for missing key " + key);
+			}
+		}
+		assertTrue(passedTheFilter < 500, "Expecting about 1% false positives, got " + passedTheFilter + " in 10000");
+	}
+
+	/**
+	 * A HashMap that counts the lookups reaching it.
+	 */
+	private static class CountingMap<K, V> extends HashMap<K, V> {
+
+		int lookups;
+
+		@Override
+		public V get(Object key) {
+			lookups++;
+			return super.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			lookups++;
+			return super.containsKey(key);
+		}
+	}
+}
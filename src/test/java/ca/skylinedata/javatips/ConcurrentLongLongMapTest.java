@@ -0,0 +1,72 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.collections.ConcurrentLongLongMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentLongLongMapTest {
+
+	@Test
+	public void countsStayExactWhileTheTableResizes() throws InterruptedException, ExecutionException {
+		int threads = 4;
+		int keys = 200_000;
+		// starting from 16 slots, every thread races through all the resizes
+		ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int offset = t;
+				futures.add(executor.submit(() -> {
+					for (int n = 0; n < keys; n++) {
+						long key = (n + offset * (keys / threads)) % keys - keys / 2;
+						map.addAndGet(key, 1);
+						map.updateAndGet(key, 0, v -> v + 10);
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(keys, map.size());
+		for (long key = -keys / 2; key < keys / 2; key++) {
+			assertEquals(11L * threads, map.get(key), "key " + key);
+		}
+		AtomicLong entries = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+		map.forEach((k, v) -> {
+			entries.incrementAndGet();
+			sum.addAndGet(v);
+		});
+		assertEquals(keys, entries.get());
+		assertEquals(11L * threads * keys, sum.get());
+	}
+
+	@Test
+	public void putIfAbsentAndReservedValues() {
+		ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+		assertEquals(ConcurrentLongLongMap.NO_VALUE, map.get(0));
+		assertEquals(ConcurrentLongLongMap.NO_VALUE, map.putIfAbsent(0, 5));
+		assertEquals(5, map.putIfAbsent(0, 6));
+		assertEquals(5, map.put(0, -7));
+		assertEquals(-7, map.get(0));
+		assertFalse(map.containsKey(1));
+		assertEquals(1, map.size());
+		assertThrows(IllegalArgumentException.class, () -> map.addAndGet(Long.MIN_VALUE, 1));
+		assertThrows(ArithmeticException.class, () -> map.put(1, Long.MIN_VALUE));
+		assertFalse(map.containsKey(1), "Expecting a rejected value to leave no entry behind");
+	}
+}
@@ -0,0 +1,117 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.collections.ConfigStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigStoreTest {
+
+	@Test
+	public void aBatchedUpdateIsOneVersion() {
+		ConfigStore<String, Integer> store = new ConfigStore<>();
+		ConfigStore.Snapshot<String, Integer> before = store.snapshot();
+		ConfigStore.Snapshot<String, Integer> after = store.update(b -> {
+			for (int i = 0; i < 100; i++) {
+				b.put("key" + i, i);
+			}
+			b.remove("key7");
+		});
+		assertEquals(before.getVersion() + 1, after.getVersion());
+		assertSame(after, store.snapshot());
+		assertEquals(99, store.size());
+		assertNull(store.get("key7"));
+		assertEquals(42, store.get("key42"));
+		// the snapshot taken before doesn't change
+		assertEquals(0, before.size());
+	}
+
+	@Test
+	public void noChangeIsNoVersion() {
+		ConfigStore<String, Integer> store = new ConfigStore<>();
+		store.put("a", 1);
+		ConfigStore.Snapshot<String, Integer> current = store.snapshot();
+		List<ConfigStore.Delta<String, Integer>> deltas = new ArrayList<>();
+		store.subscribe(s -> { }, deltas::add);
+
+		assertSame(current, store.update(b -> {
+			b.put("new", 2);
+			b.remove("new");
+		}), "Expecting a key put and removed again to be no change");
+		assertSame(current, store.update(b -> b.put("a", 1)), "Expecting an unchanged value to be no change");
+		assertEquals(1, store.put("a", 1));
+		assertNull(store.remove("missing"));
+		assertSame(current, store.snapshot());
+		assertTrue(deltas.isEmpty());
+	}
+
+	@Test
+	public void aFailedUpdateChangesNothing() {
+		ConfigStore<String, Integer> store = new ConfigStore<>();
+		store.put("a", 1);
+		ConfigStore.Snapshot<String, Integer> current = store.snapshot();
+		assertThrows(IllegalStateException.class, () -> store.update(b -> {
+			b.put("a", 2);
+			b.put("b", 3);
+			throw new IllegalStateException("bad push");
+		}));
+		assertSame(current, store.snapshot());
+		assertEquals(1, store.get("a"));
+		assertNull(store.get("b"));
+	}
+
+	@Test
+	public void nullValuesAreRejectedPresentKeyOrNot() {
+		ConfigStore<String, Integer> store = new ConfigStore<>();
+		store.put("a", 1);
+		assertThrows(NullPointerException.class, () -> store.put("a", null));
+		assertThrows(NullPointerException.class, () -> store.put("absent", null));
+		assertEquals(1, store.snapshot().getVersion());
+	}
+
+	@Test
+	public void subscribersGetTheirSnapshotThenTheDeltasInOrder() throws Exception {
+		ConfigStore<String, Integer> store = new ConfigStore<>();
+		store.put("a", 1);
+		store.put("b", 2);
+		Map<String, Integer> view = new HashMap<>();
+		long[] initialVersion = new long[1];
+		List<ConfigStore.Delta<String, Integer>> deltas = new ArrayList<>();
+		AutoCloseable subscription = store.subscribe(snapshot -> {
+			initialVersion[0] = snapshot.getVersion();
+			snapshot.forEach(view::put);
+		}, delta -> {
+			deltas.add(delta);
+			delta.applyTo(view);
+		});
+		assertEquals(2, initialVersion[0]);
+		assertEquals(Map.of("a", 1, "b", 2), view);
+
+		store.update(b -> {
+			b.put("a", 10);
+			b.put("c", 3);
+			b.remove("b");
+		});
+		store.remove("c");
+		assertEquals(2, deltas.size());
+		ConfigStore.Delta<String, Integer> first = deltas.get(0);
+		assertEquals(2, first.getFromVersion());
+		assertEquals(3, first.getToVersion());
+		assertEquals(Map.of("a", 10, "c", 3), first.getUpserts());
+		assertEquals(Collections.singleton("b"), first.getRemovals());
+		assertEquals(3, deltas.get(1).getFromVersion());
+		assertEquals(4, deltas.get(1).getToVersion());
+		assertEquals(Map.of("a", 10), view);
+
+		subscription.close();
+		store.put("d", 4);
+		assertEquals(2, deltas.size(), "Expecting no delta after close()");
+	}
+}
@@ -0,0 +1,73 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.locks.DeadlineBarrier;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadlineBarrierTest {
+
+	@Test
+	public void opensWhenAllPartiesArrive() throws InterruptedException {
+		AtomicInteger actions = new AtomicInteger();
+		AtomicReference<Set<String>> completed = new AtomicReference<>();
+		DeadlineBarrier barrier = new DeadlineBarrier(Arrays.asList("a", "b", "c"), 10, TimeUnit.SECONDS, (done, missing) -> {
+			actions.incrementAndGet();
+			completed.set(done);
+		});
+		assertTrue(barrier.arrive("b"));
+		assertThrows(IllegalArgumentException.class, () -> barrier.arrive("b"), "Expecting a party to arrive only once");
+		assertThrows(IllegalArgumentException.class, () -> barrier.arrive("z"));
+		assertFalse(barrier.isOpen());
+		assertTrue(barrier.arrive("c"));
+		assertTrue(barrier.arrive("a"));
+
+		DeadlineBarrier.Outcome outcome = barrier.awaitOpen(5, TimeUnit.SECONDS);
+		assertNotNull(outcome);
+		assertFalse(outcome.isDeadlineReached());
+		assertEquals(Arrays.asList("b", "c", "a"), List.copyOf(outcome.getCompleted()), "Expecting the arrival order");
+		assertTrue(outcome.getMissing().isEmpty());
+		assertEquals(outcome.getCompleted(), completed.get());
+		assertEquals(1, actions.get());
+	}
+
+	@Test
+	public void opensAtTheDeadlineWithThePartiesThatArrived() throws InterruptedException {
+		AtomicInteger actions = new AtomicInteger();
+		DeadlineBarrier barrier = new DeadlineBarrier(Arrays.asList("a", "b", "c"), 50, TimeUnit.MILLISECONDS, (done, missing) -> actions.incrementAndGet());
+		assertTrue(barrier.arrive("a"));
+		DeadlineBarrier.Outcome outcome = barrier.awaitOpen(5, TimeUnit.SECONDS);
+		assertNotNull(outcome);
+		assertTrue(outcome.isDeadlineReached());
+		assertEquals(Collections.singleton("a"), outcome.getCompleted());
+		assertEquals(Set.of("b", "c"), outcome.getMissing());
+		assertFalse(barrier.arrive("b"), "Expecting a late arrival to be rejected");
+		assertEquals(1, actions.get());
+	}
+
+	@Test
+	public void theOutcomeIsConsistentWhenTheLastArrivalRacesTheDeadline() throws InterruptedException {
+		for (int round = 0; round < 200; round++) {
+			AtomicInteger actions = new AtomicInteger();
+			DeadlineBarrier barrier = new DeadlineBarrier(Arrays.asList("a", "b"), 5, TimeUnit.MILLISECONDS, (done, missing) -> actions.incrementAndGet());
+			barrier.arrive("a");
+			// around the deadline: the shared timing wheel ticks every 5 ms
+			TimeUnit.MICROSECONDS.sleep(round * 50 % 10_000);
+			boolean inTime = barrier.arrive("b");
+			DeadlineBarrier.Outcome outcome = barrier.awaitOpen(5, TimeUnit.SECONDS);
+			assertNotNull(outcome);
+			assertEquals(!inTime, outcome.isDeadlineReached(), "Round " + round);
+			assertEquals(outcome.isDeadlineReached(), !outcome.getMissing().isEmpty(), "Round " + round + ": a deadline outcome with nobody missing");
+			assertEquals(1, actions.get());
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.locks.EodReportEngine;
+import ca.skylinedata.javatips.concurrency.locks.EodReportEngine.AccountTotals;
+import ca.skylinedata.javatips.concurrency.locks.EodReportEngine.Transactions;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EodReportEngineTest {
+
+	@Test
+	public void forkJoinTotalsMatchASequentialLoop() {
+		int rows = 200_000;
+		int accountCount = 700;
+		Random random = new Random(42);
+		int[] accounts = new int[rows];
+		long[] amounts = new long[rows];
+		for (int i = 0; i < rows; i++) {
+			accounts[i] = random.nextInt(accountCount);
+			amounts[i] = random.nextInt(200_001) - 100_000;
+		}
+		// one account left without transactions
+		for (int i = 0; i < rows; i++) {
+			if (accounts[i] == 13) {
+				accounts[i] = 14;
+			}
+		}
+		long[] counts = new long[accountCount];
+		long[] sums = new long[accountCount];
+		long[] mins = new long[accountCount];
+		long[] maxs = new long[accountCount];
+		Arrays.fill(mins, Long.MAX_VALUE);
+		Arrays.fill(maxs, Long.MIN_VALUE);
+		for (int i = 0; i < rows; i++) {
+			int a = accounts[i];
+			counts[a]++;
+			sums[a] += amounts[i];
+			mins[a] = Math.min(mins[a], amounts[i]);
+			maxs[a] = Math.max(maxs[a], amounts[i]);
+		}
+
+		Transactions transactions = new Transactions(accounts, amounts, accountCount);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			// from tiny leaves to a single one, with odd sizes that split unevenly
+			for (int threshold : new int[] { 1_000, 7_777, 50_000, rows }) {
+				AccountTotals totals = EodReportEngine.aggregate(pool, transactions, threshold);
+				for (int a = 0; a < accountCount; a++) {
+					assertEquals(counts[a], totals.count(a), "count of account " + a + ", threshold " + threshold);
+					assertEquals(sums[a], totals.sum(a), "sum of account " + a + ", threshold " + threshold);
+					assertEquals(mins[a], totals.min(a), "min of account " + a + ", threshold " + threshold);
+					assertEquals(maxs[a], totals.max(a), "max of account " + a + ", threshold " + threshold);
+				}
+				assertTrue(totals.sameAs(EodReportEngine.aggregateSequentially(transactions)));
+			}
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(0, EodReportEngine.aggregateSequentially(transactions).count(13));
+	}
+
+	@Test
+	public void accountsOutOfRangeAreRejectedUpFront() {
+		assertThrows(IllegalArgumentException.class, () -> new Transactions(new int[] { 0, 5 }, new long[] { 1, 2 }, 5));
+		assertThrows(IllegalArgumentException.class, () -> new Transactions(new int[] { -1 }, new long[] { 1 }, 5));
+		assertThrows(IllegalArgumentException.class, () -> new Transactions(new int[] { 0 }, new long[] { 1, 2 }, 5));
+		assertEquals(2, new Transactions(new int[] { 0, 4 }, new long[] { 1, 2 }, 5).size());
+	}
+}
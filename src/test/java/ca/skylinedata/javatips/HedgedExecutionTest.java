@@ -0,0 +1,130 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.async.HedgedExecution;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgedExecutionTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void primaryWinsWithoutHedgingAndItsThreadIsNotInterrupted() throws Exception {
+		HedgedExecution hedged = new HedgedExecution(executor, 1, TimeUnit.SECONDS, 100);
+		CountDownLatch go = new CountDownLatch(1);
+		CompletableFuture<String> result = hedged.supply(() -> {
+			await(go);
+			return "primary";
+		});
+		// runs on the winning thread, when it completes the result
+		CompletableFuture<Boolean> interrupted = result.thenApply(v -> Thread.currentThread().isInterrupted());
+		go.countDown();
+		assertEquals("primary", result.get(5, TimeUnit.SECONDS));
+		assertFalse(interrupted.get(5, TimeUnit.SECONDS), "Expecting the winner not to interrupt itself");
+		assertEquals(0, hedged.getHedges());
+	}
+
+	@Test
+	public void hedgeWinsAndTheCallLatencyIsRecorded() throws Exception {
+		HedgedExecution hedged = new HedgedExecution(executor, 20, TimeUnit.MILLISECONDS, 100);
+		AtomicBoolean primaryInterrupted = new AtomicBoolean();
+		// 20 calls, enough for the p95 to replace the initial hedge delay
+		for (int i = 0; i < 20; i++) {
+			AtomicInteger attempts = new AtomicInteger();
+			String value = hedged.supply(() -> {
+				if (attempts.getAndIncrement() == 0) {
+					try {
+						Thread.sleep(10_000);
+					} catch (InterruptedException e) {
+						primaryInterrupted.set(true);
+					}
+					return "primary";
+				}
+				return "hedge";
+			}).get(5, TimeUnit.SECONDS);
+			assertEquals("hedge", value);
+		}
+		assertEquals(20, hedged.getHedgeWins());
+		assertTrue(hedged.currentHedgeDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(20),
+				"Expecting the latency of the call, hedge delay included, not the latency of the hedge alone");
+		TimeUnit.MILLISECONDS.sleep(50);
+		assertTrue(primaryInterrupted.get(), "Expecting the losing primary to be interrupted");
+	}
+
+	@Test
+	public void bothAttemptsFailing() {
+		HedgedExecution hedged = new HedgedExecution(executor, 10, TimeUnit.MILLISECONDS, 100);
+		AtomicInteger attempts = new AtomicInteger();
+		CompletableFuture<String> result = hedged.supply(failing(attempts, 100));
+		ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof IllegalStateException);
+		assertEquals(2, attempts.get());
+	}
+
+	@Test
+	public void rejectedHedgeDoesNotHangTheCall() {
+		// a single thread and no queue: the hedge is rejected while the primary runs
+		ThreadPoolExecutor single = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+		try {
+			HedgedExecution hedged = new HedgedExecution(single, 10, TimeUnit.MILLISECONDS, 100);
+			AtomicInteger attempts = new AtomicInteger();
+			CompletableFuture<String> result = hedged.supply(failing(attempts, 100));
+			ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+			assertTrue(e.getCause() instanceof IllegalStateException);
+			assertEquals(1, attempts.get());
+			assertEquals(1, hedged.getHedges());
+
+			single.shutdown();
+			CompletableFuture<String> rejected = hedged.supply(() -> "never");
+			e = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		} finally {
+			single.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fails after sleeping the given time on the first attempt, right away on the next ones.
+	 */
+	private static Supplier<String> failing(AtomicInteger attempts, long firstMillis) {
+		return () -> {
+			if (attempts.getAndIncrement() == 0) {
+				try {
+					Thread.sleep(firstMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			throw new IllegalStateException("failing on purpose");
+		};
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.basics.ContentionWindow;
+import ca.skylinedata.javatips.concurrency.collections.HotKeyCounterMap;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotKeyCounterMapTest {
+
+	@Test
+	public void countsEveryUpdateFromManyThreads() throws InterruptedException {
+		HotKeyCounterMap<String> map = new HotKeyCounterMap<>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 100_000; i++) {
+					map.increment("hot");
+					map.add("key" + (i % 100), 2);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(400_000, map.sum("hot"));
+		long total = 0;
+		for (int i = 0; i < 100; i++) {
+			total += map.sum("key" + i);
+		}
+		assertEquals(800_000, total);
+		assertEquals(101, map.size());
+		assertEquals(0, map.sum("never updated"));
+		assertFalse(map.isHot("never updated"));
+	}
+
+	@Test
+	public void failuresSpreadOverTimeAreNotContention() {
+		// the window a briefly contended key gets: 16 failures within 10 ms
+		ContentionWindow window = new ContentionWindow(16, 10, TimeUnit.MILLISECONDS);
+		long now = System.nanoTime();
+		// a short burst of 15 failures, then one failure every 11 ms for what would be hours of a long-running map
+		for (int i = 0; i < 15; i++) {
+			assertFalse(window.onFailure(now));
+		}
+		for (int i = 1; i <= 1000; i++) {
+			assertFalse(window.onFailure(now + i * TimeUnit.MILLISECONDS.toNanos(11)), "Expecting failure " + i + " to start a new window");
+		}
+		// 16 failures within the window are
+		now += 1001 * TimeUnit.MILLISECONDS.toNanos(11);
+		for (int i = 0; i < 15; i++) {
+			assertFalse(window.onFailure(now + i));
+		}
+		assertTrue(window.onFailure(now + 15));
+		window.reset();
+		assertFalse(window.onFailure());
+	}
+}
@@ -0,0 +1,109 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.basics.InstrumentedExecutors;
+import ca.skylinedata.javatips.concurrency.basics.InstrumentedThreadPoolExecutor;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstrumentedExecutorsTest {
+
+	@Test
+	public void recordsQueueWaitsRunTimesAndRejections() throws Exception {
+		InstrumentedThreadPoolExecutor executor = InstrumentedExecutors.newBoundedThreadPool("test-bounded", 1, 2);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		// the worker is busy: two tasks wait in the queue, the fourth is rejected
+		Future<String> queued = executor.submit(() -> "done");
+		executor.execute(() -> {
+			throw new IllegalStateException("failing on purpose");
+		});
+		assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+		assertEquals(2, executor.getQueueSize());
+		assertEquals(1, executor.getActiveCount());
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("ca.skylinedata.javatips:type=Executor,name=\"test-bounded\"");
+		assertEquals(1L, server.getAttribute(name, "RejectedCount"));
+		assertEquals(2, server.getAttribute(name, "QueueSize"));
+
+		TimeUnit.MILLISECONDS.sleep(20);
+		release.countDown();
+		assertEquals("done", queued.get(5, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+		assertEquals(3, executor.getQueueWaits().count());
+		assertEquals(3, executor.getRunTimes().count());
+		assertTrue(executor.getQueueWaits().max() >= TimeUnit.MILLISECONDS.toNanos(20), "Expecting the queued tasks to have waited for the first one");
+		assertTrue(executor.getRunTimes().max() >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertEquals(1, executor.getRejectedCount());
+		assertEquals(1, executor.getFailedCount());
+		assertFalse(server.isRegistered(name), "Expecting a terminated pool to be unregistered");
+	}
+
+	@Test
+	public void removeAndPurgeSeeTheSubmittedTasks() throws Exception {
+		InstrumentedThreadPoolExecutor executor = InstrumentedExecutors.newFixedThreadPool("test-remove-purge", 1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			Runnable queued = () -> { };
+			executor.execute(queued);
+			Future<String> cancelled = executor.submit(() -> "cancelled");
+			Future<String> kept = executor.submit(() -> "kept");
+			assertEquals(3, executor.getQueueSize());
+
+			assertTrue(executor.remove(queued));
+			assertFalse(executor.remove(queued));
+			cancelled.cancel(false);
+			executor.purge();
+			assertEquals(1, executor.getQueueSize(), "Expecting the cancelled future purged from the queue");
+
+			release.countDown();
+			assertEquals("kept", kept.get(5, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void poolsWithTheSameNameGetUniqueNames() {
+		InstrumentedThreadPoolExecutor first = InstrumentedExecutors.newFixedThreadPool("test-same-name", 1);
+		InstrumentedThreadPoolExecutor second = InstrumentedExecutors.newFixedThreadPool("test-same-name", 1);
+		try {
+			assertEquals("test-same-name", first.getName());
+			assertEquals("test-same-name-2", second.getName());
+			assertTrue(InstrumentedExecutors.executors().contains(second));
+		} finally {
+			first.shutdown();
+			second.shutdownNow();
+		}
+		List<Runnable> none = second.shutdownNow();
+		assertTrue(none.isEmpty());
+	}
+}
@@ -0,0 +1,84 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.locks.InstrumentedLock;
+import ca.skylinedata.javatips.concurrency.locks.LockProfiler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstrumentedLockTest {
+
+	@Test
+	public void reentrantAcquisitionsCountOnce() {
+		InstrumentedLock lock = new InstrumentedLock("test-reentrant", new ReentrantLock());
+		lock.lock();
+		lock.lock();
+		assertTrue(lock.tryLock());
+		lock.unlock();
+		lock.unlock();
+		assertEquals(0, lock.getStats().getHoldTimes().count(), "Expecting the hold to end with the outermost unlock");
+		lock.unlock();
+		LockProfiler.LockStats stats = lock.getStats();
+		assertEquals(1, stats.getWaitTimes().count());
+		assertEquals(1, stats.getHoldTimes().count());
+		assertEquals(0, stats.getContended());
+	}
+
+	@Test
+	public void blockedAcquisitionsAndFailedTryLocksAreCounted() throws Exception {
+		InstrumentedLock lock = new InstrumentedLock("test-contended", new ReentrantLock());
+		CountDownLatch held = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread owner = new Thread(() -> {
+			lock.lock();
+			try {
+				held.countDown();
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				lock.unlock();
+			}
+		});
+		owner.start();
+		held.await();
+		assertFalse(lock.tryLock());
+		assertFalse(lock.tryLock(10, TimeUnit.MILLISECONDS));
+		assertEquals(2, lock.getStats().getTryLockFailures());
+
+		Thread waiter = new Thread(() -> {
+			lock.lock();
+			lock.unlock();
+		});
+		waiter.start();
+		TimeUnit.MILLISECONDS.sleep(50);
+		release.countDown();
+		owner.join();
+		waiter.join();
+		LockProfiler.LockStats stats = lock.getStats();
+		assertEquals(1, stats.getContended());
+		assertEquals(2, stats.getWaitTimes().count());
+		assertTrue(stats.getWaitTimes().max() >= TimeUnit.MILLISECONDS.toNanos(50), "Expecting the wait of the blocked thread");
+	}
+
+	@Test
+	public void timeInAwaitIsNotHoldTime() throws InterruptedException {
+		InstrumentedLock lock = new InstrumentedLock("test-await", new ReentrantLock());
+		Condition condition = lock.newCondition();
+		lock.lock();
+		try {
+			assertFalse(condition.await(200, TimeUnit.MILLISECONDS));
+		} finally {
+			lock.unlock();
+		}
+		// the hold before the await and the one after it
+		assertEquals(2, lock.getStats().getHoldTimes().count());
+		assertTrue(lock.getStats().getHoldTimes().max() < TimeUnit.MILLISECONDS.toNanos(100), "Expecting the await left out of the hold time");
+	}
+}
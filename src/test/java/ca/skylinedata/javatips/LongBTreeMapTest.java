@@ -0,0 +1,131 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.collections.LongBTreeMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongBTreeMapTest {
+
+	@Test
+	public void behavesLikeATreeMap() {
+		Random random = new Random(3);
+		TreeMap<Long, Integer> expected = new TreeMap<>();
+		LongBTreeMap<Integer> map = new LongBTreeMap<>();
+		for (int i = 0; i < 200_000; i++) {
+			long key = random.nextInt(50_000) - 25_000;
+			if (random.nextInt(4) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, i), map.put(key, i));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		expected.forEach((k, v) -> assertEquals(v, map.get(k)));
+		assertRange(expected, map, Long.MIN_VALUE, Long.MAX_VALUE);
+		assertRange(expected, map, -1_000, 1_000);
+		assertRange(expected, map, 24_990, 30_000);
+		assertRange(expected, map, 7, 7);
+	}
+
+	@Test
+	public void bulkLoadedTreeTakesInsertsAnywhere() {
+		int size = 100_000;
+		long[] keys = new long[size];
+		Integer[] values = new Integer[size];
+		TreeMap<Long, Integer> expected = new TreeMap<>();
+		for (int i = 0; i < size; i++) {
+			keys[i] = 10L * i;
+			values[i] = i;
+			expected.put(keys[i], i);
+		}
+		LongBTreeMap<Integer> map = LongBTreeMap.bulkLoad(keys, values);
+		assertRange(expected, map, Long.MIN_VALUE, Long.MAX_VALUE);
+		Random random = new Random(5);
+		for (int i = 0; i < 50_000; i++) {
+			long key = random.nextInt(10 * size + 100) - 50;
+			assertEquals(expected.put(key, -i), map.put(key, -i));
+		}
+		assertEquals(expected.size(), map.size());
+		assertRange(expected, map, Long.MIN_VALUE, Long.MAX_VALUE);
+		assertThrows(IllegalArgumentException.class, () -> LongBTreeMap.bulkLoad(new long[] { 2, 1 }, new Integer[] { 1, 2 }));
+	}
+
+	@Test
+	public void scansStayOrderedAndCompleteWhileWritersSplitTheLeaves() throws InterruptedException, ExecutionException {
+		LongBTreeMap<Long> map = new LongBTreeMap<>();
+		// the even keys are there from the start, the writers fill in the odd ones in random order
+		for (long key = 0; key < 200_000; key += 2) {
+			map.put(key, key);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		AtomicBoolean writing = new AtomicBoolean(true);
+		try {
+			List<Future<?>> writers = new ArrayList<>();
+			for (int w = 0; w < 2; w++) {
+				int seed = w;
+				writers.add(executor.submit(() -> {
+					Random random = new Random(seed);
+					for (int i = 0; i < 100_000; i++) {
+						long key = 2L * random.nextInt(100_000) + 1;
+						map.put(key, key);
+					}
+				}));
+			}
+			List<Future<?>> readers = new ArrayList<>();
+			for (int r = 0; r < 2; r++) {
+				readers.add(executor.submit(() -> {
+					while (writing.get()) {
+						long[] previous = { Long.MIN_VALUE };
+						long[] evens = new long[1];
+						map.forEach((k, v) -> {
+							assertTrue(k > previous[0], "Expecting the keys in ascending order");
+							assertEquals(k, v.longValue());
+							previous[0] = k;
+							if (k % 2 == 0) {
+								evens[0]++;
+							}
+						});
+						assertEquals(100_000, evens[0], "Expecting every key present for the whole scan to be seen");
+					}
+				}));
+			}
+			for (Future<?> f : writers) {
+				f.get();
+			}
+			writing.set(false);
+			for (Future<?> f : readers) {
+				f.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		long[] count = new long[1];
+		map.forEach((k, v) -> count[0]++);
+		assertEquals(map.size(), count[0]);
+	}
+
+	private static void assertRange(TreeMap<Long, Integer> expected, LongBTreeMap<Integer> map, long from, long to) {
+		List<Long> keys = new ArrayList<>();
+		List<Integer> values = new ArrayList<>();
+		map.forEach(from, to, (k, v) -> {
+			keys.add(k);
+			values.add(v);
+		});
+		Map<Long, Integer> range = from < to ? expected.subMap(from, to) : Map.of();
+		assertEquals(new ArrayList<>(range.keySet()), keys);
+		assertEquals(new ArrayList<>(range.values()), values);
+	}
+}
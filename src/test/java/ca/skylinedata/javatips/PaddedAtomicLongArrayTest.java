@@ -0,0 +1,79 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.basics.PaddedAtomicLongArray;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaddedAtomicLongArrayTest {
+
+	@Test
+	public void slotsAreIndependent() {
+		PaddedAtomicLongArray array = new PaddedAtomicLongArray(4);
+		assertEquals(4, array.length());
+		array.set(0, 5);
+		assertEquals(5, array.getAndAdd(0, 2));
+		assertEquals(10, array.addAndGet(1, 10));
+		assertEquals(1, array.incrementAndGet(3));
+		assertTrue(array.compareAndSet(2, 0, 7));
+		assertFalse(array.compareAndSet(2, 0, 8));
+		assertEquals(7, array.getAndSet(2, 3));
+		assertEquals(9, array.accumulateMax(3, 9));
+		assertEquals(9, array.accumulateMax(3, 4));
+		assertEquals(7, array.get(0));
+		assertEquals(10, array.get(1));
+		assertEquals(3, array.get(2));
+		assertEquals(7 + 10 + 3 + 9, array.sum());
+	}
+
+	@Test
+	public void indicesOutOfBoundsThrow() {
+		PaddedAtomicLongArray array = new PaddedAtomicLongArray(4);
+		// the backing array is bigger, a bad index must not land in the padding or in another slot
+		assertThrows(IndexOutOfBoundsException.class, () -> array.get(-1));
+		assertThrows(IndexOutOfBoundsException.class, () -> array.get(4));
+		assertThrows(IndexOutOfBoundsException.class, () -> array.set(4, 1));
+		assertThrows(IndexOutOfBoundsException.class, () -> array.getAndAdd(100, 1));
+		assertThrows(IndexOutOfBoundsException.class, () -> array.compareAndSet(-5, 0, 1));
+		assertEquals(0, array.sum());
+	}
+
+	@Test
+	public void stripesArePowersOfTwoOfAtLeastFour() {
+		for (int cpus = 1; cpus <= 256; cpus++) {
+			int stripes = PaddedAtomicLongArray.stripesFor(cpus);
+			assertEquals(1, Integer.bitCount(stripes), "Expecting a power of two for " + cpus + " cpus");
+			assertTrue(stripes >= 4 && stripes >= cpus * 2 && stripes < Math.max(8, cpus * 4), cpus + " cpus: " + stripes + " stripes");
+		}
+	}
+
+	@Test
+	public void threadsStayOnTheirStripeAndInRange() throws InterruptedException {
+		int stripes = 16;
+		AtomicIntegerArray used = new AtomicIntegerArray(stripes);
+		Thread[] threads = new Thread[64];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				int stripe = PaddedAtomicLongArray.stripeOfCurrentThread(stripes);
+				assertEquals(stripe, PaddedAtomicLongArray.stripeOfCurrentThread(stripes));
+				used.incrementAndGet(stripe);
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		int hit = 0;
+		int total = 0;
+		for (int i = 0; i < stripes; i++) {
+			total += used.get(i);
+			hit += used.get(i) > 0 ? 1 : 0;
+		}
+		// an index out of range would have thrown in the threads, and their counts would be missing
+		assertEquals(threads.length, total);
+		assertTrue(hit >= stripes / 2, "Expecting the thread ids to spread over the stripes, " + hit + " of " + stripes + " used");
+	}
+}
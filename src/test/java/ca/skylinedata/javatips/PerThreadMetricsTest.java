@@ -0,0 +1,49 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.basics.PerThreadMetrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerThreadMetricsTest {
+
+	@Test
+	public void aggregatesOverTheThreads() throws InterruptedException {
+		// more threads than slots, so that some of them share a slot
+		PerThreadMetrics metrics = new PerThreadMetrics(4);
+		Thread[] threads = new Thread[6];
+		for (int t = 0; t < threads.length; t++) {
+			int thread = t;
+			threads[t] = new Thread(() -> {
+				for (int i = 1; i <= 10_000; i++) {
+					metrics.record(i + thread);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(4, metrics.slots());
+		assertEquals(6 * 10_000, metrics.count());
+		long expectedTotal = 0;
+		for (int t = 0; t < threads.length; t++) {
+			expectedTotal += 10_000L * 10_001 / 2 + 10_000L * t;
+		}
+		assertEquals(expectedTotal, metrics.total());
+		assertEquals(10_000 + 5, metrics.max());
+		long count = 0;
+		long total = 0;
+		long max = 0;
+		for (int i = 0; i < metrics.slots(); i++) {
+			count += metrics.count(i);
+			total += metrics.total(i);
+			max = Math.max(max, metrics.max(i));
+			assertTrue(metrics.count(i) > 0, "Expecting the slots handed out round-robin, slot " + i + " unused");
+		}
+		assertEquals(metrics.count(), count);
+		assertEquals(metrics.total(), total);
+		assertEquals(metrics.max(), max);
+	}
+}
@@ -0,0 +1,122 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.collections.PersistentHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentHashMapTest {
+
+	/**
+	 * Keys whose hash codes collide in groups of 4, to exercise the collision nodes.
+	 */
+	private static final class CollidingKey {
+		final int id;
+
+		CollidingKey(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return id / 4;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+		}
+	}
+
+	@Test
+	public void behavesLikeAHashMapAndKeepsOldVersionsIntact() {
+		Random random = new Random(7);
+		Map<Object, Integer> expected = new HashMap<>();
+		PersistentHashMap<Object, Integer> built = PersistentHashMap.empty();
+		for (int i = 0; i < 50_000; i++) {
+			int id = random.nextInt(5_000);
+			Object key = random.nextBoolean() ? Integer.valueOf(id) : new CollidingKey(id);
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				built = built.minus(key);
+			} else {
+				expected.put(key, i);
+				built = built.plus(key, i);
+			}
+		}
+		PersistentHashMap<Object, Integer> map = built;
+		assertEquals(expected.size(), map.size());
+		expected.forEach((k, v) -> assertEquals(v, map.get(k)));
+
+		Map<Object, Integer> iterated = new HashMap<>();
+		map.forEach(iterated::put);
+		assertEquals(expected, iterated);
+		iterated.clear();
+		map.iterator().forEachRemaining(e -> iterated.put(e.getKey(), e.getValue()));
+		assertEquals(expected, iterated);
+
+		PersistentHashMap<Object, Integer> before = map;
+		PersistentHashMap<Object, Integer> after = map;
+		for (Object key : expected.keySet()) {
+			after = after.minus(key);
+		}
+		assertTrue(after.isEmpty());
+		assertFalse(after.iterator().hasNext());
+		// structural sharing must not leak the removals into the previous version
+		assertEquals(expected.size(), before.size());
+		expected.forEach((k, v) -> assertEquals(v, before.get(k)));
+	}
+
+	@Test
+	public void unchangedMapIsReturnedForNoOps() {
+		PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty().plus("rate", "120");
+		assertSame(map, map.plus("rate", map.get("rate")));
+		assertSame(map, map.minus("resolution"));
+		assertNull(map.get("resolution"));
+		assertTrue(map.containsKey("rate"));
+	}
+
+	@Test
+	public void builderBatchesEditsWithoutTouchingTheOrigin() {
+		Random random = new Random(11);
+		Map<Object, Integer> expected = new HashMap<>();
+		PersistentHashMap<Object, Integer> origin = PersistentHashMap.empty();
+		for (int i = 0; i < 2_000; i++) {
+			Object key = i % 2 == 0 ? Integer.valueOf(i) : new CollidingKey(i);
+			expected.put(key, i);
+			origin = origin.plus(key, i);
+		}
+		Map<Object, Integer> originEntries = new HashMap<>(expected);
+
+		PersistentHashMap.Builder<Object, Integer> builder = origin.toBuilder();
+		for (int i = 0; i < 20_000; i++) {
+			int id = random.nextInt(4_000);
+			Object key = random.nextBoolean() ? Integer.valueOf(id) : new CollidingKey(id);
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				builder.remove(key);
+			} else {
+				expected.put(key, -i);
+				builder.put(key, -i);
+			}
+		}
+		PersistentHashMap<Object, Integer> built = builder.build();
+		Map<Object, Integer> iterated = new HashMap<>();
+		built.forEach(iterated::put);
+		assertEquals(expected, iterated);
+		assertEquals(expected.size(), built.size());
+
+		// the builder edits its own copies of the nodes in place, never the ones shared with the origin
+		iterated.clear();
+		origin.forEach(iterated::put);
+		assertEquals(originEntries, iterated);
+
+		assertThrows(IllegalStateException.class, () -> builder.put("late", 1));
+		assertSame(built, built.toBuilder().build());
+	}
+}
@@ -0,0 +1,69 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.basics.SelfSizingExecutor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SelfSizingExecutorTest {
+
+	private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+	@Test
+	public void cpuBoundTasksShrinkAnOversizedPool() throws InterruptedException {
+		SelfSizingExecutor executor = new SelfSizingExecutor("test-cpu-bound", CORES * 8, 1, CORES * 8);
+		LongAdder counter = new LongAdder();
+		try {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (executor.getCorePoolSize() > CORES * 2 && System.nanoTime() < deadline) {
+				for (int i = 0; i < CORES * 8; i++) {
+					executor.execute(() -> {
+						for (int n = 0; n < 200_000; n++) {
+							counter.increment();
+						}
+					});
+				}
+				TimeUnit.MILLISECONDS.sleep(50);
+			}
+			assertTrue(executor.getCorePoolSize() <= CORES * 2,
+					"Expecting CPU-bound tasks to bring " + CORES * 8 + " threads down to about " + CORES + ", still " + executor.getCorePoolSize());
+			assertTrue(executor.getResizeCount() > 0);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void sleepingTasksGrowAStarvedPool() throws InterruptedException {
+		SelfSizingExecutor executor = new SelfSizingExecutor("test-sleep-bound", 1, 1, 32);
+		try {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (executor.getCorePoolSize() < 8 && System.nanoTime() < deadline) {
+				for (int i = 0; i < 16; i++) {
+					executor.execute(() -> {
+						try {
+							TimeUnit.MILLISECONDS.sleep(20);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					});
+				}
+				TimeUnit.MILLISECONDS.sleep(50);
+			}
+			assertTrue(executor.getCorePoolSize() >= 8, "Expecting sleeping tasks to grow the pool, still " + executor.getCorePoolSize());
+			assertTrue(executor.getBlockingRatio() > 1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void invalidBoundsAreRejectedBeforeAnyThreadStarts() {
+		assertThrows(IllegalArgumentException.class, () -> new SelfSizingExecutor("test-invalid", 1, 0, 4));
+		assertThrows(IllegalArgumentException.class, () -> new SelfSizingExecutor("test-invalid", 4, 8, 4));
+	}
+}
@@ -0,0 +1,76 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.locks.SpinThenParkLock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpinThenParkLockTest {
+
+	@Test
+	public void interruptedThreadDoesNotGetAFreeLock() {
+		SpinThenParkLock lock = new SpinThenParkLock();
+		Thread.currentThread().interrupt();
+		assertThrows(InterruptedException.class, lock::lockInterruptibly);
+		assertFalse(lock.isLocked());
+		Thread.currentThread().interrupt();
+		assertThrows(InterruptedException.class, () -> lock.tryLock(1, TimeUnit.SECONDS));
+		assertFalse(lock.isLocked());
+		assertFalse(Thread.interrupted(), "Expecting the interrupt to be consumed by the exception");
+	}
+
+	@Test
+	public void timedTryLockGivesUpAtTheTimeout() throws Exception {
+		SpinThenParkLock lock = new SpinThenParkLock();
+		lock.lock();
+		try {
+			long start = System.nanoTime();
+			boolean acquired = CompletableFuture.supplyAsync(() -> {
+				try {
+					return lock.tryLock(20, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}).get(5, TimeUnit.SECONDS);
+			long elapsed = System.nanoTime() - start;
+			assertFalse(acquired);
+			assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(20), "Expecting to wait for the timeout");
+		} finally {
+			lock.unlock();
+		}
+		assertTrue(lock.tryLock(20, TimeUnit.MILLISECONDS));
+		assertEquals(1, lock.getHoldCount());
+		lock.unlock();
+	}
+
+	@Test
+	public void reentrantAndMutuallyExclusive() throws Exception {
+		SpinThenParkLock lock = new SpinThenParkLock();
+		long[] counter = new long[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 100_000; i++) {
+					lock.lock();
+					lock.lock();
+					try {
+						counter[0]++;
+					} finally {
+						lock.unlock();
+						lock.unlock();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(400_000, counter[0]);
+		assertFalse(lock.isLocked());
+	}
+}
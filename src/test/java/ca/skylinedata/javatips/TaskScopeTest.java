@@ -0,0 +1,122 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.basics.TaskScope;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaskScopeTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void resultsComeInCompletionOrder() throws Exception {
+		try (TaskScope<Integer> scope = new TaskScope<>(executor)) {
+			for (int millis : new int[] { 300, 10, 150 }) {
+				scope.fork(() -> {
+					Thread.sleep(millis);
+					return millis;
+				});
+			}
+			assertEquals(Arrays.asList(10, 150, 300), scope.join());
+			assertEquals(0, scope.remaining());
+		}
+	}
+
+	@Test
+	public void aFailureCancelsTheSiblingsAndCloseWaitsForThem() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger interrupted = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(3);
+		long start = System.nanoTime();
+		ExecutionException failure;
+		try (TaskScope<String> scope = new TaskScope<>(executor)) {
+			for (int i = 0; i < 3; i++) {
+				scope.fork(() -> {
+					running.incrementAndGet();
+					started.countDown();
+					try {
+						Thread.sleep(10_000);
+						return "too late";
+					} catch (InterruptedException e) {
+						interrupted.incrementAndGet();
+						// still busy for a bit after the interrupt: close() waits for it
+						long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+						while (System.nanoTime() < until) {
+							Thread.onSpinWait();
+						}
+						throw e;
+					} finally {
+						running.decrementAndGet();
+					}
+				});
+			}
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			scope.fork(() -> {
+				throw new IllegalStateException("failing on purpose");
+			});
+			failure = assertThrows(ExecutionException.class, scope::take);
+		}
+		assertTrue(failure.getCause() instanceof IllegalStateException);
+		assertEquals(3, interrupted.get());
+		assertEquals(0, running.get(), "Expecting no subtask running once the scope is closed");
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "Expecting the siblings cancelled, not waited for");
+	}
+
+	@Test
+	public void theDeadlineCancelsTheLateSubtasks() throws Exception {
+		AtomicInteger finished = new AtomicInteger();
+		try (TaskScope<Integer> scope = new TaskScope<>(executor, 200, TimeUnit.MILLISECONDS)) {
+			for (int millis : new int[] { 10, 5_000, 5_000 }) {
+				scope.fork(() -> {
+					Thread.sleep(millis);
+					finished.incrementAndGet();
+					return millis;
+				});
+			}
+			assertEquals(10, scope.take());
+			assertThrows(TimeoutException.class, scope::take);
+			assertTrue(scope.isShutdown());
+			assertThrows(IllegalStateException.class, () -> scope.fork(() -> 0));
+		}
+		assertEquals(1, finished.get(), "Expecting the late subtasks interrupted");
+	}
+
+	@Test
+	public void theDeadlineCancelsTheSubtasksWhileTheOwnerIsBusy() throws Exception {
+		CountDownLatch interrupted = new CountDownLatch(2);
+		try (TaskScope<Integer> scope = new TaskScope<>(executor, 100, TimeUnit.MILLISECONDS)) {
+			for (int i = 0; i < 2; i++) {
+				scope.fork(() -> {
+					try {
+						Thread.sleep(5_000);
+					} catch (InterruptedException e) {
+						interrupted.countDown();
+						throw e;
+					}
+					return 0;
+				});
+			}
+			// the owner doesn't call take(), the subtasks are cancelled at the deadline all the same
+			assertTrue(interrupted.await(2, TimeUnit.SECONDS), "Expecting the subtasks interrupted at the deadline");
+			assertTrue(scope.isShutdown());
+			assertThrows(TimeoutException.class, scope::take);
+		}
+	}
+}
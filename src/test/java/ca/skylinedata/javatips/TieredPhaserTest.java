@@ -0,0 +1,103 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.locks.TieredPhaser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TieredPhaserTest {
+
+	@Test
+	public void partiesSpreadAcrossTheLeaves() throws InterruptedException {
+		TieredPhaser phaser = new TieredPhaser(16, 4, phase -> { });
+		Map<Phaser, Boolean> used = Collections.synchronizedMap(new IdentityHashMap<>());
+		for (int i = 0; i < 64; i++) {
+			used.put(registerOnNewThread(phaser), true);
+		}
+		assertEquals(16, phaser.getLeafCount());
+		assertEquals(64, phaser.getRegisteredParties());
+		assertTrue(used.size() >= 8, "Expecting the threads to hash to most of the 16 leaves, got " + used.size());
+	}
+
+	@Test
+	public void aPhaseAdvancesOnlyOnceEveryLeafHasArrived() throws InterruptedException {
+		List<Integer> advanced = Collections.synchronizedList(new ArrayList<>());
+		TieredPhaser phaser = new TieredPhaser(16, 2, advanced::add);
+		Phaser first = registerOnNewThread(phaser);
+		Phaser second = otherLeaf(phaser, first);
+		for (int phase = 0; phase < 3; phase++) {
+			first.arrive();
+			assertEquals(phase, phaser.getPhase(), "Expecting the phase to wait for the other leaf");
+			second.arrive();
+			assertEquals(phase + 1, phaser.getPhase());
+		}
+		// onAdvance once per phase, with the phase that completed
+		assertEquals(Arrays.asList(0, 1, 2), advanced);
+	}
+
+	@Test
+	public void theTreeTerminatesOnceEveryPartyHasDeregistered() throws InterruptedException {
+		TieredPhaser phaser = new TieredPhaser(8, 2, phase -> { });
+		Phaser first = registerOnNewThread(phaser);
+		Phaser second = otherLeaf(phaser, first);
+		assertEquals(2, phaser.getRegisteredParties());
+		first.arriveAndDeregister();
+		assertEquals(0, phaser.getPhase());
+		assertEquals(1, phaser.getRegisteredParties());
+		// the leaf that lost its last party no longer holds the phase back
+		second.arrive();
+		assertEquals(1, phaser.getPhase());
+		assertFalse(phaser.isTerminated());
+		second.arriveAndDeregister();
+		assertEquals(0, phaser.getRegisteredParties());
+		assertTrue(phaser.isTerminated());
+	}
+
+	@Test
+	public void awaitAdvanceTimesOut() throws InterruptedException {
+		TieredPhaser phaser = new TieredPhaser(4, 2, phase -> { });
+		Phaser leaf = phaser.register();
+		long start = System.nanoTime();
+		assertThrows(TimeoutException.class, () -> phaser.awaitAdvanceInterruptibly(0, 20, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+		leaf.arrive();
+		assertDoesNotThrow(() -> phaser.awaitAdvanceInterruptibly(0, 1, TimeUnit.SECONDS));
+		assertEquals(1, phaser.getPhase());
+	}
+
+	/**
+	 * Registers a party from a new thread, the way each report thread registers itself.
+	 */
+	private static Phaser registerOnNewThread(TieredPhaser phaser) throws InterruptedException {
+		AtomicReference<Phaser> leaf = new AtomicReference<>();
+		Thread t = new Thread(() -> leaf.set(phaser.register()));
+		t.start();
+		t.join();
+		return leaf.get();
+	}
+
+	/**
+	 * Registers parties from new threads until one lands on another leaf than the given one, the extra parties are deregistered.
+	 */
+	private static Phaser otherLeaf(TieredPhaser phaser, Phaser leaf) throws InterruptedException {
+		for (;;) {
+			Phaser other = registerOnNewThread(phaser);
+			if (other != leaf) {
+				return other;
+			}
+			other.arriveAndDeregister();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.collections.TimingWheelDelayQueue;
+import ca.skylinedata.javatips.concurrency.collections.TimingWheelDelayQueue.RetryTimer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelDelayQueueTest {
+
+	@Test
+	public void elementsComeOutAfterTheirDelayInDeadlineOrder() throws InterruptedException {
+		TimingWheelDelayQueue<RetryTimer> queue = new TimingWheelDelayQueue<>(1, TimeUnit.MILLISECONDS);
+		// 1 ms ticks: 300 ms and 70 s are on levels 1 and 2 of the wheel, and come down a level or two before they expire
+		int[] delays = { 300, 50, 120, 80, 260 };
+		long start = System.nanoTime();
+		for (int i = 0; i < delays.length; i++) {
+			queue.offer(new RetryTimer(delays[i], TimeUnit.MILLISECONDS, i));
+		}
+		TimingWheelDelayQueue<RetryTimer>.Timer cancelled = queue.schedule(new RetryTimer(100, TimeUnit.MILLISECONDS, -1));
+		TimingWheelDelayQueue<RetryTimer>.Timer later = queue.schedule(new RetryTimer(70, TimeUnit.SECONDS, -2));
+		assertEquals(7, queue.size());
+		assertNull(queue.poll(), "Expecting nothing to have expired yet");
+		assertTrue(cancelled.cancel());
+		assertFalse(cancelled.cancel());
+		assertEquals(6, queue.size());
+
+		List<Integer> order = new ArrayList<>();
+		for (int n = 0; n < delays.length; n++) {
+			RetryTimer timer = queue.take();
+			long elapsed = System.nanoTime() - start;
+			assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(delays[timer.id()]), "Expecting timer " + timer.id() + " not to come out early");
+			assertTrue(timer.getDelay(TimeUnit.NANOSECONDS) <= 0);
+			order.add(timer.id());
+		}
+		assertEquals(List.of(1, 3, 2, 4, 0), order);
+		assertEquals(1, queue.size());
+		assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+		assertTrue(queue.contains(later.element()));
+		assertTrue(queue.remove(later.element()));
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void anEarlierElementWakesUpTheWaitingConsumer() throws InterruptedException {
+		TimingWheelDelayQueue<RetryTimer> queue = new TimingWheelDelayQueue<>();
+		queue.offer(new RetryTimer(10, TimeUnit.SECONDS, 1));
+		CompletableFuture<RetryTimer> taken = CompletableFuture.supplyAsync(() -> {
+			try {
+				return queue.take();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		TimeUnit.MILLISECONDS.sleep(50);
+		assertFalse(taken.isDone());
+		long start = System.nanoTime();
+		queue.offer(new RetryTimer(20, TimeUnit.MILLISECONDS, 2));
+		assertEquals(2, taken.join().id());
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "Expecting the consumer not to sleep until the first deadline");
+
+		List<RetryTimer> drained = new ArrayList<>();
+		queue.offer(new RetryTimer(-1, TimeUnit.MILLISECONDS, 3));
+		queue.offer(new RetryTimer(-50, TimeUnit.MILLISECONDS, 4));
+		assertEquals(2, queue.drainTo(drained));
+		assertEquals(7, drained.get(0).id() + drained.get(1).id());
+		queue.clear();
+		assertEquals(0, queue.size());
+	}
+}
@@ -0,0 +1,56 @@
+package ca.skylinedata.javatips;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.async.TimingWheel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+class TimingWheelTest {
+
+	@Test
+	public void timeoutsFireAfterTheirDeadlineUnlessCancelled() throws InterruptedException {
+		try (TimingWheel timer = new TimingWheel("test-timing-wheel", 1, TimeUnit.MILLISECONDS, 8)) {
+			AtomicInteger fired = new AtomicInteger();
+			long start = System.nanoTime();
+			// 8 buckets of 1 ms: the 50 ms timeouts need several revolutions of the wheel
+			TimingWheel.Timeout kept = timer.schedule(fired::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+			TimingWheel.Timeout cancelled = timer.schedule(fired::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+			assertTrue(cancelled.cancel());
+			assertFalse(cancelled.cancel(), "Expecting a timeout to be cancelled only once");
+
+			CompletableFuture<String> f = timer.orTimeout(new CompletableFuture<>(), 50, TimeUnit.MILLISECONDS);
+			CompletionException e = assertThrows(CompletionException.class, f::join);
+			assertTrue(e.getCause() instanceof TimeoutException);
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50), "Expecting the timeout not to fire before its deadline");
+
+			TimeUnit.MILLISECONDS.sleep(20);
+			assertTrue(kept.isExpired());
+			assertTrue(cancelled.isCancelled());
+			assertEquals(1, fired.get());
+			assertEquals(0, timer.outstanding());
+		}
+	}
+
+	@Test
+	public void completeOnTimeoutIsCancelledByCompletion() {
+		try (TimingWheel timer = new TimingWheel("test-timing-wheel", 1, TimeUnit.MILLISECONDS, 8)) {
+			CompletableFuture<String> slow = timer.completeOnTimeout(new CompletableFuture<>(), "default", 10, TimeUnit.MILLISECONDS);
+			assertEquals("default", slow.join());
+
+			CompletableFuture<String> fast = timer.completeOnTimeout(new CompletableFuture<>(), "default", 10, TimeUnit.SECONDS);
+			fast.complete("value");
+			assertEquals("value", fast.join());
+			assertEquals(0, timer.outstanding(), "Expecting completion to cancel the pending timeout");
+		}
+	}
+
+}
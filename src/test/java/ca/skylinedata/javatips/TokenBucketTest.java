@@ -0,0 +1,122 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.locks.TokenBucket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+	// the token count gets the low 22 bits of the state
+	private static final int MAX_BURST = (1 << 22) - 1;
+
+	@Test
+	public void startsFullAndTakesWeightedPermits() {
+		TokenBucket bucket = new TokenBucket(1, 10);
+		assertEquals(10, bucket.availablePermits());
+		assertTrue(bucket.tryAcquire(3));
+		assertTrue(bucket.tryAcquire(6));
+		assertFalse(bucket.tryAcquire(2));
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+		assertEquals(0, bucket.availablePermits());
+		assertThrows(IllegalArgumentException.class, () -> bucket.tryAcquire(11));
+		assertThrows(IllegalArgumentException.class, () -> bucket.tryAcquire(0));
+	}
+
+	@Test
+	public void theLargestBurstDrainsWithoutABorrowIntoTheTimestamp() {
+		assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, MAX_BURST + 1));
+		TokenBucket bucket = new TokenBucket(1, MAX_BURST);
+		assertEquals(MAX_BURST, bucket.availablePermits());
+		assertTrue(bucket.tryAcquire(MAX_BURST - 1));
+		assertEquals(1, bucket.availablePermits());
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+		// a borrow would have turned the count into garbage or shifted the refill time
+		assertEquals(0, bucket.availablePermits());
+	}
+
+	@Test
+	public void refillsAtTheRate() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(100, 10);
+		assertTrue(bucket.tryAcquire(10));
+		long start = System.nanoTime();
+		TimeUnit.MILLISECONDS.sleep(55);
+		int available = bucket.availablePermits();
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(available >= 5 && available <= Math.min(10, elapsedMillis / 10 + 1), "Expecting a token per 10 ms, got " + available);
+		TimeUnit.MILLISECONDS.sleep(200);
+		assertEquals(10, bucket.availablePermits(), "Expecting the refill to stop at the burst");
+	}
+
+	@Test
+	public void concurrentAcquisitionsNeverExceedTheRate() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(1_000, 100);
+		LongAdder granted = new LongAdder();
+		AtomicBoolean stop = new AtomicBoolean();
+		Thread[] threads = new Thread[4];
+		long start = System.nanoTime();
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				while (!stop.get()) {
+					if (bucket.tryAcquire()) {
+						granted.increment();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		TimeUnit.MILLISECONDS.sleep(300);
+		stop.set(true);
+		for (Thread t : threads) {
+			t.join();
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(granted.sum() <= 100 + elapsedMillis + 1, "Expecting at most the burst plus a token per ms, got " + granted.sum());
+		assertTrue(granted.sum() >= 100 + 200, "Expecting the refills to be handed out, got " + granted.sum());
+	}
+
+	@Test
+	public void waitsForTheRefillOrGivesUpRightAway() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(50, 1);
+		bucket.acquire();
+		long start = System.nanoTime();
+		bucket.acquire();
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(15), "Expecting to wait about 20 ms for the token");
+
+		start = System.nanoTime();
+		assertFalse(bucket.tryAcquire(1, 5, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(5), "Expecting no wait for a refill past the timeout");
+		assertTrue(bucket.tryAcquire(1, 100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void anIdleBucketRefillsWhateverTheIdlePeriod() {
+		AtomicLong nanos = new AtomicLong();
+		TokenBucket bucket = new TokenBucket(10, 10, nanos::get);
+		long micros = 0;
+		// idle periods around half and all of the 42-bit microsecond clock, 25 and 50 days
+		long[] idleMicros = { (1L << 41) - 1_000, (1L << 41) + 1_000, (1L << 41) + TimeUnit.DAYS.toMicros(3), (1L << 42) - TimeUnit.SECONDS.toMicros(5) };
+		for (long idle : idleMicros) {
+			assertTrue(bucket.tryAcquire(7));
+			assertEquals(3, bucket.availablePermits());
+			micros += idle;
+			nanos.set(TimeUnit.MICROSECONDS.toNanos(micros));
+			assertEquals(10, bucket.availablePermits(), "Expecting a full bucket after " + idle + " us idle");
+			assertTrue(bucket.tryAcquire(10), "Expecting the refill to be usable after " + idle + " us idle");
+			// and the refills go on at the rate from there
+			micros += TimeUnit.MILLISECONDS.toMicros(500);
+			nanos.set(TimeUnit.MICROSECONDS.toNanos(micros));
+			assertEquals(5, bucket.availablePermits());
+			micros += TimeUnit.SECONDS.toMicros(1);
+			nanos.set(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.locks.WeightedFairSemaphore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeightedFairSemaphoreTest {
+
+	@Test
+	public void permitsAreSharedByWeight() throws InterruptedException {
+		WeightedFairSemaphore semaphore = new WeightedFairSemaphore(0, 3, 1);
+		List<Integer> granted = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> waiters = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			waiters.add(queue(semaphore, 0, 1, granted));
+			waiters.add(queue(semaphore, 1, 1, granted));
+		}
+		for (int i = 1; i <= 12; i++) {
+			semaphore.release();
+			awaitSize(granted, i);
+		}
+		// 3 permits of the first class per permit of the second one while both have waiters, then the rest of the second one
+		assertEquals(Arrays.asList(0, 0, 0, 1, 0, 0, 0, 1, 1, 1, 1, 1), granted);
+		for (Thread t : waiters) {
+			t.join();
+		}
+		assertEquals(0, semaphore.availablePermits());
+	}
+
+	@Test
+	public void aLargeRequestBuildsUpItsDeficitAndIsNotStarved() throws Exception {
+		WeightedFairSemaphore semaphore = new WeightedFairSemaphore(0, 1, 1);
+		List<Integer> granted = Collections.synchronizedList(new ArrayList<>());
+		for (int i = 0; i < 6; i++) {
+			queue(semaphore, 0, 1, granted);
+		}
+		Thread large = queue(semaphore, 1, 3, granted);
+		for (int i = 1; i <= 3; i++) {
+			semaphore.release();
+			awaitSize(granted, i);
+		}
+		assertEquals(Arrays.asList(0, 0, 0), granted);
+		// the second class has earned a deficit of 3 by now: the next permits are kept for it, not handed to the first class
+		semaphore.release();
+		semaphore.release();
+		assertEquals(2, semaphore.availablePermits());
+		assertEquals(3, semaphore.getQueueLength(0));
+		assertFalse(semaphore.tryAcquire(0, 1, 0, TimeUnit.MILLISECONDS), "Expecting no barging ahead of the waiters");
+		semaphore.release();
+		large.join(5_000);
+		assertFalse(large.isAlive());
+		assertEquals(Arrays.asList(0, 0, 0, 1), granted);
+		assertEquals(0, semaphore.availablePermits());
+		assertEquals(1, semaphore.getWaitTimes(1).count());
+	}
+
+	@Test
+	public void aTimedOutWaiterLeavesTheQueue() throws InterruptedException {
+		WeightedFairSemaphore semaphore = new WeightedFairSemaphore(1, 1, 1);
+		List<Integer> granted = Collections.synchronizedList(new ArrayList<>());
+		assertFalse(semaphore.tryAcquire(1, 2, 20, TimeUnit.MILLISECONDS));
+		assertEquals(0, semaphore.getQueueLength(1));
+		// the permit wasn't reserved for the waiter that gave up
+		assertTrue(semaphore.tryAcquire(0, 1, 0, TimeUnit.MILLISECONDS));
+		Thread waiter = queue(semaphore, 1, 1, granted);
+		semaphore.release();
+		waiter.join(5_000);
+		assertEquals(Collections.singletonList(1), granted);
+	}
+
+	/**
+	 * Starts a thread that acquires the permits in the class and records the class once granted, and waits until it's queued.
+	 */
+	private static Thread queue(WeightedFairSemaphore semaphore, int priorityClass, int permits, List<Integer> granted) throws InterruptedException {
+		int queued = semaphore.getQueueLength(priorityClass);
+		Thread t = new Thread(() -> {
+			try {
+				semaphore.acquire(priorityClass, permits);
+				granted.add(priorityClass);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		while (semaphore.getQueueLength(priorityClass) == queued) {
+			Thread.sleep(1);
+		}
+		return t;
+	}
+
+	private static void awaitSize(List<Integer> granted, int size) throws InterruptedException {
+		long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (granted.size() < size && System.nanoTime() < until) {
+			Thread.sleep(1);
+		}
+		assertEquals(size, granted.size());
+	}
+}
@@ -0,0 +1,130 @@
+package ca.skylinedata.javatips;
+
+import org.junit.jupiter.api.Test;
+
+import ca.skylinedata.javatips.concurrency.basics.WorkStealingExecutor;
+import ca.skylinedata.javatips.concurrency.collections.WorkStealingDeque;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkStealingDequeTest {
+
+	@Test
+	public void everyElementIsTakenExactlyOnce() throws InterruptedException, ExecutionException {
+		int elements = 1_000_000;
+		int thieves = 3;
+		// a small initial capacity, so that the owner grows the array while the thieves steal
+		WorkStealingDeque<Integer> deque = new WorkStealingDeque<>(2);
+		AtomicIntegerArray taken = new AtomicIntegerArray(elements);
+		AtomicBoolean ownerDone = new AtomicBoolean();
+		ExecutorService executor = Executors.newFixedThreadPool(thieves);
+		try {
+			List<Future<Integer>> stolen = new ArrayList<>();
+			for (int t = 0; t < thieves; t++) {
+				stolen.add(executor.submit(() -> {
+					int count = 0;
+					while (!ownerDone.get() || !deque.isEmpty()) {
+						Integer e = deque.steal();
+						if (e != null) {
+							taken.incrementAndGet(e);
+							count++;
+						}
+					}
+					return count;
+				}));
+			}
+			// the owner pushes in bursts and pops some of its own, racing the thieves for the last elements
+			int popped = 0;
+			int next = 0;
+			while (next < elements) {
+				int burst = Math.min(elements - next, 1 + next % 7);
+				for (int i = 0; i < burst; i++) {
+					deque.push(next++);
+				}
+				for (int i = 0; i < burst / 2 + 1; i++) {
+					Integer e = deque.pop();
+					if (e != null) {
+						taken.incrementAndGet(e);
+						popped++;
+					}
+				}
+			}
+			Integer e;
+			while ((e = deque.pop()) != null) {
+				taken.incrementAndGet(e);
+				popped++;
+			}
+			ownerDone.set(true);
+			int total = popped;
+			for (Future<Integer> f : stolen) {
+				total += f.get();
+			}
+			assertEquals(elements, total);
+		} finally {
+			executor.shutdown();
+		}
+		for (int i = 0; i < elements; i++) {
+			assertEquals(1, taken.get(i), "Expecting element " + i + " to be taken once");
+		}
+		assertNull(deque.pop());
+		assertNull(deque.steal());
+	}
+
+	@Test
+	public void executorRunsRecursiveTasksToCompletion() throws InterruptedException {
+		WorkStealingExecutor executor = new WorkStealingExecutor(4);
+		try {
+			long nanos = WorkStealingExecutor.runTree(executor, 16, 10);
+			assertTrue(nanos > 0);
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(executor.isTerminated());
+	}
+
+	@Test
+	public void everyAcceptedTaskRunsWhenShutdownRacesWithExecute() throws InterruptedException {
+		for (int round = 0; round < 50; round++) {
+			WorkStealingExecutor executor = new WorkStealingExecutor(2);
+			LongAdder accepted = new LongAdder();
+			LongAdder ran = new LongAdder();
+			CountDownLatch started = new CountDownLatch(3);
+			Thread[] producers = new Thread[3];
+			for (int p = 0; p < producers.length; p++) {
+				producers[p] = new Thread(() -> {
+					started.countDown();
+					try {
+						while (true) {
+							executor.execute(ran::increment);
+							accepted.increment();
+						}
+					} catch (RejectedExecutionException e) {
+						// shut down
+					}
+				});
+				producers[p].start();
+			}
+			started.await();
+			executor.shutdown();
+			for (Thread t : producers) {
+				t.join();
+			}
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			assertEquals(accepted.sum(), ran.sum(), "Round " + round + ": expecting every accepted task to run");
+		}
+	}
+}